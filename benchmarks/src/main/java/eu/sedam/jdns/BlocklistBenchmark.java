@@ -0,0 +1,73 @@
+package eu.sedam.jdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Lookup in blocklist of synthetic rules, a quarter of them wildcards.
+ * Names are cycled so every lookup misses CPU caches the way it would on
+ * real traffic. Allowed names are mostly stopped by Bloom filter, blocked
+ * names always walk the trie. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Thread)
+public class BlocklistBenchmark {
+
+    private static final String[] TLDS = {"com", "net", "org", "io", "info", "xyz"};
+    private static final int NAMES = 1 << 16;
+
+    @Param({"1000000"})
+    private int rules;
+
+    private Blocklist blocklist;
+    private DnsName[] allowed;
+    private DnsName[] blocked;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(this.rules);
+        this.blocked = new DnsName[NAMES];
+        for (int i = 0; i < this.rules; i++) {
+            String name = "ads" + i + "." + TLDS[random.nextInt(TLDS.length)];
+            boolean wildcard = i % 4 == 0;
+            lines.add(wildcard ? "*." + name : name);
+            if (i < NAMES) this.blocked[i] = DnsName.of(wildcard ? "cdn." + name : name);
+        }
+        this.blocklist = Blocklist.of(lines);
+
+        this.allowed = new DnsName[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            this.allowed[i] = DnsName.of("www.site" + i + "." + TLDS[random.nextInt(TLDS.length)]);
+        }
+    }
+
+    @Benchmark
+    public boolean allowed() {
+        return this.blocklist.contains(this.allowed[this.index++ & (NAMES - 1)]);
+    }
+
+    @Benchmark
+    public boolean blocked() {
+        return this.blocklist.contains(this.blocked[this.index++ & (NAMES - 1)]);
+    }
+
+}
@@ -0,0 +1,53 @@
+package eu.sedam.jdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reading and writing of the 12 byte header */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderBenchmark {
+
+    private BytePacketBuffer responseBuffer;
+    private BytePacketBuffer writeBuffer;
+    private DnsHeader header;
+
+    @Setup
+    public void setup() {
+        this.responseBuffer = Payloads.buffer(Payloads.CNAME_RESPONSE);
+        this.writeBuffer = new BytePacketBuffer();
+        this.header = new DnsHeader();
+        this.header.read(Payloads.buffer(Payloads.CNAME_RESPONSE));
+    }
+
+    @Benchmark
+    public DnsHeader read() {
+        this.responseBuffer.jump(0);
+        DnsHeader result = new DnsHeader();
+        result.read(this.responseBuffer);
+        return result;
+    }
+
+    @Benchmark
+    public BytePacketBuffer write() {
+        this.writeBuffer.clear();
+        this.header.write(this.writeBuffer);
+        return this.writeBuffer;
+    }
+
+}
@@ -0,0 +1,116 @@
+package eu.sedam.jdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reading and writing of domain names. Reads are measured on name written
+ * as plain labels and on name ending with compression pointer. Writes put
+ * names of MX response into one buffer, so with compression enabled every
+ * name after the first one ends with pointer. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NameBenchmark {
+
+    private static final String[] NAMES = {
+            "gmail.com",
+            "gmail-smtp-in.l.google.com",
+            "alt1.gmail-smtp-in.l.google.com",
+            "alt2.gmail-smtp-in.l.google.com",
+            "alt3.gmail-smtp-in.l.google.com",
+            "alt4.gmail-smtp-in.l.google.com"
+    };
+
+    private BytePacketBuffer plainBuffer;
+    private BytePacketBuffer compressedBuffer;
+    private BytePacketBuffer writeBuffer;
+    private DnsName[] dnsNames;
+
+    @Setup
+    public void setup() {
+        this.plainBuffer = Payloads.buffer(Payloads.QUERY);
+        this.compressedBuffer = Payloads.buffer(Payloads.REFERRAL_RESPONSE);
+        this.writeBuffer = new BytePacketBuffer();
+        this.dnsNames = new DnsName[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            this.dnsNames[i] = DnsName.of(NAMES[i]);
+        }
+    }
+
+    @Benchmark
+    public String readQNamePlain() throws Exception {
+        this.plainBuffer.jump(Payloads.PLAIN_NAME_OFFSET);
+        return this.plainBuffer.readQName();
+    }
+
+    @Benchmark
+    public String readQNameCompressed() throws Exception {
+        this.compressedBuffer.jump(Payloads.COMPRESSED_NAME_OFFSET);
+        return this.compressedBuffer.readQName();
+    }
+
+    @Benchmark
+    public DnsName readNamePlain() throws Exception {
+        this.plainBuffer.jump(Payloads.PLAIN_NAME_OFFSET);
+        return this.plainBuffer.readName();
+    }
+
+    @Benchmark
+    public DnsName readNameCompressed() throws Exception {
+        this.compressedBuffer.jump(Payloads.COMPRESSED_NAME_OFFSET);
+        return this.compressedBuffer.readName();
+    }
+
+    @Benchmark
+    public BytePacketBuffer writeQNameCompressed() {
+        return writeQNames(true);
+    }
+
+    @Benchmark
+    public BytePacketBuffer writeQNameUncompressed() {
+        return writeQNames(false);
+    }
+
+    @Benchmark
+    public BytePacketBuffer writeNameCompressed() {
+        return writeNames(true);
+    }
+
+    @Benchmark
+    public BytePacketBuffer writeNameUncompressed() {
+        return writeNames(false);
+    }
+
+    private BytePacketBuffer writeQNames(boolean compression) {
+        this.writeBuffer.clear();
+        this.writeBuffer.setCompression(compression);
+        for (String name : NAMES) {
+            this.writeBuffer.writeQName(name);
+        }
+        return this.writeBuffer;
+    }
+
+    private BytePacketBuffer writeNames(boolean compression) {
+        this.writeBuffer.clear();
+        this.writeBuffer.setCompression(compression);
+        for (DnsName name : this.dnsNames) {
+            this.writeBuffer.writeName(name);
+        }
+        return this.writeBuffer;
+    }
+
+}
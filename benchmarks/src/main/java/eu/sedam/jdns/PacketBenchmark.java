@@ -0,0 +1,54 @@
+package eu.sedam.jdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Parsing and serialization of whole packets */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketBenchmark {
+
+    @Param({"QUERY", "CNAME_RESPONSE", "REFERRAL_RESPONSE", "MX_RESPONSE", "AAAA_RESPONSE"})
+    public String payload;
+
+    private BytePacketBuffer readBuffer;
+    private BytePacketBuffer writeBuffer;
+    private DnsPacket packet;
+
+    @Setup
+    public void setup() throws Exception {
+        this.readBuffer = Payloads.buffer(Payloads.byName(this.payload));
+        this.packet = new DnsPacket().fromBuffer(Payloads.buffer(Payloads.byName(this.payload)));
+        this.writeBuffer = new BytePacketBuffer();
+    }
+
+    @Benchmark
+    public DnsPacket fromBuffer() throws Exception {
+        this.readBuffer.jump(0);
+        return new DnsPacket().fromBuffer(this.readBuffer);
+    }
+
+    @Benchmark
+    public BytePacketBuffer write() {
+        this.writeBuffer.clear();
+        this.packet.write(this.writeBuffer);
+        return this.writeBuffer;
+    }
+
+}
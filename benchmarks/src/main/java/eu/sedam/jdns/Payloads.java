@@ -0,0 +1,85 @@
+package eu.sedam.jdns;
+
+/*
+ * Packets used by benchmarks. They are laid out the way real servers send
+ * them, including compression pointers in responses. */
+public class Payloads {
+
+    /*
+     * Query for A record of www.google.com with RD flag set */
+    public static final byte[] QUERY = hex(
+            "1f2e012000010000000000000377777706676f6f676c6503636f6d0000010001");
+
+    /*
+     * Answer with CNAME www.github.com -> github.com followed by its A record */
+    public static final byte[] CNAME_RESPONSE = hex(
+            "1f2e81800001000200000000037777770667697468756203636f6d0000010001" +
+            "c00c0005000100000e100002c010c010000100010000003c00048c527904");
+
+    /*
+     * Answer for example.com with NS records in authority section and A / AAAA
+     * glue for both name servers in additional section */
+    public static final byte[] REFERRAL_RESPONSE = hex(
+            "3a4b81800001000100020004076578616d706c6503636f6d0000010001c00c00" +
+            "0100010001518000045db8d822c00c0002000100015180001401610c69616e61" +
+            "2d73657276657273036e657400c00c000200010001518000040162c03bc03900" +
+            "010001000007080004c72b8735c039001c000100000708001020010500008f00" +
+            "000000000000000053c05900010001000007080004c72b8535c059001c000100" +
+            "000708001020010500008d00000000000000000053");
+
+    /*
+     * Five MX records of gmail.com sharing suffixes through pointers */
+    public static final byte[] MX_RESPONSE = hex(
+            "5c6d8180000100050000000005676d61696c03636f6d00000f0001c00c000f00" +
+            "0100000e10001b00050d676d61696c2d736d74702d696e016c06676f6f676c65" +
+            "c012c00c000f000100000e100009000a04616c7431c029c00c000f000100000e" +
+            "100009001404616c7432c029c00c000f000100000e100009001e04616c7433c0" +
+            "29c00c000f000100000e100009002804616c7434c029");
+
+    /*
+     * Answer with CNAME www.facebook.com -> star-mini.c10r.facebook.com followed
+     * by its AAAA record */
+    public static final byte[] AAAA_RESPONSE = hex(
+            "7e8f81800001000200000000037777770866616365626f6f6b03636f6d00001c" +
+            "0001c00c0005000100000e10001109737461722d6d696e690463313072c010c0" +
+            "2e001c00010000003c00102a032880f12f0083faceb00c000025de");
+
+    // Offset of name "b.iana-servers.net" in REFERRAL_RESPONSE that is
+    // written as one label followed by pointer
+    public static final int COMPRESSED_NAME_OFFSET = 89;
+
+    // Offset of name "www.google.com" in QUERY written without pointers
+    public static final int PLAIN_NAME_OFFSET = 12;
+
+    /*
+     * Returns payload by its name, used with @Param */
+    public static byte[] byName(String name) {
+        return switch (name) {
+            case "QUERY" -> QUERY;
+            case "CNAME_RESPONSE" -> CNAME_RESPONSE;
+            case "REFERRAL_RESPONSE" -> REFERRAL_RESPONSE;
+            case "MX_RESPONSE" -> MX_RESPONSE;
+            case "AAAA_RESPONSE" -> AAAA_RESPONSE;
+            default -> throw new IllegalArgumentException("Unknown payload " + name);
+        };
+    }
+
+    /*
+     * Returns buffer holding given payload positioned at the beginning */
+    public static BytePacketBuffer buffer(byte[] payload) {
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        buffer.writeBytes(payload);
+        buffer.setLimit(payload.length);
+        buffer.jump(0);
+        return buffer;
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+}
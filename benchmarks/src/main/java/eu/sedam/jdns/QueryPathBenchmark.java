@@ -0,0 +1,96 @@
+package eu.sedam.jdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Whole query path of DnsServer.handleRequest - parsing of query, lookup,
+ * serialization and sending of response. Upstream is in-process fake
+ * server listening on loopback. With cache disabled every query goes to the stub,
+ * with cache enabled all but the first query are cache hits, which are sent
+ * from response kept in wire format unless wire cache is disabled. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueryPathBenchmark {
+
+    @Param({"0", "10000"})
+    public String cacheSize;
+
+    @Param({"false", "true"})
+    public String passThrough;
+
+    @Param({"true"})
+    public String wireCache;
+
+    private FakeUpstream upstream;
+    private DatagramSocket serverSocket;
+    private DatagramSocket clientSocket;
+    private InetAddress clientAddress;
+    private int clientPort;
+    private BytePacketBuffer requestBuffer;
+    private PrintStream originalOut;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.upstream = new FakeUpstream(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0, 0, 1, 300);
+
+        // DnsServer reads configuration when its class is loaded, which
+        // happens after this point in the forked JVM
+        System.setProperty("jdns.upstream", "127.0.0.1:" + this.upstream.getPort());
+        System.setProperty("jdns.cacheSize", this.cacheSize);
+        System.setProperty("jdns.passThrough", this.passThrough);
+        System.setProperty("jdns.wireCache", this.wireCache);
+
+        // Console tracing of queries is not what is measured here
+        this.originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        this.serverSocket = new DatagramSocket(0, loopback);
+        // Responses are never read, kernel drops them once socket buffer is full
+        this.clientSocket = new DatagramSocket(0, loopback);
+        this.clientAddress = loopback;
+        this.clientPort = this.clientSocket.getLocalPort();
+        this.requestBuffer = new BytePacketBuffer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        System.setOut(this.originalOut);
+        this.serverSocket.close();
+        this.clientSocket.close();
+        this.upstream.close();
+    }
+
+    @Benchmark
+    public void handleRequest() throws Exception {
+        this.requestBuffer.clear();
+        this.requestBuffer.writeBytes(Payloads.QUERY);
+        this.requestBuffer.jump(0);
+        DnsServer.handleRequest(this.serverSocket, this.requestBuffer, Payloads.QUERY.length,
+                this.clientAddress, this.clientPort);
+    }
+
+}
@@ -0,0 +1,77 @@
+package eu.sedam.jdns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Reading and writing of single resource record of each supported type.
+ * Records are taken from payloads, so names inside them use pointers. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordBenchmark {
+
+    @Param({"A", "AAAA", "NS", "CNAME", "MX"})
+    public String type;
+
+    private BytePacketBuffer readBuffer;
+    private BytePacketBuffer writeBuffer;
+    private int recordOffset;
+    private DnsRecord record;
+
+    @Setup
+    public void setup() throws Exception {
+        // Payload and index of record among all records of that payload
+        byte[] payload;
+        int index;
+        switch (this.type) {
+            case "A" -> { payload = Payloads.CNAME_RESPONSE; index = 1; }
+            case "AAAA" -> { payload = Payloads.AAAA_RESPONSE; index = 1; }
+            case "NS" -> { payload = Payloads.REFERRAL_RESPONSE; index = 1; }
+            case "CNAME" -> { payload = Payloads.CNAME_RESPONSE; index = 0; }
+            case "MX" -> { payload = Payloads.MX_RESPONSE; index = 1; }
+            default -> throw new IllegalArgumentException("Unknown type " + this.type);
+        }
+
+        this.readBuffer = Payloads.buffer(payload);
+        DnsHeader header = new DnsHeader();
+        header.read(this.readBuffer);
+        for (int i = 0; i < header.getQuestionsCnt(); i++) {
+            new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN).read(this.readBuffer);
+        }
+        for (int i = 0; i < index; i++) {
+            new DnsRecord().read(this.readBuffer);
+        }
+
+        this.recordOffset = this.readBuffer.getPosition();
+        this.record = new DnsRecord().read(this.readBuffer);
+        this.writeBuffer = new BytePacketBuffer();
+    }
+
+    @Benchmark
+    public DnsRecord read() throws Exception {
+        this.readBuffer.jump(this.recordOffset);
+        return new DnsRecord().read(this.readBuffer);
+    }
+
+    @Benchmark
+    public int write() {
+        this.writeBuffer.clear();
+        return this.record.write(this.writeBuffer);
+    }
+
+}
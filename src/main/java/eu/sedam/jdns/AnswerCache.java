@@ -0,0 +1,467 @@
+package eu.sedam.jdns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*
+ * In-memory cache of upstream answers keyed by (name, query type, class).
+ *
+ * Entry keeps answer, authority and additional records of the response and
+ * expires after the smallest TTL among them. When entry is served, TTL of
+ * every record is decreased by the time it spent in the cache.
+ *
+ * Negative answers are cached as in RFC 2308 when their authority section
+ * has SOA record. NXDOMAIN is stored for the name and matches every type,
+ * NODATA (NOERROR without records of asked type) only for its type. They
+ * expire after the smaller of SOA TTL and SOA minimum, capped by given
+ * maximum negative TTL.
+ *
+ * Cache is bounded. When it is full, a small sample of entries is inspected
+ * and the one closest to expiry is evicted, which keeps insertion cheap.
+ * Samples are taken by clock hand that moves around the whole map, so every
+ * entry is considered in turn. Only threads evicting share the hand, lookups
+ * and insertion do not take a global lock.
+ *
+ * With prefetch enabled, entry that was hit at least given number of times
+ * and has less than given fraction of its TTL left is handed to Prefetcher
+ * once, which looks it up again and replaces it before it expires.
+ *
+ * With serve-stale enabled (RFC 8767), expired entry is kept for given
+ * stale window. It is not returned by get(), but caller whose lookup failed
+ * or took too long can ask for it with getStale(). After failed refresh,
+ * get() returns the stale answer for stale TTL seconds so upstream that is
+ * down is not asked again by every client.
+ *
+ * Entry also keeps its response encoded in wire format for the few request
+ * variants (query type and EDNS) it was asked with, so writeEncoded() serves
+ * hit by copying bytes instead of building and writing packet. */
+public class AnswerCache {
+
+    // Number of entries inspected when choosing victim for eviction
+    private static final int EVICTION_SAMPLE = 8;
+    // Number of encoded responses kept per entry
+    private static final int MAX_ENCODED = 4;
+
+    private final Map<QuestionKey, Entry> entries = new ConcurrentHashMap<>();
+    // Position of eviction sampling in the map, used under lock of the cache
+    private Iterator<Map.Entry<QuestionKey, Entry>> clockHand = Collections.emptyIterator();
+    private final int maxEntries;
+    private final long maxNegativeTtl;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+
+    // Refresh-ahead settings, prefetcher is null when disabled
+    private volatile Prefetcher prefetcher;
+    private volatile double prefetchThreshold;
+    private volatile int prefetchMinHits;
+
+    // Serve-stale settings, window of 0 disables it
+    private volatile long staleWindowNanos;
+    private volatile int staleTtl;
+
+    public AnswerCache(int maxEntries) {
+        this(maxEntries, 3600);
+    }
+
+    public AnswerCache(int maxEntries, long maxNegativeTtl) {
+        this.maxEntries = maxEntries;
+        this.maxNegativeTtl = maxNegativeTtl;
+    }
+
+    /*
+     * Enables refresh of entries hit at least minHits times once less than
+     * threshold fraction of their TTL remains. Applies to entries stored
+     * after this call. */
+    public void setPrefetch(Prefetcher prefetcher, double threshold, int minHits) {
+        this.prefetchThreshold = threshold;
+        this.prefetchMinHits = minHits;
+        this.prefetcher = prefetcher;
+    }
+
+    /*
+     * Keeps expired entries for given number of seconds so they can be
+     * served with given TTL when refresh fails */
+    public void setServeStale(long windowSeconds, int staleTtl) {
+        this.staleTtl = staleTtl;
+        this.staleWindowNanos = TimeUnit.SECONDS.toNanos(Math.max(0, windowSeconds));
+    }
+
+    /*
+     * Returns cached response for given question with counted down TTLs
+     * or null if there is no valid entry */
+    public DnsPacket get(DnsQuestion question) {
+        return get(question, true);
+    }
+
+    /*
+     * Same as get(), but miss is not counted because caller asks again
+     * with get() before looking the question up */
+    public DnsPacket getIfPresent(DnsQuestion question) {
+        return get(question, false);
+    }
+
+    private DnsPacket get(DnsQuestion question, boolean countMiss) {
+        QuestionKey key = new QuestionKey(question);
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            // Name that does not exist has no records of any type
+            key = QuestionKey.ofName(question);
+            entry = this.entries.get(key);
+        }
+        long now = System.nanoTime();
+
+        if (entry == null || entry.isExpired(now)) {
+            if (entry != null && !entry.isStale(now, this.staleWindowNanos)) {
+                // Remove only the expired entry we saw, not a fresh replacement
+                this.entries.remove(key, entry);
+            } else if (entry != null && now - entry.retryAt < 0) {
+                // Refresh failed recently, wait before asking upstream again
+                this.staleHits.increment();
+                return entry.toStalePacket(this.staleTtl);
+            }
+            if (countMiss) this.misses.increment();
+            return null;
+        }
+
+        countHit(question, entry, now);
+        return entry.toPacket(now);
+    }
+
+    /*
+     * Writes fresh cached response to given question in wire format to
+     * given buffer patched for request with given header, with counted
+     * down TTLs. Response for given
+     * variant of request is encoded by given encoder on first use and kept
+     * with the entry. Returns false if there is no fresh entry or response
+     * does not fit in buffer, get() then handles the question. */
+    public boolean writeEncoded(DnsQuestion question, int variant, DnsHeader request, BytePacketBuffer buffer,
+                                Function<DnsPacket, EncodedResponse> encoder) {
+        Entry entry = find(question);
+        long now = System.nanoTime();
+        if (entry == null || entry.isExpired(now)) return false;
+
+        EncodedResponse encoded = entry.findEncoded(variant);
+        if (encoded == null) {
+            encoded = encoder.apply(entry.toPacket(entry.storedAt));
+            entry.addEncoded(encoded);
+        }
+        if (!encoded.writeTo(buffer, request, question, entry.elapsedSeconds(now))) return false;
+
+        countHit(question, entry, now);
+        return true;
+    }
+
+    /*
+     * Counts hit of given entry and hands it to prefetcher when due */
+    private void countHit(DnsQuestion question, Entry entry, long now) {
+        this.hits.increment();
+        if (entry.negative) this.negativeHits.increment();
+        Prefetcher current = this.prefetcher;
+        if (current != null && entry.isPrefetchDue(now, this.prefetchMinHits) && !current.submit(question)) {
+            // Dropped by full prefetcher, later hit can try again
+            entry.prefetching.set(false);
+        }
+    }
+
+    /*
+     * Returns expired response for given question that is still within
+     * stale window with all TTLs set to stale TTL, or null if there is none */
+    public DnsPacket getStale(DnsQuestion question) {
+        Entry entry = find(question);
+        long now = System.nanoTime();
+        if (entry == null || !entry.isExpired(now) || !entry.isStale(now, this.staleWindowNanos)) return null;
+
+        this.staleHits.increment();
+        return entry.toStalePacket(this.staleTtl);
+    }
+
+    /*
+     * Records that lookup refreshing given question failed, so its stale
+     * entry is served by get() for stale TTL seconds without new lookup */
+    public void refreshFailed(DnsQuestion question) {
+        Entry entry = find(question);
+        long now = System.nanoTime();
+        if (entry != null && entry.isExpired(now) && entry.isStale(now, this.staleWindowNanos)) {
+            entry.retryAt = now + TimeUnit.SECONDS.toNanos(this.staleTtl);
+        }
+    }
+
+    private Entry find(DnsQuestion question) {
+        Entry entry = this.entries.get(new QuestionKey(question));
+        return entry != null ? entry : this.entries.get(QuestionKey.ofName(question));
+    }
+
+    /*
+     * Stores response for given question. Successful responses with answer
+     * and positive TTL are cached, as well as NXDOMAIN and NODATA responses
+     * with SOA record. */
+    public void put(DnsQuestion question, DnsPacket response) {
+        if (this.maxEntries <= 0) return;
+        ResultCode rescode = response.getHeader().getRescode();
+        if (rescode != ResultCode.NOERROR && rescode != ResultCode.NXDOMAIN) return;
+
+        QuestionKey key = new QuestionKey(question);
+        List<DnsRecord> authorityRecords = response.getAuthorityRecords();
+        boolean negative = rescode == ResultCode.NXDOMAIN || !hasAnswer(question, response);
+        long ttl;
+        if (!negative) {
+            ttl = minTtl(response);
+        } else {
+            DnsRecord soa = findSoa(authorityRecords);
+            if (soa == null) return;
+            long negativeTtl = Math.min(this.maxNegativeTtl,
+                    Math.min(ttlSeconds(soa.getTtl()), ttlSeconds(soa.getMinimum())));
+            ttl = Math.min(minTtl(response), negativeTtl);
+            // SOA is served with negative TTL so downstream caches use it too
+            authorityRecords = new ArrayList<>(authorityRecords);
+            authorityRecords.set(authorityRecords.indexOf(soa), soa.withTtl((int) negativeTtl));
+
+            // NXDOMAIN with CNAME chain is about the end of the chain
+            if (rescode == ResultCode.NXDOMAIN && response.getAnswers().isEmpty()) {
+                // Drop older entry of this type that would hide one of name
+                this.entries.remove(key);
+                key = QuestionKey.ofName(question);
+            }
+        }
+        if (ttl <= 0) return;
+
+        if (this.entries.size() >= this.maxEntries) evict();
+
+        this.entries.put(key, new Entry(response, authorityRecords, negative, ttl, System.nanoTime(),
+                this.prefetcher != null ? this.prefetchThreshold : 0));
+    }
+
+    /*
+     * Returns true if response has record of asked type, or CNAME leading
+     * to it, in answer section */
+    private static boolean hasAnswer(DnsQuestion question, DnsPacket response) {
+        for (DnsRecord record : response.getAnswers()) {
+            if (record.getQueryType() == question.getQueryType()) return true;
+        }
+        // Chain is followed by resolver, its end is answered if it has no SOA
+        return !response.getAnswers().isEmpty() && findSoa(response.getAuthorityRecords()) == null;
+    }
+
+    private static DnsRecord findSoa(List<DnsRecord> records) {
+        for (DnsRecord record : records) {
+            if (record.getQueryType() == QueryType.SOA) return record;
+        }
+        return null;
+    }
+
+    /*
+     * Removes all entries */
+    public void clear() {
+        this.entries.clear();
+    }
+
+    /*
+     * Evicts expired entry or entry closest to expiry among next few
+     * entries under clock hand */
+    private void evict() {
+        long now = System.nanoTime();
+        Map.Entry<QuestionKey, Entry> victim = null;
+
+        synchronized (this) {
+            for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                if (!this.clockHand.hasNext()) {
+                    // Hand went around, iterator sees entries added since
+                    this.clockHand = this.entries.entrySet().iterator();
+                    if (!this.clockHand.hasNext()) break;
+                }
+                Map.Entry<QuestionKey, Entry> candidate = this.clockHand.next();
+                if (candidate.getValue().isExpired(now)) {
+                    victim = candidate;
+                    break;
+                }
+                if (victim == null || candidate.getValue().expiresAt - victim.getValue().expiresAt < 0) {
+                    victim = candidate;
+                }
+            }
+        }
+
+        if (victim != null && this.entries.remove(victim.getKey(), victim.getValue())) {
+            this.evictions.increment();
+        }
+    }
+
+    /*
+     * Returns smallest TTL in seconds among all records of response or
+     * 0 if response has no records */
+    private static long minTtl(DnsPacket response) {
+        long min = Long.MAX_VALUE;
+        for (List<DnsRecord> section : List.of(response.getAnswers(),
+                response.getAuthorityRecords(), response.getResourceRecords())) {
+            for (DnsRecord record : section) {
+                min = Math.min(min, ttlSeconds(record.getTtl()));
+            }
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /*
+     * TTL with the most significant bit set is treated as zero (RFC 2181) */
+    private static long ttlSeconds(int ttl) {
+        return ttl < 0 ? 0 : ttl;
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.register(Metrics.CACHE_HITS, this::getHits);
+        metrics.register(Metrics.CACHE_MISSES, this::getMisses);
+        metrics.register(Metrics.CACHE_NEGATIVE_HITS, this::getNegativeHits);
+        metrics.register(Metrics.CACHE_STALE, this::getStaleHits);
+    }
+
+    /*
+     * Getters for statistics */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /*
+     * Cached response with time of insertion and hit count */
+    private static final class Entry {
+        private final ResultCode rescode;
+        private final List<DnsRecord> answers;
+        private final List<DnsRecord> authorityRecords;
+        private final List<DnsRecord> resourceRecords;
+        private final long storedAt;
+        private final long expiresAt;
+        // NXDOMAIN or NODATA
+        private final boolean negative;
+        // Time after which popular entry is refreshed
+        private final long prefetchAt;
+        private final AtomicInteger hitCnt = new AtomicInteger();
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+        // Time until which stale entry is served without new lookup
+        private volatile long retryAt;
+        // Response in wire format for each variant of request seen so far
+        private volatile EncodedResponse[] encoded = new EncodedResponse[0];
+
+        private Entry(DnsPacket response, List<DnsRecord> authorityRecords, boolean negative, long ttl,
+                      long now, double prefetchThreshold) {
+            this.rescode = response.getHeader().getRescode();
+            this.answers = List.copyOf(response.getAnswers());
+            this.authorityRecords = List.copyOf(authorityRecords);
+            this.resourceRecords = List.copyOf(response.getResourceRecords());
+            this.storedAt = now;
+            this.expiresAt = now + TimeUnit.SECONDS.toNanos(ttl);
+            this.negative = negative;
+            this.prefetchAt = this.expiresAt - (long) (prefetchThreshold * TimeUnit.SECONDS.toNanos(ttl));
+            this.retryAt = now;
+        }
+
+        /*
+         * Counts hit and returns true for single caller once entry was hit
+         * often enough and is close to expiry */
+        private boolean isPrefetchDue(long now, int minHits) {
+            // Counting stops at threshold so hot entries are only read
+            if (this.hitCnt.get() < minHits) {
+                this.hitCnt.incrementAndGet();
+                return false;
+            }
+            return now - this.prefetchAt >= 0 && !this.prefetching.get() && this.prefetching.compareAndSet(false, true);
+        }
+
+        private boolean isExpired(long now) {
+            return now - this.expiresAt >= 0;
+        }
+
+        /*
+         * Returns true if expired entry can still be served as stale */
+        private boolean isStale(long now, long staleWindowNanos) {
+            return now - this.expiresAt < staleWindowNanos;
+        }
+
+        private EncodedResponse findEncoded(int variant) {
+            for (EncodedResponse response : this.encoded) {
+                if (response.getVariant() == variant) return response;
+            }
+            return null;
+        }
+
+        /*
+         * Adds encoded response, replacing the oldest one when there are
+         * too many. Concurrent adds can lose one, which is encoded again on
+         * next hit. */
+        private void addEncoded(EncodedResponse response) {
+            EncodedResponse[] current = this.encoded;
+            EncodedResponse[] updated;
+            if (current.length < MAX_ENCODED) {
+                updated = Arrays.copyOf(current, current.length + 1);
+            } else {
+                updated = Arrays.copyOfRange(current, 1, current.length + 1);
+            }
+            updated[updated.length - 1] = response;
+            this.encoded = updated;
+        }
+
+        private int elapsedSeconds(long now) {
+            return (int) TimeUnit.NANOSECONDS.toSeconds(now - this.storedAt);
+        }
+
+        /*
+         * Builds response packet with TTLs decreased by elapsed seconds */
+        private DnsPacket toPacket(long now) {
+            int elapsed = elapsedSeconds(now);
+            DnsPacket packet = new DnsPacket();
+            packet.getHeader().setRescode(this.rescode);
+            this.answers.forEach(x -> packet.getAnswers().add(countDown(x, elapsed)));
+            this.authorityRecords.forEach(x -> packet.getAuthorityRecords().add(countDown(x, elapsed)));
+            this.resourceRecords.forEach(x -> packet.getResourceRecords().add(countDown(x, elapsed)));
+            return packet;
+        }
+
+        /*
+         * Builds response packet with every TTL set to given stale TTL */
+        private DnsPacket toStalePacket(int staleTtl) {
+            DnsPacket packet = new DnsPacket();
+            packet.getHeader().setRescode(this.rescode);
+            this.answers.forEach(x -> packet.getAnswers().add(x.withTtl(staleTtl)));
+            this.authorityRecords.forEach(x -> packet.getAuthorityRecords().add(x.withTtl(staleTtl)));
+            this.resourceRecords.forEach(x -> packet.getResourceRecords().add(x.withTtl(staleTtl)));
+            return packet;
+        }
+
+        private static DnsRecord countDown(DnsRecord record, int elapsed) {
+            return record.withTtl((int) Math.max(0, ttlSeconds(record.getTtl()) - elapsed));
+        }
+    }
+
+}
@@ -0,0 +1,432 @@
+package eu.sedam.jdns;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Set of blocked names stored compactly, so lists with millions of rules
+ * stay small on heap and lookup allocates nothing. Rule is either exact
+ * name, which blocks only that name, or wildcard such as *.example.com,
+ * which blocks every name below example.com. Lists contain plain names or
+ * hosts file entries, # starts comment:
+ *
+ *     ads.example.com
+ *     *.tracker.example.net
+ *     0.0.0.0 malware.example.org other.example.org
+ *
+ * Rules are kept in trie of labels from the top level down. Every distinct
+ * label is stored once and trie refers to it by ID. Children of a node are
+ * contiguous and sorted by label ID, so they are found by binary search,
+ * and node is numbered after the edge leading to it, so edge is just its
+ * label ID.
+ *
+ * Bloom filter over hashes of rule names sits in front of the trie. Most
+ * names are not blocked and are rejected by it after few probes without
+ * touching label dictionary or trie. Blocklist is never modified once it
+ * is built, so it is shared by workers without locking. */
+public class Blocklist {
+
+    // Kinds of rules, also flags of trie nodes
+    private static final byte EXACT = 1;
+    private static final byte WILDCARD = 2;
+
+    // About 1 % of names that are not blocked pass Bloom filter
+    private static final int BLOOM_BITS_PER_RULE = 10;
+    private static final int BLOOM_PROBES = 7;
+
+    // Names in hosts files that point to this machine, not blocked
+    private static final Set<String> LOCAL_NAMES = Set.of("localhost", "localhost.localdomain", "local",
+            "broadcasthost", "ip6-localhost", "ip6-loopback", "ip6-localnet", "ip6-mcastprefix", "ip6-allnodes",
+            "ip6-allrouters", "ip6-allhosts");
+
+    // Positions of labels of name being looked up
+    private static final ThreadLocal<int[]> LABEL_STARTS =
+            ThreadLocal.withInitial(() -> new int[DnsName.MAX_LENGTH / 2 + 1]);
+
+    // Label dictionary - bytes of all labels one after another, label ID
+    // indexes offsets, and open addressing table of IDs + 1 by label hash
+    private final byte[] labelBytes;
+    private final int[] labelOffsets;
+    private final int[] labelTable;
+
+    // Trie - edge e leads to node e + 1, root is node 0
+    private final int[] firstEdge;
+    private final int[] childCnt;
+    private final int[] edgeLabels;
+    private final byte[] nodeFlags;
+
+    private final long[] bloom;
+    private final long bloomBits;
+    private final int ruleCnt;
+
+    private Blocklist(Builder builder) {
+        this.labelBytes = builder.labelBytes;
+        this.labelOffsets = builder.labelOffsets;
+        this.labelTable = builder.labelTable;
+        this.firstEdge = builder.firstEdge;
+        this.childCnt = builder.childCnt;
+        this.edgeLabels = builder.edgeLabels;
+        this.nodeFlags = builder.nodeFlags;
+        this.bloom = builder.bloom;
+        this.bloomBits = builder.bloom.length * 64L;
+        this.ruleCnt = builder.rules.size();
+    }
+
+    /*
+     * Reads rules from given files */
+    public static Blocklist load(List<Path> files) throws IOException {
+        Builder builder = new Builder();
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+                String line;
+                while ((line = reader.readLine()) != null) builder.addLine(line);
+            }
+            if (builder.skipped > 0) {
+                System.out.println("Skipped " + builder.skipped + " invalid names in " + file);
+                builder.skipped = 0;
+            }
+        }
+        return builder.build();
+    }
+
+    /*
+     * Creates blocklist from given lines in the same format as files */
+    public static Blocklist of(List<String> lines) {
+        Builder builder = new Builder();
+        lines.forEach(builder::addLine);
+        return builder.build();
+    }
+
+    /*
+     * Checks whether given name is blocked by some rule */
+    public boolean contains(DnsName name) {
+        if (this.ruleCnt == 0 || name.isRoot()) return false;
+        int[] starts = LABEL_STARTS.get();
+        int labels = 0;
+        for (int position = 0; name.byteAt(position) != 0; position += (name.byteAt(position) & 0xFF) + 1) {
+            starts[labels++] = position;
+        }
+        return mightContain(name, starts, labels) && matches(name, starts, labels);
+    }
+
+    /*
+     * Checks Bloom filter for every suffix of name that could be blocked -
+     * full name by exact rule and others by wildcard rule */
+    private boolean mightContain(DnsName name, int[] starts, int labels) {
+        long hash = 0;
+        int position = name.length() - 1;
+        for (int i = labels - 1; i >= 0; i--) {
+            while (position > starts[i]) hash = extendHash(hash, name.byteAt(--position));
+            if (bloomContains(hash, i == 0 ? EXACT : WILDCARD)) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Walks trie from top level label, wildcard rule on the way blocks name
+     * below it */
+    private boolean matches(DnsName name, int[] starts, int labels) {
+        int node = 0;
+        for (int i = labels - 1; i >= 0; i--) {
+            int label = labelId(name, starts[i]);
+            if (label < 0) return false;
+            node = child(node, label);
+            if (node < 0) return false;
+            if (i > 0 && (this.nodeFlags[node] & WILDCARD) != 0) return true;
+        }
+        return (this.nodeFlags[node] & EXACT) != 0;
+    }
+
+    /*
+     * Returns ID of label starting with length byte at given position of
+     * name, -1 if no rule has such label */
+    private int labelId(DnsName name, int start) {
+        int length = name.byteAt(start) & 0xFF;
+        int hash = 0;
+        for (int i = 1; i <= length; i++) hash = hash * 31 + name.byteAt(start + i);
+
+        int mask = this.labelTable.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int id = this.labelTable[slot] - 1;
+            if (id < 0) return -1;
+            int offset = this.labelOffsets[id];
+            if (this.labelOffsets[id + 1] - offset != length) continue;
+            int i = 0;
+            while (i < length && this.labelBytes[offset + i] == name.byteAt(start + 1 + i)) i++;
+            if (i == length) return id;
+        }
+    }
+
+    /*
+     * Returns child of given node reached by given label, -1 if none */
+    private int child(int node, int label) {
+        int low = this.firstEdge[node];
+        int high = low + this.childCnt[node] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int current = this.edgeLabels[middle];
+            if (current < label) {
+                low = middle + 1;
+            } else if (current > label) {
+                high = middle - 1;
+            } else {
+                return middle + 1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean bloomContains(long hash, byte kind) {
+        long key = finish(hash, kind);
+        long step = (key >>> 32) | 1;
+        for (int i = 0; i < BLOOM_PROBES; i++, key += step) {
+            long bit = (key >>> 1) % this.bloomBits;
+            if ((this.bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /*
+     * Hash of name suffix is built from its last byte backwards, so hashes
+     * of all suffixes come out of single pass */
+    private static long extendHash(long hash, byte b) {
+        return hash * 0x100000001B3L + (b & 0xFF);
+    }
+
+    /*
+     * Mixes suffix hash with kind of rule (finalizer of MurmurHash3) */
+    private static long finish(long hash, byte kind) {
+        long key = hash ^ kind * 0x9E3779B97F4A7C15L;
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    public int getRuleCnt() {
+        return ruleCnt;
+    }
+
+    /*
+     * Collects rules with labels converted to IDs and lays them out into
+     * arrays of blocklist once all are known */
+    private static final class Builder {
+        private final Map<String, Integer> labelIds = new HashMap<>();
+        // Label IDs from the top level down followed by kind of rule
+        private List<int[]> rules = new ArrayList<>();
+        private int skipped;
+
+        private byte[] labelBytes;
+        private int[] labelOffsets;
+        private int[] labelTable;
+        private int[] firstEdge;
+        private int[] childCnt;
+        private int[] edgeLabels;
+        private byte[] nodeFlags;
+        private int nodeCnt;
+        private long[] bloom;
+
+        private void addLine(String line) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.strip();
+            if (line.isEmpty()) return;
+
+            String[] tokens = line.split("\\s+");
+            // Hosts file entry starts with address
+            int first = tokens.length > 1 && isAddress(tokens[0]) ? 1 : 0;
+            for (int i = first; i < tokens.length; i++) addRule(tokens[i]);
+        }
+
+        private static boolean isAddress(String token) {
+            return token.indexOf(':') >= 0 || token.chars().allMatch(c -> c == '.' || Character.isDigit(c));
+        }
+
+        private void addRule(String text) {
+            byte kind = EXACT;
+            if (text.startsWith("*.")) {
+                kind = WILDCARD;
+                text = text.substring(2);
+            }
+            if (LOCAL_NAMES.contains(text.toLowerCase())) return;
+
+            DnsName name;
+            try {
+                name = DnsName.of(text);
+            } catch (IllegalArgumentException ex) {
+                this.skipped++;
+                return;
+            }
+            if (name.isRoot()) {
+                this.skipped++;
+                return;
+            }
+
+            // Labels are taken from wire form, which is lowercased
+            List<String> labels = new ArrayList<>();
+            for (int position = 0; name.byteAt(position) != 0; ) {
+                int length = name.byteAt(position) & 0xFF;
+                byte[] label = new byte[length];
+                for (int i = 0; i < length; i++) label[i] = name.byteAt(position + 1 + i);
+                labels.add(new String(label, StandardCharsets.ISO_8859_1));
+                position += length + 1;
+            }
+
+            int[] rule = new int[labels.size() + 1];
+            for (int i = 0; i < labels.size(); i++) {
+                rule[i] = this.labelIds.computeIfAbsent(labels.get(labels.size() - 1 - i), x -> this.labelIds.size());
+            }
+            rule[labels.size()] = kind;
+            this.rules.add(rule);
+        }
+
+        private Blocklist build() {
+            // Sorting puts rule of a node right before rules below it and
+            // groups rules by label at every level
+            this.rules.sort(Builder::compareLabels);
+            List<int[]> unique = new ArrayList<>(this.rules.size());
+            for (int[] rule : this.rules) {
+                int[] last = unique.isEmpty() ? null : unique.get(unique.size() - 1);
+                if (last != null && compareLabels(last, rule) == 0) {
+                    last[last.length - 1] |= rule[rule.length - 1];
+                } else {
+                    unique.add(rule);
+                }
+            }
+            this.rules = unique;
+
+            buildLabels();
+
+            // Every rule adds node for each label it does not share with
+            // the previous one
+            int nodes = 1;
+            for (int i = 0; i < this.rules.size(); i++) {
+                int[] rule = this.rules.get(i);
+                nodes += rule.length - 1 - (i > 0 ? commonLabels(this.rules.get(i - 1), rule) : 0);
+            }
+            this.firstEdge = new int[nodes];
+            this.childCnt = new int[nodes];
+            this.edgeLabels = new int[nodes - 1];
+            this.nodeFlags = new byte[nodes];
+            this.nodeCnt = 1;
+            buildNode(0, 0, this.rules.size(), 0);
+
+            buildBloom();
+            return new Blocklist(this);
+        }
+
+        private void buildLabels() {
+            String[] labels = new String[this.labelIds.size()];
+            this.labelIds.forEach((label, id) -> labels[id] = label);
+
+            this.labelOffsets = new int[labels.length + 1];
+            int size = 0;
+            for (int i = 0; i < labels.length; i++) {
+                this.labelOffsets[i] = size;
+                size += labels[i].length();
+            }
+            this.labelOffsets[labels.length] = size;
+
+            this.labelBytes = new byte[size];
+            this.labelTable = new int[Integer.highestOneBit(Math.max(1, labels.length) * 2) * 2];
+            int mask = this.labelTable.length - 1;
+            for (int id = 0; id < labels.length; id++) {
+                byte[] label = labels[id].getBytes(StandardCharsets.ISO_8859_1);
+                System.arraycopy(label, 0, this.labelBytes, this.labelOffsets[id], label.length);
+                int hash = 0;
+                for (byte b : label) hash = hash * 31 + b;
+                int slot = mix(hash) & mask;
+                while (this.labelTable[slot] != 0) slot = (slot + 1) & mask;
+                this.labelTable[slot] = id + 1;
+            }
+        }
+
+        /*
+         * Lays out node for sorted rules in given range, which share first
+         * depth labels. Its children get consecutive numbers before any of
+         * them is laid out, so their edges are contiguous. */
+        private void buildNode(int node, int from, int to, int depth) {
+            if (from < to && this.rules.get(from).length - 1 == depth) {
+                this.nodeFlags[node] = (byte) this.rules.get(from)[depth];
+                from++;
+            }
+
+            int children = 0;
+            for (int i = from; i < to; i++) {
+                if (i == from || this.rules.get(i)[depth] != this.rules.get(i - 1)[depth]) children++;
+            }
+            int first = this.nodeCnt;
+            this.firstEdge[node] = first - 1;
+            this.childCnt[node] = children;
+            this.nodeCnt += children;
+
+            int child = first;
+            for (int start = from; start < to; child++) {
+                int label = this.rules.get(start)[depth];
+                int end = start + 1;
+                while (end < to && this.rules.get(end)[depth] == label) end++;
+                this.edgeLabels[child - 1] = label;
+                buildNode(child, start, end, depth + 1);
+                start = end;
+            }
+        }
+
+        private void buildBloom() {
+            long bits = Math.max(64, (long) this.rules.size() * BLOOM_BITS_PER_RULE);
+            this.bloom = new long[(int) ((bits + 63) / 64)];
+            long bloomBits = this.bloom.length * 64L;
+
+            for (int[] rule : this.rules) {
+                // Same bytes in the same order as suffix hash of lookup
+                long hash = 0;
+                for (int i = 0; i < rule.length - 1; i++) {
+                    int id = rule[i];
+                    for (int j = this.labelOffsets[id + 1] - 1; j >= this.labelOffsets[id]; j--) {
+                        hash = extendHash(hash, this.labelBytes[j]);
+                    }
+                    hash = extendHash(hash, (byte) (this.labelOffsets[id + 1] - this.labelOffsets[id]));
+                }
+                int kinds = rule[rule.length - 1];
+                for (byte kind : new byte[]{EXACT, WILDCARD}) {
+                    if ((kinds & kind) == 0) continue;
+                    long key = finish(hash, kind);
+                    long step = (key >>> 32) | 1;
+                    for (int i = 0; i < BLOOM_PROBES; i++, key += step) {
+                        long bit = (key >>> 1) % bloomBits;
+                        this.bloom[(int) (bit >>> 6)] |= 1L << bit;
+                    }
+                }
+            }
+        }
+
+        /*
+         * Compares labels of rules ignoring their kind, rule that is prefix
+         * of other comes first */
+        private static int compareLabels(int[] first, int[] second) {
+            int common = commonLabels(first, second);
+            if (common < first.length - 1 && common < second.length - 1) {
+                return Integer.compare(first[common], second[common]);
+            }
+            return Integer.compare(first.length, second.length);
+        }
+
+        private static int commonLabels(int[] first, int[] second) {
+            int length = Math.min(first.length, second.length) - 1;
+            int i = 0;
+            while (i < length && first[i] == second[i]) i++;
+            return i;
+        }
+    }
+
+}
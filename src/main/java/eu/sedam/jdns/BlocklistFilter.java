@@ -0,0 +1,110 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Answers questions about blocked names instead of forwarding them. Blocked
+ * name gets NXDOMAIN, or with sinkhole addresses given, A and AAAA records
+ * of those addresses and empty answer for other types.
+ *
+ * When reload is enabled, blocklist files are checked periodically and if
+ * any of them changed, new blocklist is built on reload thread and swapped
+ * in at once, so queries never wait for it. If loading fails, previous
+ * blocklist is kept. */
+public class BlocklistFilter implements AutoCloseable {
+
+    private final List<Path> files;
+    private final List<InetAddress> sinkhole;
+    private final int ttl;
+
+    private volatile Blocklist blocklist;
+    private final ReloadWatcher watcher;
+
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    /*
+     * Loads blocklist from given files, blocked names are answered with
+     * given sinkhole addresses and TTL or with NXDOMAIN if there are none */
+    public BlocklistFilter(List<Path> files, List<InetAddress> sinkhole, int ttl) throws IOException {
+        this.files = List.copyOf(files);
+        this.sinkhole = List.copyOf(sinkhole);
+        this.ttl = ttl;
+        this.watcher = new ReloadWatcher("blocklist", files, this::reload);
+        this.blocklist = load();
+    }
+
+    /*
+     * Checks files for changes every given number of milliseconds */
+    public void startReload(long intervalMillis) {
+        this.watcher.start(intervalMillis);
+    }
+
+    /*
+     * Loads blocklist again and swaps it in at once */
+    public void reload() throws IOException {
+        this.blocklist = load();
+        this.reloads.increment();
+    }
+
+    private Blocklist load() throws IOException {
+        long start = System.nanoTime();
+        Blocklist result = Blocklist.load(this.files);
+        System.out.printf("Loaded blocklist with %d rules in %d ms%n", result.getRuleCnt(),
+                (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    public boolean isBlocked(DnsName name) {
+        return this.blocklist.contains(name);
+    }
+
+    /*
+     * Returns answer for blocked name, null if given question is not about
+     * blocked name */
+    public DnsPacket answer(DnsQuestion question) {
+        if (!isBlocked(question.getDnsName())) return null;
+        this.blocked.increment();
+
+        DnsPacket response = new DnsPacket();
+        if (this.sinkhole.isEmpty()) {
+            response.getHeader().setRescode(ResultCode.NXDOMAIN);
+            return response;
+        }
+        int addressLength = question.getQueryType() == QueryType.A ? 4
+                : question.getQueryType() == QueryType.AAAA ? 16 : 0;
+        for (InetAddress address : this.sinkhole) {
+            if (address.getAddress().length == addressLength) {
+                response.getAnswers().add(DnsRecord.address(question.getDnsName(), address, this.ttl));
+            }
+        }
+        return response;
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.register(Metrics.BLOCKED, this::getBlocked);
+        metrics.register(Metrics.BLOCKLIST_RELOADS, this::getReloads);
+    }
+
+    /*
+     * Getters for statistics */
+    public long getBlocked() {
+        return blocked.sum();
+    }
+
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    @Override
+    public void close() {
+        this.watcher.close();
+    }
+
+}
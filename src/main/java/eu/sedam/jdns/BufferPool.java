@@ -0,0 +1,72 @@
+package eu.sedam.jdns;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * Bounded pool of packet buffers that lets buffers be reused across threads,
+ * for example buffer received by listener thread and released by worker.
+ * When pool is empty new buffer is allocated, and buffers released into full
+ * pool are left to garbage collector. */
+public class BufferPool {
+
+    // Heap buffers owned by threads, see threadLocal
+    private static final ThreadLocal<BytePacketBuffer> THREAD_BUFFERS =
+            ThreadLocal.withInitial(() -> new BytePacketBuffer(ServerConfig.bufferSize()));
+
+    // Heap buffers owned by threads big enough for any message, see threadLocalLarge
+    private static final ThreadLocal<BytePacketBuffer> THREAD_LARGE_BUFFERS =
+            ThreadLocal.withInitial(() -> new BytePacketBuffer(BytePacketBuffer.MAX_MESSAGE_SIZE));
+
+    private final ArrayBlockingQueue<BytePacketBuffer> free;
+    private final int bufferCapacity;
+    private final boolean direct;
+
+    public BufferPool(int size, int bufferCapacity, boolean direct) {
+        this.free = new ArrayBlockingQueue<>(size);
+        this.bufferCapacity = bufferCapacity;
+        this.direct = direct;
+    }
+
+    /*
+     * Returns cleared buffer from pool or new buffer if pool is empty */
+    public BytePacketBuffer acquire() {
+        BytePacketBuffer buffer = this.free.poll();
+        if (buffer == null) return allocate();
+        buffer.clear();
+        return buffer;
+    }
+
+    /*
+     * Returns buffer to pool, buffer must not be used by caller afterwards */
+    public void release(BytePacketBuffer buffer) {
+        if (buffer.getCapacity() == this.bufferCapacity) this.free.offer(buffer);
+    }
+
+    /*
+     * Allocates new buffer with settings of this pool that is not pooled */
+    public BytePacketBuffer allocate() {
+        return this.direct
+                ? BytePacketBuffer.allocateDirect(this.bufferCapacity)
+                : new BytePacketBuffer(this.bufferCapacity);
+    }
+
+    /*
+     * Returns buffer owned by calling thread. It can be reused only for
+     * data that does not outlive single call, such as response that is
+     * sent before handler returns. */
+    public static BytePacketBuffer threadLocal() {
+        BytePacketBuffer buffer = THREAD_BUFFERS.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    /*
+     * Same as threadLocal, but returned buffer can hold message of maximum
+     * size. Used for responses whose size limit depends on transport. */
+    public static BytePacketBuffer threadLocalLarge() {
+        BytePacketBuffer buffer = THREAD_LARGE_BUFFERS.get();
+        buffer.clear();
+        return buffer;
+    }
+
+}
@@ -0,0 +1,487 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+public class BytePacketBuffer {
+
+    // Size of compression hash table, must be power of two
+    private static final int COMPRESSION_SLOTS = 128;
+    // Keeps load of compression hash table below 75 %
+    private static final int MAX_COMPRESSION_ENTRIES = 96;
+
+    // Default size of buffer, maximum size of plain UDP message
+    public static final int DEFAULT_CAPACITY = 512;
+    // Maximum size of any DNS message, limited by 2 byte length of TCP frame
+    public static final int MAX_MESSAGE_SIZE = 65535;
+
+    // Fields are accessed by absolute index, so position and limit of the
+    // byte buffer itself are only used while doing I/O
+    private ByteBuffer buffer;
+    private int position;
+    // Reads and writes are not allowed at or beyond limit
+    private int limit;
+
+    // Names already written to buffer used for compression. Open addressing
+    // table of (suffix hash, offset + 1) pairs allocated on first use.
+    private boolean compression = true;
+    private int[] compressionTable;
+    private int compressionCnt;
+    private int[] labelStarts = new int[16];
+    private int[] suffixHashes = new int[16];
+
+    /*
+     * Constructor that sets new empty buffer of size 512 B
+     * and initializes position to 0 */
+    public BytePacketBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /*
+     * Constructor that sets new empty heap buffer of given size */
+    public BytePacketBuffer(int capacity) {
+        this(ByteBuffer.allocate(capacity));
+    }
+
+    /*
+     * Constructor that uses given heap or direct byte buffer */
+    public BytePacketBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.position = 0;
+        this.limit = buffer.capacity();
+    }
+
+    /*
+     * Creates buffer of given size backed by direct memory. Direct buffers
+     * save a copy when used with channels but have no backing array. */
+    public static BytePacketBuffer allocateDirect(int capacity) {
+        return new BytePacketBuffer(ByteBuffer.allocateDirect(capacity));
+    }
+
+    /*
+     * Prepares buffer for new packet */
+    public void clear() {
+        this.position = 0;
+        this.limit = this.buffer.capacity();
+        this.compression = true;
+        resetCompression();
+    }
+
+    /*
+     * Returns current position inside buffer */
+    public int getPosition() {
+        return this.position;
+    }
+
+    /*
+     * Forwards position inside buffer for given number of steps */
+    public void forward(int steps) {
+        this.position += steps;
+    }
+
+    /*
+     * Jumps to given position inside buffer */
+    public void jump(int position) {
+        this.position = position;
+    }
+
+    /*
+     * Returns limit of readable and writable data, capacity unless data
+     * of smaller length was received */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public void setLimit(int limit) {
+        if (limit > this.buffer.capacity()) throw new IllegalArgumentException("Limit beyond capacity");
+        this.limit = limit;
+    }
+
+    public int getCapacity() {
+        return this.buffer.capacity();
+    }
+
+    /*
+     * Checks that given number of bytes is available at given position */
+    private void check(int position, int size) throws ArrayIndexOutOfBoundsException {
+        if (position < 0 || position > this.limit - size) throw new ArrayIndexOutOfBoundsException("End of buffer");
+    }
+
+    /*
+     * Reads one byte and forwards position by one */
+    public byte readOne() throws ArrayIndexOutOfBoundsException {
+        check(this.position, 1);
+        // Returns byte and increments position
+        return this.buffer.get(this.position++);
+    }
+
+    /*
+     * Gets current byte without changing position */
+    public byte getOne(int position) throws ArrayIndexOutOfBoundsException {
+        check(position, 1);
+        return this.buffer.get(position);
+    }
+
+    /*
+     * Gets range of bytes from start position to start + length - 1 */
+    public byte[] getRange(int start, int length) throws ArrayIndexOutOfBoundsException {
+        check(start, length);
+        byte[] result = new byte[length];
+        this.buffer.get(start, result);
+        return result;
+    }
+
+    /*
+     * Reads two bytes in network order and forwards position by two */
+    public short readTwo() {
+        check(this.position, 2);
+        short result = this.buffer.getShort(this.position);
+        this.position += 2;
+        return result;
+    }
+
+    /*
+     * Reads four bytes in network order and forwards position by four */
+    public int readFour() {
+        check(this.position, 4);
+        int result = this.buffer.getInt(this.position);
+        this.position += 4;
+        return result;
+    }
+
+    /*
+     * Reads given number of bytes into given array and forwards position */
+    public void readBytes(byte[] destination) {
+        check(this.position, destination.length);
+        this.buffer.get(this.position, destination);
+        this.position += destination.length;
+    }
+
+    /*
+     * Reads a query domain name taking labels and their lengths in consideration.
+     * Name of domain which is being queried is encoded as sequence of labels
+     * and each label is preceded by byte specifying its length. Domain encoding
+     * ends with label of 0 length.
+     *
+     * For example tel.fer.unizg.hr would be represented as:
+     * [3]tel[3]fer[5]unizg[2]hr
+     *
+     * UDP packet has maximum size of 512 bytes and because of that compression is
+     * needed. Compression scheme eliminates repetition of domain names by replacing
+     * it with a pointer to prior occurrence. If pointer is used first two bits are
+     * ones. After that comes OFFSET which specifies offset from the first octet of
+     * the header.
+     *     +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *     | 1  1|                OFFSET                   |
+     *     +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     * */
+    public String readQName() throws Exception {
+        return readName().toString();
+    }
+
+    /*
+     * Reads domain name in canonical form without building intermediate
+     * strings, see readQName for encoding. */
+    public DnsName readName() throws Exception {
+        return DnsName.read(this);
+    }
+
+    /*
+     * Writes one byte to buffer and forwards position */
+    public void writeOne(byte value) {
+        check(this.position, 1);
+        // Set value to current position and forward position by one
+        this.buffer.put(this.position++, value);
+    }
+
+    /*
+     * Writes two bytes and forwards position by two */
+    public void writeTwo(short value) {
+        check(this.position, 2);
+        this.buffer.putShort(this.position, value);
+        this.position += 2;
+    }
+
+    /*
+     *  Writes four bytes to buffer and forwards position by four */
+    public void writeFour(int value) {
+        check(this.position, 4);
+        this.buffer.putInt(this.position, value);
+        this.position += 4;
+    }
+
+    /*
+     * Writes given bytes and forwards position */
+    public void writeBytes(byte[] source) {
+        check(this.position, source.length);
+        if (this.buffer.hasArray()) {
+            System.arraycopy(source, 0, this.buffer.array(), this.buffer.arrayOffset() + this.position, source.length);
+        } else {
+            for (int i = 0; i < source.length; i++) this.buffer.put(this.position + i, source[i]);
+        }
+        this.position += source.length;
+    }
+
+    /*
+     * Writes given number of bytes from given byte buffer starting at its
+     * position, and forwards positions of both buffers */
+    public void writeBytes(ByteBuffer source, int length) {
+        check(this.position, length);
+        ByteBuffer range = source.duplicate();
+        range.limit(range.position() + length);
+        this.buffer.duplicate().position(this.position).put(range);
+        source.position(source.position() + length);
+        this.position += length;
+    }
+
+    /*
+     * Copies bytes up to current position into given byte buffer at its
+     * position */
+    public void copyTo(ByteBuffer target) {
+        target.put(this.buffer.duplicate().position(0).limit(this.position));
+    }
+
+    /*
+     * Writes question name to buffer, see writeName */
+    public void writeQName(String qname) {
+        writeName(DnsName.of(qname));
+    }
+
+    /*
+     * Writes domain name to buffer. If some suffix of the name was already
+     * written to this buffer, pointer to earlier occurrence is written instead
+     * of the suffix (see readQName for format of pointers). */
+    public void writeName(DnsName name) {
+        int labelCnt = 0;
+        if (this.compression && !name.isRoot()) {
+            // Collect starts of labels and hashes of suffixes starting at each
+            // label computed from the back
+            for (int pos = 0; name.byteAt(pos) != 0; pos += (name.byteAt(pos) & 0xFF) + 1) {
+                if (labelCnt == this.labelStarts.length) {
+                    this.labelStarts = Arrays.copyOf(this.labelStarts, labelCnt * 2);
+                    this.suffixHashes = Arrays.copyOf(this.suffixHashes, labelCnt * 2);
+                }
+                this.labelStarts[labelCnt++] = pos;
+            }
+            int hash = 0;
+            for (int i = labelCnt - 1; i >= 0; i--) {
+                int start = this.labelStarts[i];
+                int end = start + (name.byteAt(start) & 0xFF) + 1;
+                int labelHash = 0;
+                for (int pos = start; pos < end; pos++) labelHash = labelHash * 31 + name.byteAt(pos);
+                hash = hash * 31 + labelHash;
+                this.suffixHashes[i] = hash;
+            }
+        }
+
+        for (int i = 0; i < labelCnt; i++) {
+            int start = this.labelStarts[i];
+            int offset = findSuffix(name, start, this.suffixHashes[i]);
+            if (offset >= 0) {
+                // Pointer replaces rest of the name including terminating zero
+                writeTwo((short) (0xC000 | offset));
+                return;
+            }
+            rememberSuffix(this.suffixHashes[i], this.position);
+
+            // Write length of label followed by label
+            int end = start + (name.byteAt(start) & 0xFF) + 1;
+            for (int pos = start; pos < end; pos++) writeOne(name.byteAt(pos));
+        }
+
+        // Without compression whole name is copied, otherwise only
+        // terminating zero is left
+        for (int pos = labelCnt == 0 ? 0 : name.length() - 1; pos < name.length(); pos++) {
+            writeOne(name.byteAt(pos));
+        }
+    }
+
+    /*
+     * Enables or disables name compression for following writes */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /*
+     * Forgets all names written so far, must be called when buffer is reused
+     * for new packet */
+    public void resetCompression() {
+        this.compressionCnt = 0;
+        if (this.compressionTable != null) Arrays.fill(this.compressionTable, 0);
+    }
+
+    /*
+     * Returns offset of earlier written name equal to suffix of given name
+     * starting at given index, or -1 if there is none */
+    private int findSuffix(DnsName name, int from, int hash) {
+        if (this.compressionTable == null) return -1;
+        int mask = COMPRESSION_SLOTS - 1;
+
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int storedOffset = this.compressionTable[2 * slot + 1];
+            // Empty slot terminates probing
+            if (storedOffset == 0) return -1;
+            if (this.compressionTable[2 * slot] == hash && nameEquals(name, from, storedOffset - 1)) {
+                return storedOffset - 1;
+            }
+        }
+    }
+
+    /*
+     * Remembers that suffix with given hash starts at given offset */
+    private void rememberSuffix(int hash, int offset) {
+        // Pointer has only 14 bits for offset
+        if (offset > 0x3FFF || this.compressionCnt >= MAX_COMPRESSION_ENTRIES) return;
+        if (this.compressionTable == null) this.compressionTable = new int[2 * COMPRESSION_SLOTS];
+
+        int mask = COMPRESSION_SLOTS - 1;
+        int slot = mix(hash) & mask;
+        while (this.compressionTable[2 * slot + 1] != 0) slot = (slot + 1) & mask;
+
+        // Offset is stored increased by one so zero marks empty slot
+        this.compressionTable[2 * slot] = hash;
+        this.compressionTable[2 * slot + 1] = offset + 1;
+        this.compressionCnt++;
+    }
+
+    /*
+     * Compares suffix of given name starting at given index with name written
+     * at given offset, following pointers. Comparison is case insensitive. */
+    private boolean nameEquals(DnsName name, int from, int offset) {
+        int pos = offset;
+        int jumps = 0;
+        int i = from;
+
+        while (true) {
+            int length = this.buffer.get(pos) & 0xFF;
+            if ((length & 0xC0) == 0xC0) {
+                if (++jumps > 10) return false;
+                pos = ((length & 0x3F) << 8) | (this.buffer.get(pos + 1) & 0xFF);
+                continue;
+            }
+            if (name.byteAt(i) != length) return false;
+            if (length == 0) return true;
+
+            for (int j = 1; j <= length; j++) {
+                if (name.byteAt(i + j) != DnsName.toLower(this.buffer.get(pos + j))) return false;
+            }
+            pos += length + 1;
+            i += length + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /*
+     * Sets byte in buffer on given position to given value */
+    public void setOne(int position, byte value) throws ArrayIndexOutOfBoundsException {
+        check(position, 1);
+        this.buffer.put(position, value);
+    }
+
+    /*
+     * Sets two bytes in buffer on given position to given value */
+    public void setTwo(int position, short value) {
+        check(position, 2);
+        this.buffer.putShort(position, value);
+    }
+
+    /*
+     * Sets four bytes in buffer on given position to given value */
+    public void setFour(int position, int value) {
+        check(position, 4);
+        this.buffer.putInt(position, value);
+    }
+
+    /*
+     * Receives datagram from given socket into this buffer. Position is set
+     * to zero and limit to length of received data. */
+    public DatagramPacket receive(DatagramSocket socket) throws IOException {
+        clear();
+        DatagramPacket udpPacket = new DatagramPacket(getBuffer(), this.buffer.capacity());
+        socket.receive(udpPacket);
+        this.limit = udpPacket.getLength();
+        return udpPacket;
+    }
+
+    /*
+     * Sends bytes up to current position to given address and port */
+    public void send(DatagramSocket socket, InetAddress address, int port) throws IOException {
+        byte[] data = this.buffer.hasArray() ? this.buffer.array() : getRange(0, this.position);
+        socket.send(new DatagramPacket(data, this.buffer.hasArray() ? this.buffer.arrayOffset() : 0,
+                this.position, address, port));
+    }
+
+    /*
+     * Receives datagram from given channel into this buffer. Position is set
+     * to zero and limit to length of received data. Returns sender address
+     * or null if non-blocking channel had nothing to read. */
+    public SocketAddress receive(DatagramChannel channel) throws IOException {
+        clear();
+        this.buffer.clear();
+        SocketAddress sender = channel.receive(this.buffer);
+        this.limit = this.buffer.position();
+        this.buffer.clear();
+        return sender;
+    }
+
+    /*
+     * Reads datagram from given connected channel into this buffer. Returns
+     * length of received data, zero if there was nothing to read. */
+    public int read(DatagramChannel channel) throws IOException {
+        clear();
+        this.buffer.clear();
+        int length = Math.max(0, channel.read(this.buffer));
+        this.limit = length;
+        this.buffer.clear();
+        return length;
+    }
+
+    /*
+     * Sends bytes up to current position to given address over given
+     * channel. Returns number of bytes sent, zero if there was no room in
+     * socket buffer of non-blocking channel. */
+    public int send(DatagramChannel channel, SocketAddress target) throws IOException {
+        this.buffer.limit(this.position).position(0);
+        try {
+            return channel.send(this.buffer, target);
+        } finally {
+            this.buffer.clear();
+        }
+    }
+
+    /*
+     * Writes bytes up to current position to given connected channel */
+    public int write(DatagramChannel channel) throws IOException {
+        this.buffer.limit(this.position).position(0);
+        try {
+            return channel.write(this.buffer);
+        } finally {
+            this.buffer.clear();
+        }
+    }
+
+    /*
+     * Getter for backing array of heap buffer */
+    public byte[] getBuffer() {
+        if (!this.buffer.hasArray()) throw new UnsupportedOperationException("Direct buffer has no array");
+        return this.buffer.array();
+    }
+
+    /*
+     * Setter for buffer */
+    public void setBuffer(byte[] buffer) {
+        this.buffer = ByteBuffer.wrap(buffer);
+        this.limit = buffer.length;
+        resetCompression();
+    }
+
+}
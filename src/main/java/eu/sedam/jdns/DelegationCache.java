@@ -0,0 +1,169 @@
+package eu.sedam.jdns;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cache of zone cuts learned from referrals and of name server addresses
+ * learned from glue records or lookups. Recursive resolver starts every
+ * lookup at the closest cached zone cut instead of at the root, so only
+ * the first lookup below a zone pays for round trips to root and TLD
+ * servers.
+ *
+ * Root zone is never cached, it always comes from root hints given to
+ * constructor. Both maps are bounded and evicted in the same way as
+ * AnswerCache. */
+public class DelegationCache {
+
+    // Number of entries inspected when choosing victim for eviction
+    private static final int EVICTION_SAMPLE = 8;
+
+    private final Map<DnsName, Delegation> delegations = new ConcurrentHashMap<>();
+    private final Map<DnsName, Addresses> addresses = new ConcurrentHashMap<>();
+    private final Delegation root;
+    private final int maxEntries;
+
+    public DelegationCache(List<InetSocketAddress> rootServers, int maxEntries) {
+        this.root = new Delegation(DnsName.ROOT, List.of(), rootServers, Long.MAX_VALUE);
+        this.maxEntries = maxEntries;
+    }
+
+    /*
+     * Returns delegation of the closest enclosing zone of given name that
+     * is known, root zone if there is none */
+    public Delegation closest(DnsName name) {
+        long now = System.nanoTime();
+        for (DnsName zone = name; !zone.isRoot(); zone = zone.parent()) {
+            Delegation delegation = this.delegations.get(zone);
+            if (delegation == null) continue;
+            if (!delegation.isExpired(now)) return delegation;
+            this.delegations.remove(zone, delegation);
+        }
+        return this.root;
+    }
+
+    /*
+     * Stores delegation to given zone for given number of seconds */
+    public Delegation putDelegation(DnsName zone, List<DnsName> nameServers, List<InetSocketAddress> serverAddresses,
+                                    long ttl) {
+        Delegation delegation = new Delegation(zone, nameServers, serverAddresses,
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl));
+        if (zone.isRoot() || ttl <= 0 || this.maxEntries <= 0) return delegation;
+
+        if (this.delegations.size() >= this.maxEntries) evict(this.delegations);
+        this.delegations.put(zone, delegation);
+        return delegation;
+    }
+
+    /*
+     * Returns cached addresses of given name server, null if unknown */
+    public List<InetSocketAddress> getAddresses(DnsName nameServer) {
+        Addresses entry = this.addresses.get(nameServer);
+        if (entry == null) return null;
+        if (entry.isExpired(System.nanoTime())) {
+            this.addresses.remove(nameServer, entry);
+            return null;
+        }
+        return entry.addresses;
+    }
+
+    /*
+     * Stores addresses of given name server for given number of seconds */
+    public void putAddresses(DnsName nameServer, List<InetSocketAddress> serverAddresses, long ttl) {
+        if (serverAddresses.isEmpty() || ttl <= 0 || this.maxEntries <= 0) return;
+
+        if (this.addresses.size() >= this.maxEntries) evict(this.addresses);
+        this.addresses.put(nameServer, new Addresses(serverAddresses,
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl)));
+    }
+
+    public int size() {
+        return this.delegations.size();
+    }
+
+    /*
+     * Removes all learned delegations and addresses */
+    public void clear() {
+        this.delegations.clear();
+        this.addresses.clear();
+    }
+
+    /*
+     * Evicts expired entry or entry closest to expiry among first few
+     * entries returned by map iterator */
+    private static <T extends Expiring> void evict(Map<DnsName, T> map) {
+        long now = System.nanoTime();
+        Map.Entry<DnsName, T> victim = null;
+
+        Iterator<Map.Entry<DnsName, T>> it = map.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+            Map.Entry<DnsName, T> candidate = it.next();
+            if (candidate.getValue().isExpired(now)) {
+                victim = candidate;
+                break;
+            }
+            if (victim == null || candidate.getValue().expiresAt - victim.getValue().expiresAt < 0) {
+                victim = candidate;
+            }
+        }
+
+        if (victim != null) map.remove(victim.getKey(), victim.getValue());
+    }
+
+    private abstract static class Expiring {
+        final long expiresAt;
+
+        Expiring(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - this.expiresAt >= 0;
+        }
+    }
+
+    /*
+     * Zone with names of its name servers and addresses of those servers
+     * that are known. Addresses can be empty if referral had no glue. */
+    public static final class Delegation extends Expiring {
+        private final DnsName zone;
+        private final List<DnsName> nameServers;
+        private final List<InetSocketAddress> addresses;
+
+        private Delegation(DnsName zone, List<DnsName> nameServers, List<InetSocketAddress> addresses,
+                           long expiresAt) {
+            super(expiresAt);
+            this.zone = zone;
+            this.nameServers = List.copyOf(nameServers);
+            this.addresses = List.copyOf(addresses);
+        }
+
+        public DnsName getZone() {
+            return zone;
+        }
+
+        public List<DnsName> getNameServers() {
+            return nameServers;
+        }
+
+        public List<InetSocketAddress> getAddresses() {
+            return addresses;
+        }
+    }
+
+    /*
+     * Addresses of single name server */
+    private static final class Addresses extends Expiring {
+        private final List<InetSocketAddress> addresses;
+
+        private Addresses(List<InetSocketAddress> addresses, long expiresAt) {
+            super(expiresAt);
+            this.addresses = List.copyOf(addresses);
+        }
+    }
+
+}
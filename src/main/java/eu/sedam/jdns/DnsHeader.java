@@ -1,3 +1,5 @@
+package eu.sedam.jdns;
+
 public class DnsHeader {
 
     /*
@@ -162,10 +164,22 @@ public class DnsHeader {
         this.id = id;
     }
 
+    public boolean isRecursionDesired() {
+        return recursionDesired;
+    }
+
     public void setRecursionDesired(boolean recursionDesired) {
         this.recursionDesired = recursionDesired;
     }
 
+    public boolean isCheckingDisabled() {
+        return checkingDisabled;
+    }
+
+    public void setCheckingDisabled(boolean checkingDisabled) {
+        this.checkingDisabled = checkingDisabled;
+    }
+
     public void setResponse(boolean response) {
         this.response = response;
     }
@@ -174,6 +188,22 @@ public class DnsHeader {
         this.recursionAvailable = recursionAvailable;
     }
 
+    public boolean isAuthoritativeAnswer() {
+        return authoritativeAnswer;
+    }
+
+    public void setAuthoritativeAnswer(boolean authoritativeAnswer) {
+        this.authoritativeAnswer = authoritativeAnswer;
+    }
+
+    public boolean isTruncatedMessage() {
+        return truncatedMessage;
+    }
+
+    public void setTruncatedMessage(boolean truncatedMessage) {
+        this.truncatedMessage = truncatedMessage;
+    }
+
     public ResultCode getRescode() {
         return rescode;
     }
@@ -0,0 +1,229 @@
+package eu.sedam.jdns;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Domain name in canonical wire format. Labels are kept lowercased exactly
+ * as they appear on the wire - each label is preceded by its length and
+ * name ends with label of 0 length:
+ *
+ *     [3]tel[3]fer[5]unizg[2]hr[0]
+ *
+ * Case insensitive hash is computed while name is decoded, so names can be
+ * used as map keys without converting them to String. Root name consists of
+ * single zero byte and its text form is empty string. */
+public final class DnsName {
+
+    public static final DnsName ROOT = new DnsName(new byte[]{0}, 0);
+
+    // Maximum length of name in wire format
+    public static final int MAX_LENGTH = 255;
+    // Maximum length of single label
+    public static final int MAX_LABEL_LENGTH = 63;
+    // Maximum number of pointers followed while reading single name
+    private static final int MAX_JUMPS = 10;
+
+    // Scratch space used while decoding so only final array is allocated
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[MAX_LENGTH]);
+
+    private final byte[] wire;
+    private final int hash;
+    private String text;
+
+    private DnsName(byte[] wire, int hash) {
+        this.wire = wire;
+        this.hash = hash;
+    }
+
+    private DnsName(byte[] wire) {
+        this(wire, hashOf(wire));
+    }
+
+    /*
+     * Reads name from current position of given buffer following compression
+     * pointers (see BytePacketBuffer.readQName) and moves position past it */
+    public static DnsName read(BytePacketBuffer buffer) throws Exception {
+        byte[] scratch = SCRATCH.get();
+        int length = 0;
+        int hash = 0;
+
+        int position = buffer.getPosition();
+        int end = -1;
+        int jumpCnt = 0;
+
+        while (true) {
+            int labelLength = buffer.getOne(position) & 0xFF;
+
+            if ((labelLength & 0xC0) == 0xC0) {
+                if (++jumpCnt > MAX_JUMPS) throw new Exception("Jump limit [" + MAX_JUMPS + "] exceeded");
+                // Position after first pointer is where the name ends in buffer
+                if (end == -1) end = position + 2;
+                position = ((labelLength & 0x3F) << 8) | (buffer.getOne(position + 1) & 0xFF);
+                continue;
+            }
+            if ((labelLength & 0xC0) != 0) throw new Exception("Unsupported label type " + labelLength);
+
+            if (length + labelLength + 1 > MAX_LENGTH) throw new Exception("Name longer than " + MAX_LENGTH);
+            scratch[length++] = (byte) labelLength;
+            hash = hash * 31 + labelLength;
+            position++;
+
+            if (labelLength == 0) break;
+
+            for (int i = 0; i < labelLength; i++) {
+                byte b = toLower(buffer.getOne(position++));
+                scratch[length++] = b;
+                hash = hash * 31 + b;
+            }
+        }
+
+        buffer.jump(end == -1 ? position : end);
+
+        if (length == 1) return ROOT;
+        return new DnsName(Arrays.copyOf(scratch, length), hash);
+    }
+
+    /*
+     * Creates name from its text form such as "tel.fer.unizg.hr". Trailing
+     * dot is optional. */
+    public static DnsName of(String name) {
+        int nameLength = name.length();
+        if (nameLength > 0 && name.charAt(nameLength - 1) == '.') nameLength--;
+        if (nameLength == 0) return ROOT;
+
+        // Every dot becomes length byte, plus leading length and trailing zero
+        int length = nameLength + 2;
+        if (length > MAX_LENGTH) throw new IllegalArgumentException("Name " + name + " longer than " + MAX_LENGTH);
+
+        byte[] wire = new byte[length];
+        int hash = 0;
+        int labelStart = 0;
+        for (int i = 0; i <= nameLength; i++) {
+            if (i == nameLength || name.charAt(i) == '.') {
+                int labelLength = i - labelStart;
+                if (labelLength == 0) throw new IllegalArgumentException("Empty label in " + name);
+                if (labelLength > MAX_LABEL_LENGTH) {
+                    throw new IllegalArgumentException("Label " + name.substring(labelStart, i) + " longer than 63 chars");
+                }
+                wire[labelStart] = (byte) labelLength;
+                hash = hash * 31 + labelLength;
+                for (int j = labelStart; j < i; j++) {
+                    byte b = toLower((byte) name.charAt(j));
+                    wire[j + 1] = b;
+                    hash = hash * 31 + b;
+                }
+                labelStart = i + 1;
+            }
+        }
+        // Terminating zero length label
+        hash = hash * 31;
+
+        return new DnsName(wire, hash);
+    }
+
+    /*
+     * Returns name without its first label, root for root */
+    public DnsName parent() {
+        if (isRoot()) return this;
+        return new DnsName(Arrays.copyOfRange(this.wire, (this.wire[0] & 0xFF) + 1, this.wire.length));
+    }
+
+    /*
+     * Returns wildcard name directly below this name, built by prepending
+     * label "*" to wire format so labels are kept byte for byte. Returns
+     * null if wildcard would be longer than maximum length. */
+    public DnsName wildcard() {
+        if (this.wire.length + 2 > MAX_LENGTH) return null;
+        byte[] wildcard = new byte[this.wire.length + 2];
+        wildcard[0] = 1;
+        wildcard[1] = '*';
+        System.arraycopy(this.wire, 0, wildcard, 2, this.wire.length);
+        return new DnsName(wildcard);
+    }
+
+    /*
+     * Checks if this name is equal to or below given name */
+    public boolean isSubdomainOf(DnsName other) {
+        int offset = this.wire.length - other.wire.length;
+        if (offset < 0) return false;
+
+        // Offset must fall on label boundary
+        int position = 0;
+        while (position < offset) position += (this.wire[position] & 0xFF) + 1;
+        if (position != offset) return false;
+
+        return Arrays.equals(this.wire, offset, this.wire.length, other.wire, 0, other.wire.length);
+    }
+
+    /*
+     * Returns number of labels, root has none */
+    public int labelCount() {
+        int count = 0;
+        for (int position = 0; this.wire[position] != 0; position += (this.wire[position] & 0xFF) + 1) {
+            count++;
+        }
+        return count;
+    }
+
+    public boolean isRoot() {
+        return this.wire.length == 1;
+    }
+
+    /*
+     * Length of name in wire format including terminating zero */
+    public int length() {
+        return this.wire.length;
+    }
+
+    /*
+     * Returns byte of wire format on given index */
+    public byte byteAt(int index) {
+        return this.wire[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DnsName)) return false;
+        DnsName other = (DnsName) o;
+        return this.hash == other.hash && Arrays.equals(this.wire, other.wire);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    /*
+     * Text form without trailing dot, built on first use */
+    @Override
+    public String toString() {
+        String result = this.text;
+        if (result == null) {
+            byte[] chars = new byte[Math.max(0, this.wire.length - 2)];
+            int length = 0;
+            for (int position = 0; this.wire[position] != 0; ) {
+                int labelLength = this.wire[position] & 0xFF;
+                if (length > 0) chars[length++] = '.';
+                System.arraycopy(this.wire, position + 1, chars, length, labelLength);
+                length += labelLength;
+                position += labelLength + 1;
+            }
+            result = new String(chars, 0, length, StandardCharsets.US_ASCII);
+            this.text = result;
+        }
+        return result;
+    }
+
+    private static int hashOf(byte[] wire) {
+        int hash = 0;
+        for (byte b : wire) hash = hash * 31 + b;
+        return hash;
+    }
+
+    static byte toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+}
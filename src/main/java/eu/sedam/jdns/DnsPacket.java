@@ -1,3 +1,5 @@
+package eu.sedam.jdns;
+
 import java.util.LinkedList;
 import java.util.List;
 
@@ -18,6 +20,8 @@ public class DnsPacket {
      *    |      Additional     | RRs holding additional information
      *    +---------------------+
      *
+     * EDNS OPT pseudo-record from additional section is kept apart from
+     * other records and written as last record of the section.
      * */
 
     private DnsHeader header;
@@ -25,6 +29,7 @@ public class DnsPacket {
     private List<DnsRecord> answers;
     private List<DnsRecord> authorityRecords;
     private List<DnsRecord> resourceRecords;
+    private OptRecord opt;
 
     public DnsPacket() {
         this.header = new DnsHeader();
@@ -42,7 +47,7 @@ public class DnsPacket {
 
         // Get questions and put them in list
         for (short i = 0; i < this.header.getQuestionsCnt(); i++) {
-            DnsQuestion question = new DnsQuestion("", QueryType.UNKNOWN);
+            DnsQuestion question = new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN);
             question.read(buffer);
             this.questions.add(question);
         }
@@ -60,6 +65,10 @@ public class DnsPacket {
         }
 
         for (short i = 0; i < this.header.getResourceRecordsCnt(); i++) {
+            if (isOpt(buffer)) {
+                this.opt = new OptRecord().read(buffer);
+                continue;
+            }
             DnsRecord record = new DnsRecord();
             record.read(buffer);
             this.resourceRecords.add(record);
@@ -68,14 +77,25 @@ public class DnsPacket {
         return this;
     }
 
+    /*
+     * Checks if record at current position is OPT - its name is root and
+     * type follows right after */
+    static boolean isOpt(BytePacketBuffer buffer) {
+        int position = buffer.getPosition();
+        return buffer.getOne(position) == 0
+                && QueryType.fromNumber((short) ((buffer.getOne(position + 1) & 0xFF) << 8
+                | buffer.getOne(position + 2) & 0xFF)) == QueryType.OPT;
+    }
+
     /*
      * Write DNS packet to buffer */
     public void write(BytePacketBuffer buffer) {
         // Set counter to appropriate size
         this.header.setQuestionsCnt((short) this.questions.size());
-        this.header.setAnswersCnt((short) this.answers.size());
-        this.header.setAuthorityRecordsCnt((short) this.authorityRecords.size());
-        this.header.setResourceRecordsCnt((short) this.resourceRecords.size());
+        // Records of unknown types are not written so they are not counted
+        this.header.setAnswersCnt(knownCnt(this.answers));
+        this.header.setAuthorityRecordsCnt(knownCnt(this.authorityRecords));
+        this.header.setResourceRecordsCnt((short) (knownCnt(this.resourceRecords) + (this.opt != null ? 1 : 0)));
 
         // Write header to buffer
         this.header.write(buffer);
@@ -85,7 +105,16 @@ public class DnsPacket {
         this.answers.forEach(x -> x.write(buffer));
         this.authorityRecords.forEach(x -> x.write(buffer));
         this.resourceRecords.forEach(x -> x.write(buffer));
+        if (this.opt != null) this.opt.write(buffer);
+
+    }
 
+    private static short knownCnt(List<DnsRecord> records) {
+        short count = 0;
+        for (DnsRecord record : records) {
+            if (record.isKnown()) count++;
+        }
+        return count;
     }
 
     public DnsHeader getHeader() {
@@ -107,4 +136,14 @@ public class DnsPacket {
     public List<DnsRecord> getResourceRecords() {
         return resourceRecords;
     }
+
+    /*
+     * EDNS OPT record, null if packet has none */
+    public OptRecord getOpt() {
+        return opt;
+    }
+
+    public void setOpt(OptRecord opt) {
+        this.opt = opt;
+    }
 }
@@ -0,0 +1,108 @@
+package eu.sedam.jdns;
+
+public class DnsQuestion {
+
+    /*
+     * Question section format is defined as:
+     *
+     *     0  1  2  3  4  5  6  7  8  9  0  1  2  3  4  5
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                                               |
+     *   /                     QNAME                     /
+     *   /                                               /
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                     QTYPE                     |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                     QCLASS                    |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     * */
+
+    private DnsName name;
+    private QueryType queryType;
+    private short queryClass;
+    // Name as spelled in request when it has uppercase letters. Name is kept
+    // lowercased for lookups, but this is echoed back so clients that
+    // randomize case of query (0x20 encoding) accept the response.
+    private byte[] spelling;
+
+    public DnsQuestion(String name, QueryType queryType) {
+        this(DnsName.of(name), queryType);
+    }
+
+    public DnsQuestion(DnsName name, QueryType queryType) {
+        this.name = name;
+        this.queryType = queryType;
+        // Class IN (1) that represents Internet
+        this.queryClass = 1;
+    }
+
+    /*
+     * Reads name and query type from given buffer */
+    public void read(BytePacketBuffer buffer) throws Exception {
+        int start = buffer.getPosition();
+        this.name = buffer.readName();
+        int length = buffer.getPosition() - start;
+        this.spelling = length == this.name.length() && hasUpperCase(buffer, start, length)
+                ? buffer.getRange(start, length)
+                : null;
+        this.queryType = QueryType.fromNumber(buffer.readTwo());
+        this.queryClass = buffer.readTwo();
+    }
+
+    /*
+     * Writes name, type and class */
+    public void write(BytePacketBuffer buffer) {
+        int start = buffer.getPosition();
+        buffer.writeName(this.name);
+        // Original spelling replaces name unless it was written as pointer
+        if (this.spelling != null && buffer.getPosition() - start == this.spelling.length) {
+            writeNameAt(buffer, start);
+        }
+        buffer.writeTwo(this.queryType.toNumber());
+        buffer.writeTwo(this.queryClass);
+
+    }
+
+    /*
+     * Overwrites name of the same question written at given position, so
+     * response encoded for another request spells name as this one */
+    public void writeNameAt(BytePacketBuffer buffer, int position) {
+        for (int i = 0; i < this.name.length(); i++) {
+            buffer.setOne(position + i, this.spelling != null ? this.spelling[i] : this.name.byteAt(i));
+        }
+    }
+
+    private static boolean hasUpperCase(BytePacketBuffer buffer, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            byte b = buffer.getOne(i);
+            if (b >= 'A' && b <= 'Z') return true;
+        }
+        return false;
+    }
+
+    /*
+     * Getters */
+    public String getName() {
+        return name.toString();
+    }
+
+    public DnsName getDnsName() {
+        return name;
+    }
+
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    public short getQueryClass() {
+        return queryClass;
+    }
+
+    @Override
+    public String toString() {
+        return "DnsQuestion {" + "\n" +
+                "\t" + "name = '" + name + '\'' + "\n" +
+                "\t" + "queryType = " + queryType + "\n" +
+                '}';
+    }
+}
@@ -0,0 +1,424 @@
+package eu.sedam.jdns;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+public class DnsRecord {
+    /*
+     * DNS Resource Records are defined as:
+     *
+     *     0  1  2  3  4  5  6  7  8  9  0  1  2  3  4  5
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                                               |
+     *   /                                               /
+     *   /                      NAME                     /
+     *   /                                               /
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                      TYPE                     |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                     CLASS                     |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                      TTL                      |
+     *   |                                               |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                   RDLENGTH                    |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--|
+     *   /                     RDATA                     /
+     *   /                                               /
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *
+     *    * */
+
+    // Print ignored records to console, off by default
+    private static final boolean DEBUG = ServerConfig.debug();
+
+    // Not all fields are used for all records
+    private DnsName domain;
+    private DnsName host;
+    private short queryTypeNumber;
+    private short dataLength;
+    private short priority;
+    private int ttl;
+    private InetAddress addr;
+    private DnsRecordType dnsRecordType;
+    // SOA fields, host is primary name server
+    private DnsName mailbox;
+    private int serial;
+    private int refresh;
+    private int retry;
+    private int expire;
+    private int minimum;
+
+    enum DnsRecordType {
+        UNKNOWN,
+        A,
+        NS,
+        CNAME,
+        SOA,
+        MX,
+        AAAA
+    }
+
+    /*
+     * Returns copy of this record with given TTL. Used when serving cached
+     * records whose remaining TTL has been counted down. */
+    public DnsRecord withTtl(int ttl) {
+        DnsRecord copy = copy();
+        copy.ttl = ttl;
+        return copy;
+    }
+
+    /*
+     * Returns copy of this record owned by given name. Used when answer is
+     * synthesized from wildcard record. */
+    public DnsRecord withDomain(DnsName domain) {
+        DnsRecord copy = copy();
+        copy.domain = domain;
+        return copy;
+    }
+
+    private DnsRecord copy() {
+        DnsRecord copy = new DnsRecord();
+        copy.domain = this.domain;
+        copy.host = this.host;
+        copy.queryTypeNumber = this.queryTypeNumber;
+        copy.dataLength = this.dataLength;
+        copy.priority = this.priority;
+        copy.ttl = this.ttl;
+        copy.addr = this.addr;
+        copy.dnsRecordType = this.dnsRecordType;
+        copy.mailbox = this.mailbox;
+        copy.serial = this.serial;
+        copy.refresh = this.refresh;
+        copy.retry = this.retry;
+        copy.expire = this.expire;
+        copy.minimum = this.minimum;
+        return copy;
+    }
+
+    /*
+     * Creates A or AAAA record depending on family of given address */
+    public static DnsRecord address(DnsName domain, InetAddress addr, int ttl) {
+        DnsRecord record = new DnsRecord();
+        boolean ipv4 = addr instanceof Inet4Address;
+        record.domain = domain;
+        record.dnsRecordType = ipv4 ? DnsRecordType.A : DnsRecordType.AAAA;
+        record.queryTypeNumber = (ipv4 ? QueryType.A : QueryType.AAAA).toNumber();
+        record.dataLength = (short) (ipv4 ? 4 : 16);
+        record.ttl = ttl;
+        record.addr = addr;
+        return record;
+    }
+
+    /*
+     * Creates NS or CNAME record pointing to given host */
+    public static DnsRecord host(QueryType type, DnsName domain, DnsName host, int ttl) {
+        if (type != QueryType.NS && type != QueryType.CNAME) throw new IllegalArgumentException("Not a host record " + type);
+        DnsRecord record = new DnsRecord();
+        record.domain = domain;
+        record.dnsRecordType = type == QueryType.NS ? DnsRecordType.NS : DnsRecordType.CNAME;
+        record.queryTypeNumber = type.toNumber();
+        record.ttl = ttl;
+        record.host = host;
+        return record;
+    }
+
+    /*
+     * Creates MX record pointing to given mail host */
+    public static DnsRecord mx(DnsName domain, short priority, DnsName host, int ttl) {
+        DnsRecord record = new DnsRecord();
+        record.domain = domain;
+        record.dnsRecordType = DnsRecordType.MX;
+        record.queryTypeNumber = QueryType.MX.toNumber();
+        record.ttl = ttl;
+        record.priority = priority;
+        record.host = host;
+        return record;
+    }
+
+    /*
+     * Creates SOA record of given zone. Only minimum (negative caching TTL)
+     * matters to resolver, other timers get common defaults. */
+    public static DnsRecord soa(DnsName zone, DnsName primary, DnsName mailbox, int serial, int minimum, int ttl) {
+        return soa(zone, primary, mailbox, serial, 3600, 600, 86400, minimum, ttl);
+    }
+
+    public static DnsRecord soa(DnsName zone, DnsName primary, DnsName mailbox, int serial, int refresh, int retry,
+                                int expire, int minimum, int ttl) {
+        DnsRecord record = new DnsRecord();
+        record.domain = zone;
+        record.dnsRecordType = DnsRecordType.SOA;
+        record.queryTypeNumber = QueryType.SOA.toNumber();
+        record.ttl = ttl;
+        record.host = primary;
+        record.mailbox = mailbox;
+        record.serial = serial;
+        record.refresh = refresh;
+        record.retry = retry;
+        record.expire = expire;
+        record.minimum = minimum;
+        return record;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    /*
+     * Type of record, UNKNOWN for types that are not parsed */
+    public QueryType getQueryType() {
+        return QueryType.fromNumber(queryTypeNumber);
+    }
+
+    public DnsName getDomain() {
+        return domain;
+    }
+
+    /*
+     * Target of NS, CNAME and MX records, primary name server of SOA
+     * record, null for other types */
+    public DnsName getHost() {
+        return host;
+    }
+
+    /*
+     * Address of A and AAAA records, null for other types */
+    public InetAddress getAddr() {
+        return addr;
+    }
+
+    /*
+     * Minimum field of SOA record, which is TTL of negative answers
+     * (RFC 2308), 0 for other types */
+    public int getMinimum() {
+        return minimum;
+    }
+
+    /*
+     * Returns false for records of types that are skipped when reading and
+     * therefore cannot be written */
+    public boolean isKnown() {
+        return dnsRecordType != DnsRecordType.UNKNOWN;
+    }
+
+    /*
+     * Reads DNS record from given buffer */
+    public DnsRecord read(BytePacketBuffer buffer) throws Exception {
+        this.domain = buffer.readName();
+        this.queryTypeNumber = buffer.readTwo();
+        QueryType qtype = QueryType.fromNumber(this.queryTypeNumber);
+        // Ignoring class for now
+        buffer.readTwo();
+        this.ttl = buffer.readFour();
+        this.dataLength = buffer.readTwo();
+        // Switch based on type of record
+        switch (qtype) {
+            // A record contains IP address
+            case A -> {
+                this.dnsRecordType = DnsRecordType.A;
+                byte[] rawAddr = new byte[4];
+                buffer.readBytes(rawAddr);
+                this.addr = Inet4Address.getByAddress(rawAddr);
+            }
+            // AAAA record contains IPv6 address
+            case AAAA -> {
+                this.dnsRecordType = DnsRecordType.AAAA;
+                byte[] rawAddr = new byte[16];
+                buffer.readBytes(rawAddr);
+                this.addr = Inet6Address.getByAddress(rawAddr);
+            }
+            // NS record contains host
+            case NS -> {
+                this.dnsRecordType = DnsRecordType.NS;
+                this.host = buffer.readName();
+            }
+            // CNAME record contains host
+            case CNAME -> {
+                this.dnsRecordType = DnsRecordType.CNAME;
+                this.host = buffer.readName();
+            }
+            // SOA record contains two hosts and five 32-bit numbers
+            case SOA -> {
+                this.dnsRecordType = DnsRecordType.SOA;
+                this.host = buffer.readName();
+                this.mailbox = buffer.readName();
+                this.serial = buffer.readFour();
+                this.refresh = buffer.readFour();
+                this.retry = buffer.readFour();
+                this.expire = buffer.readFour();
+                this.minimum = buffer.readFour();
+            }
+            // MX record contains priority and host
+            case MX -> {
+                this.dnsRecordType = DnsRecordType.MX;
+                this.priority = buffer.readTwo();
+                this.host = buffer.readName();
+            }
+            case UNKNOWN, OPT -> {
+                this.dnsRecordType = DnsRecordType.UNKNOWN;
+                // Skip payload for now
+                buffer.forward((int) this.dataLength);
+            }
+        }
+
+        return this;
+
+    }
+
+    /*
+     * Writes current record to buffer and returns length of written data */
+    public int write(BytePacketBuffer buffer) {
+        int startPosition = buffer.getPosition();
+        switch (this.dnsRecordType) {
+            // For A record: name - domain, qtype - A, class - IN (1)
+            // ttl - ttl, rdlength - 4 octets for IP addr,
+            // rdata - IP addr
+            case A -> {
+                buffer.writeName(this.domain);
+                buffer.writeTwo(this.queryTypeNumber);
+                buffer.writeTwo((short) 1);
+                buffer.writeFour(this.ttl);
+                // 4 octets for IP address
+                buffer.writeTwo((short) 4);
+
+                // Write IP octets to buffers
+                buffer.writeBytes(this.addr.getAddress());
+            }
+            // For NS and CNAME record: name - domain, qtype - NS / CNAME, class - IN (1)
+            // ttl - ttl, rdlength - to be determined (len need for writing host name),
+            // rdata - host
+            case NS, CNAME -> {
+                buffer.writeName(this.domain);
+                buffer.writeTwo(this.queryTypeNumber);
+                buffer.writeTwo((short) 1);
+                buffer.writeFour(this.ttl);
+
+                // We don't know yet what is final length of the data
+                // so we need to remember current position
+                int lenPos = buffer.getPosition();
+                buffer.writeTwo((short) 0);
+
+                buffer.writeName(this.host);
+
+                // Calculating length of host
+                short size = (short) (buffer.getPosition() - (lenPos + 2));
+
+                // Setting length of the data
+                buffer.setTwo(lenPos, size);
+            }
+            // For SOA record: name - zone, qtype - SOA, class - IN (1)
+            // ttl - ttl, rdlength - to be determined (len need for writing
+            // both names), rdata - primary, mailbox and five numbers
+            case SOA -> {
+                buffer.writeName(this.domain);
+                buffer.writeTwo(this.queryTypeNumber);
+                buffer.writeTwo((short) 1);
+                buffer.writeFour(this.ttl);
+
+                int lenPos = buffer.getPosition();
+                buffer.writeTwo((short) 0);
+
+                buffer.writeName(this.host);
+                buffer.writeName(this.mailbox);
+                buffer.writeFour(this.serial);
+                buffer.writeFour(this.refresh);
+                buffer.writeFour(this.retry);
+                buffer.writeFour(this.expire);
+                buffer.writeFour(this.minimum);
+
+                short size = (short) (buffer.getPosition() - (lenPos + 2));
+                buffer.setTwo(lenPos, size);
+            }
+            // For MX record: name - domain, qtype - MX, class - IN (1)
+            // ttl - ttl, rdlength - to be determined (len need for writing
+            // priority + host name), rdata - host
+            case MX -> {
+                buffer.writeName(this.domain);
+                buffer.writeTwo(this.queryTypeNumber);
+                buffer.writeTwo((short) 1);
+                buffer.writeFour(this.ttl);
+
+                int lenPos = buffer.getPosition();
+                buffer.writeTwo((short) 0);
+
+                buffer.writeTwo(this.priority);
+                buffer.writeName(this.host);
+
+                short size = (short) (buffer.getPosition() - (lenPos + 2));
+                buffer.setTwo(lenPos, size);
+            }
+            // For AAAA record: name - domain, qtype - AAAA, class - IN (1)
+            // ttl - ttl, rdlength - 16 octets for IP addr,
+            // rdata - IP addr
+            case AAAA -> {
+                buffer.writeName(this.domain);
+                buffer.writeTwo(this.queryTypeNumber);
+                buffer.writeTwo((short) 1);
+                buffer.writeFour(this.ttl);
+
+                // 16 octets for IPv6 address
+                buffer.writeTwo((short) 16);
+
+                // Write IPv6 octets to buffers
+                buffer.writeBytes(this.addr.getAddress());
+            }
+            // Ignore for now
+            case UNKNOWN -> {
+                if (DEBUG) {
+                    System.out.println("Ignoring for now : ");
+                    System.out.println(this);
+                }
+            }
+        }
+        return (buffer.getPosition() - startPosition);
+    }
+
+    @Override
+    public String toString() {
+        //Custom string format depending on type of record
+        return switch (this.dnsRecordType) {
+            case UNKNOWN -> "UNKNOWN {" + "\n" +
+                    "\t" + "domain = '" + domain + '\'' + "\n" +
+                    "\t" + "queryTypeNumber = " + queryTypeNumber + "\n" +
+                    "\t" + "dataLength = " + dataLength + "\n" +
+                    "\t" + "ttl = " + DnsHeader.convertSingedIntToUnsigned(ttl) + "\n" +
+                    '}';
+            case A -> "A {" + "\n" +
+                    "\t" + "domain = '" + domain + '\'' + "\n" +
+                    "\t" + "addr = " + addr.getHostAddress() + "\n" +
+                    "\t" + "ttl = " + DnsHeader.convertSingedIntToUnsigned(ttl) + "\n" +
+                    '}';
+            case NS -> "NS {" + "\n" +
+                    "\t" + "domain = '" + domain + '\'' + "\n" +
+                    "\t" + "host = " + host + "\n" +
+                    "\t" + "ttl = " + DnsHeader.convertSingedIntToUnsigned(ttl) + "\n" +
+                    '}';
+            case CNAME -> "CNAME {" + "\n" +
+                    "\t" + "domain = '" + domain + '\'' + "\n" +
+                    "\t" + "host = " + host + "\n" +
+                    "\t" + "ttl = " + DnsHeader.convertSingedIntToUnsigned(ttl) + "\n" +
+                    '}';
+            case SOA -> "SOA {" + "\n" +
+                    "\t" + "domain = '" + domain + '\'' + "\n" +
+                    "\t" + "primary = " + host + "\n" +
+                    "\t" + "mailbox = " + mailbox + "\n" +
+                    "\t" + "serial = " + DnsHeader.convertSingedIntToUnsigned(serial) + "\n" +
+                    "\t" + "minimum = " + DnsHeader.convertSingedIntToUnsigned(minimum) + "\n" +
+                    "\t" + "ttl = " + DnsHeader.convertSingedIntToUnsigned(ttl) + "\n" +
+                    '}';
+            case MX -> "MX {" + "\n" +
+                    "\t" + "domain = '" + domain + '\'' + "\n" +
+                    "\t" + "priority = " + DnsHeader.convertSingedShortToUnsigned(priority) + "\n" +
+                    "\t" + "host = " + host + "\n" +
+                    "\t" + "ttl = " + DnsHeader.convertSingedIntToUnsigned(ttl) + "\n" +
+                    '}';
+            case AAAA -> "AAAA {" + "\n" +
+                    "\t" + "domain = '" + domain + '\'' + "\n" +
+                    "\t" + "addr = " + addr.getHostAddress() + "\n" +
+                    "\t" + "ttl = " + DnsHeader.convertSingedIntToUnsigned(ttl) + "\n" +
+                    '}';
+        };
+
+    }
+}
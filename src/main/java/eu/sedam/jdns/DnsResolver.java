@@ -0,0 +1,94 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+public class DnsResolver {
+
+    public static void main(String[] args) throws Exception {
+
+        // Load local zones and blocklist before listening so broken file
+        // stops start
+        DnsServer.getZones();
+        DnsServer.getBlocklist();
+
+        // Channels sharing the port are opened instead of single socket
+        ReusePortListener listener = ServerConfig.reusePort()
+                ? new ReusePortListener(new InetSocketAddress(ServerConfig.listenAddress(), ServerConfig.listenPort()),
+                ServerConfig.listeners(), ServerConfig.workers(), ServerConfig.receiveBatch())
+                : null;
+        DatagramSocket socket = listener == null
+                ? new DatagramSocket(ServerConfig.listenPort(), InetAddress.getByName(ServerConfig.listenAddress()))
+                : null;
+        TcpListener tcpListener = ServerConfig.tcp()
+                ? new TcpListener(new InetSocketAddress(ServerConfig.listenAddress(), ServerConfig.listenPort()),
+                ServerConfig.tcpWorkers(), ServerConfig.tcpConnections(), ServerConfig.tcpPipeline(),
+                ServerConfig.tcpIdleTimeoutMillis())
+                : null;
+        System.out.println(">>> LISTENING <<<");
+
+        Metrics.INSTANCE.registerMBean();
+        if (ServerConfig.metricsPort() > 0) {
+            new MetricsEndpoint(new InetSocketAddress(ServerConfig.listenAddress(), ServerConfig.metricsPort()),
+                    Metrics.INSTANCE);
+        }
+
+        if (listener != null) {
+            // Event loop per channel, lookups on pool of workers
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                listener.close();
+                stop(tcpListener);
+            }));
+            listener.start();
+            listener.awaitTermination();
+            return;
+        }
+
+        int workers = ServerConfig.workers();
+        if (workers > 1) {
+            // Concurrent handling of requests by pool of workers
+            QueryDispatcher dispatcher = new QueryDispatcher(socket, workers);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                dispatcher.close();
+                stop(tcpListener);
+            }));
+            dispatcher.start();
+            dispatcher.awaitTermination();
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(tcpListener)));
+
+        // Single threaded sequential handling of requests
+        while (true) {
+            try {
+                DnsServer.handleQuery(socket);
+            } catch (Exception ex) {
+                System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+            }
+        }
+
+    }
+
+    /*
+     * Lets TCP queries in flight finish, stops prefetching and reloads of
+     * zones and blocklist and writes remaining query log events to disk */
+    private static void stop(TcpListener tcpListener) {
+        QueryLog queryLog = DnsServer.getQueryLog();
+        Prefetcher prefetcher = DnsServer.getPrefetcher();
+        if (prefetcher != null) prefetcher.close();
+        LocalZones zones = DnsServer.getZones();
+        if (zones != null) zones.close();
+        BlocklistFilter blocklist = DnsServer.getBlocklist();
+        if (blocklist != null) blocklist.close();
+        try {
+            if (tcpListener != null) tcpListener.close();
+            if (queryLog != null) queryLog.close();
+        } catch (IOException ex) {
+            System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,691 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class DnsServer {
+
+    // Upstream servers shared by all workers
+    private static final UpstreamPool UPSTREAM = createUpstream();
+
+    // Print every query and record to console, off by default
+    private static final boolean DEBUG = ServerConfig.debug();
+
+    private static final Metrics METRICS = Metrics.INSTANCE;
+
+    // EDNS payload size advertised to clients and cap of their payload size
+    private static final int EDNS_PAYLOAD_SIZE = ServerConfig.ednsPayloadSize();
+
+    // Relay upstream replies as they are instead of parsing them
+    private static final boolean PASS_THROUGH = ServerConfig.passThrough();
+
+    // Zones answered authoritatively before any lookup, null when none
+    private static final LocalZones ZONES = createZones();
+
+    // Names answered with NXDOMAIN or sinkhole, null when no blocklist
+    private static final BlocklistFilter BLOCKLIST = createBlocklist();
+
+    // Iterative resolver used instead of upstream, null when forwarding
+    private static final RecursiveResolver RECURSOR = ServerConfig.recursive()
+            ? new RecursiveResolver(ServerConfig.rootHints(), ServerConfig.nameServerPort(),
+            ServerConfig.nameServerTimeoutMillis(), ServerConfig.delegationCacheSize())
+            : null;
+
+    // Answers of previous lookups shared by all workers
+    private static final AnswerCache CACHE = createCache();
+
+    // Cache hits are sent from their wire format instead of being written
+    // again, except in debug mode which prints records of every answer
+    private static final boolean WIRE_CACHE = ServerConfig.wireCache() && !DEBUG;
+    private static final ThreadLocal<BytePacketBuffer> ENCODE_BUFFERS =
+            ThreadLocal.withInitial(() -> new BytePacketBuffer(BytePacketBuffer.MAX_MESSAGE_SIZE));
+
+    // Expired answers are served when lookup fails or takes longer than
+    // client timeout (RFC 8767)
+    private static final boolean SERVE_STALE = ServerConfig.staleWindowSeconds() > 0;
+    private static final long CLIENT_TIMEOUT_MILLIS = ServerConfig.clientTimeoutMillis();
+
+    // Lookups in flight joined by workers asking the same question
+    private static final QueryCoalescer<DnsPacket> COALESCER = createCoalescer();
+    private static final boolean COALESCE = ServerConfig.coalesce();
+
+    // Background refresh of popular cache entries, null when disabled
+    private static final Prefetcher PREFETCHER = createPrefetcher();
+
+    // Binary log of answered queries, null when disabled
+    private static final QueryLog QUERY_LOG = createQueryLog();
+
+    // Limit of UDP responses per client network, null when disabled
+    private static final RateLimiter RATE_LIMITER = createRateLimiter();
+
+    /*
+     * Returns answer from cache if available, otherwise forwards query or
+     * resolves it iteratively and caches the answer. Identical questions
+     * asked at the same time share single lookup. With serve-stale, expired
+     * answer is returned if lookup fails or does not finish within client
+     * timeout, lookup then continues in background. */
+    public static DnsPacket resolve(DnsQuestion question) throws Exception {
+        DnsPacket cached = CACHE.get(question);
+        if (cached != null) return cached;
+
+        CompletableFuture<DnsPacket> lookup = lookupShared(question);
+        if (!SERVE_STALE) return lookup.get();
+
+        DnsPacket result;
+        try {
+            result = lookup.get(CLIENT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            DnsPacket stale = CACHE.getStale(question);
+            return stale != null ? stale : lookup.get();
+        } catch (ExecutionException ex) {
+            DnsPacket stale = CACHE.getStale(question);
+            if (stale == null) throw ex;
+            return stale;
+        }
+
+        if (isServerFailure(result)) {
+            DnsPacket stale = CACHE.getStale(question);
+            if (stale != null) return stale;
+        }
+        return result;
+    }
+
+    private static boolean isServerFailure(DnsPacket result) {
+        ResultCode rescode = result.getHeader().getRescode();
+        return rescode == ResultCode.SERVFAIL || rescode == ResultCode.REFUSED;
+    }
+
+    /*
+     * Looks up and caches answer, joining identical lookup in flight if
+     * coalescing is enabled. Also used to refresh entries by prefetcher. */
+    private static CompletableFuture<DnsPacket> lookupShared(DnsQuestion question) {
+        return COALESCE
+                ? COALESCER.lookup(question, DnsServer::lookupAndCache)
+                : lookupAndCache(question);
+    }
+
+    /*
+     * Looks up answer for given question and stores it in cache before the
+     * returned future completes */
+    private static CompletableFuture<DnsPacket> lookupAndCache(DnsQuestion question) {
+        CompletableFuture<DnsPacket> lookup;
+        if (RECURSOR != null) {
+            // Iterative resolution runs on the calling worker
+            try {
+                lookup = CompletableFuture.completedFuture(
+                        RECURSOR.resolve(question.getDnsName(), question.getQueryType()));
+            } catch (Exception ex) {
+                lookup = CompletableFuture.failedFuture(ex);
+            }
+        } else {
+            lookup = lookupAsync(question.getDnsName(), question.getQueryType());
+        }
+
+        return lookup.whenComplete((result, ex) -> {
+            if (ex == null && !isServerFailure(result)) {
+                CACHE.put(question, result);
+            } else if (SERVE_STALE) {
+                CACHE.refreshFailed(question);
+            }
+        });
+    }
+
+    public static AnswerCache getCache() {
+        return CACHE;
+    }
+
+    private static AnswerCache createCache() {
+        AnswerCache cache = new AnswerCache(ServerConfig.cacheSize(), ServerConfig.negativeTtlMax());
+        cache.setServeStale(ServerConfig.staleWindowSeconds(), ServerConfig.staleTtl());
+        cache.registerMetrics(Metrics.INSTANCE);
+        return cache;
+    }
+
+    public static QueryCoalescer<DnsPacket> getCoalescer() {
+        return COALESCER;
+    }
+
+    private static QueryCoalescer<DnsPacket> createCoalescer() {
+        QueryCoalescer<DnsPacket> coalescer = new QueryCoalescer<>();
+        coalescer.registerMetrics(Metrics.INSTANCE);
+        return coalescer;
+    }
+
+    public static Prefetcher getPrefetcher() {
+        return PREFETCHER;
+    }
+
+    private static Prefetcher createPrefetcher() {
+        if (!ServerConfig.prefetch() || ServerConfig.cacheSize() <= 0) return null;
+        Prefetcher prefetcher = new Prefetcher(ServerConfig.prefetchThreads(), ServerConfig.prefetchQueue(),
+                DnsServer::lookupShared);
+        CACHE.setPrefetch(prefetcher, ServerConfig.prefetchThreshold(), ServerConfig.prefetchMinHits());
+        prefetcher.registerMetrics(Metrics.INSTANCE);
+        return prefetcher;
+    }
+
+    public static LocalZones getZones() {
+        return ZONES;
+    }
+
+    private static LocalZones createZones() {
+        List<Path> files = ServerConfig.zones();
+        Path snapshot = ServerConfig.zoneSnapshot();
+        if (files.isEmpty() && snapshot == null) return null;
+        try {
+            LocalZones zones = new LocalZones(files, snapshot);
+            zones.startReload(ServerConfig.zoneReloadIntervalMillis());
+            zones.registerMetrics(Metrics.INSTANCE);
+            return zones;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public static BlocklistFilter getBlocklist() {
+        return BLOCKLIST;
+    }
+
+    private static BlocklistFilter createBlocklist() {
+        List<Path> files = ServerConfig.blocklists();
+        if (files.isEmpty()) return null;
+        try {
+            BlocklistFilter blocklist = new BlocklistFilter(files, ServerConfig.sinkhole(),
+                    ServerConfig.sinkholeTtl());
+            blocklist.startReload(ServerConfig.blocklistReloadIntervalMillis());
+            blocklist.registerMetrics(Metrics.INSTANCE);
+            return blocklist;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public static RecursiveResolver getRecursiveResolver() {
+        return RECURSOR;
+    }
+
+    public static UpstreamPool getUpstream() {
+        return UPSTREAM;
+    }
+
+    private static UpstreamPool createUpstream() {
+        try {
+            UpstreamPool upstream = new UpstreamPool(ServerConfig.upstreams(), ServerConfig.upstreamSockets(),
+                    ServerConfig.upstreamTcpConnections(), ServerConfig.upstreamTimeoutMillis(),
+                    ServerConfig.upstreamHedge());
+            upstream.registerMetrics(Metrics.INSTANCE);
+            return upstream;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public static QueryLog getQueryLog() {
+        return QUERY_LOG;
+    }
+
+    public static RateLimiter getRateLimiter() {
+        return RATE_LIMITER;
+    }
+
+    private static RateLimiter createRateLimiter() {
+        if (ServerConfig.rateLimit() <= 0) return null;
+        RateLimiter rateLimiter = new RateLimiter(ServerConfig.rateLimitTableSize(), ServerConfig.rateLimit(),
+                ServerConfig.rateLimitSlip(), ServerConfig.rateLimitIpv4Prefix(), ServerConfig.rateLimitIpv6Prefix());
+        rateLimiter.registerMetrics(Metrics.INSTANCE);
+        return rateLimiter;
+    }
+
+    private static QueryLog createQueryLog() {
+        String directory = ServerConfig.queryLog();
+        if (directory == null || directory.isEmpty()) return null;
+        try {
+            QueryLog queryLog = new QueryLog(Path.of(directory), ServerConfig.queryLogCapacity(),
+                    ServerConfig.queryLogFileSize(), ServerConfig.queryLogFiles());
+            queryLog.registerMetrics(Metrics.INSTANCE);
+            return queryLog;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /*
+     * Preforms lookup by forwarding queries to another DNS server */
+    public static DnsPacket lookup(String qname, QueryType queryType) throws Exception {
+        return lookupAsync(qname, queryType).get();
+    }
+
+    /*
+     * Forwards query to another DNS server without waiting for response */
+    public static CompletableFuture<DnsPacket> lookupAsync(String qname, QueryType queryType) {
+        return lookupAsync(DnsName.of(qname), queryType);
+    }
+
+    public static CompletableFuture<DnsPacket> lookupAsync(DnsName qname, QueryType queryType) {
+        return UPSTREAM.query(qname, queryType);
+    }
+
+    /*
+     * Relays query to upstream server and its reply back to the client
+     * without parsing records. Only header and question are read, and only
+     * transaction ID is rewritten. Returns false if query should be handled
+     * by regular path instead. */
+    private static boolean forward(BytePacketBuffer requestBuffer, int length, Responder responder)
+            throws Exception {
+        long start = System.nanoTime();
+        DnsHeader header = new DnsHeader();
+        header.read(requestBuffer);
+
+        // Queries without exactly one question are answered by regular path
+        // with proper error code
+        if (header.getQuestionsCnt() != 1 || header.getAnswersCnt() != 0
+                || header.getAuthorityRecordsCnt() != 0) {
+            requestBuffer.jump(0);
+            return false;
+        }
+
+        DnsQuestion question = new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN);
+        question.read(requestBuffer);
+        METRICS.record(Metrics.Stage.PARSE, System.nanoTime() - start);
+
+        // Local zones and blocked names are answered by regular path
+        if (ZONES != null && ZONES.find(question.getDnsName()) != null
+                || BLOCKLIST != null && BLOCKLIST.isBlocked(question.getDnsName())) {
+            requestBuffer.jump(0);
+            return false;
+        }
+
+        // Lone EDNS OPT record is relayed with payload size capped to what
+        // we accept from upstream, so reply fits both our buffer and client.
+        // Other additional records are dropped so upstream reply stays
+        // within 512 bytes.
+        int additionalStart = requestBuffer.getPosition();
+        boolean edns = header.getResourceRecordsCnt() == 1 && additionalStart + OptRecord.SIZE <= length
+                && DnsPacket.isOpt(requestBuffer);
+        int payloadSize = 0;
+        if (edns) {
+            payloadSize = (requestBuffer.getOne(additionalStart + 3) & 0xFF) << 8
+                    | requestBuffer.getOne(additionalStart + 4) & 0xFF;
+            requestBuffer.setTwo(additionalStart + 3, (short) Math.min(payloadSize, EDNS_PAYLOAD_SIZE));
+            requestBuffer.jump(length);
+        } else if (header.getResourceRecordsCnt() != 0) {
+            requestBuffer.setTwo(10, (short) 0);
+        } else {
+            requestBuffer.jump(length);
+        }
+
+        // Truncated reply is repeated over TCP by upstream client. If upstream
+        // fails, client gets SERVFAIL right away, asking again through
+        // regular path would wait for upstream timeout second time.
+        BytePacketBuffer responseBuffer;
+        try {
+            responseBuffer = UPSTREAM.send(requestBuffer, question).get();
+        } catch (Exception ex) {
+            responseBuffer = serverFailure(question, edns);
+        }
+
+        // Reply that came over TCP may not fit, client then asks us over TCP
+        if (responseBuffer.getPosition() > responder.getMaxSize(payloadSize)) {
+            truncate(responseBuffer);
+            METRICS.countTruncated();
+        }
+
+        // Restore client's transaction ID and send reply as it came
+        responseBuffer.setTwo(0, header.getId());
+        long sendStart = System.nanoTime();
+        ResultCode rescode = ResultCode.fromNumber((byte) (responseBuffer.getOne(3) & 0x0F));
+        send(responder, responseBuffer);
+        METRICS.record(Metrics.Stage.SEND, System.nanoTime() - sendStart);
+        METRICS.countResponse(question.getQueryType(), rescode);
+        if (QUERY_LOG != null) {
+            int answers = (responseBuffer.getOne(6) & 0xFF) << 8 | responseBuffer.getOne(7) & 0xFF;
+            QUERY_LOG.publish(System.currentTimeMillis(), responder.getAddress(), responder.getPort(), question,
+                    rescode, answers, System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    /*
+     * Writes SERVFAIL response to given question into buffer of current
+     * thread, with OPT record if request had one */
+    private static BytePacketBuffer serverFailure(DnsQuestion question, boolean edns) {
+        DnsPacket response = new DnsPacket();
+        response.getHeader().setRecursionDesired(true);
+        response.getHeader().setRecursionAvailable(true);
+        response.getHeader().setResponse(true);
+        response.getHeader().setRescode(ResultCode.SERVFAIL);
+        response.getQuestions().add(question);
+        if (edns) response.setOpt(new OptRecord(EDNS_PAYLOAD_SIZE));
+
+        BytePacketBuffer responseBuffer = BufferPool.threadLocalLarge();
+        response.write(responseBuffer);
+        return responseBuffer;
+    }
+
+    /* Handles incoming query */
+    public static void handleQuery(DatagramSocket socket) throws Exception {
+
+        BytePacketBuffer requestBuffer = new BytePacketBuffer(ServerConfig.bufferSize());
+
+        // Receive single query - blocking method
+        DatagramPacket udpPacket = requestBuffer.receive(socket);
+
+        handleRequest(socket, requestBuffer, udpPacket.getLength(), udpPacket.getAddress(), udpPacket.getPort());
+    }
+
+    /*
+     * Handles query of given length that was already received into given
+     * buffer and sends response to given address and port. Socket is only
+     * used for sending so this method can be called from multiple threads
+     * at the same time. */
+    public static void handleRequest(DatagramSocket socket, BytePacketBuffer requestBuffer, int length,
+                                     InetAddress address, int port) throws Exception {
+        handleRequest(requestBuffer, length, new UdpResponder(socket, address, port));
+    }
+
+    /*
+     * Handles query of given length that was already received into given
+     * buffer and sends response with given responder */
+    public static void handleRequest(BytePacketBuffer requestBuffer, int length, Responder responder)
+            throws Exception {
+        handleRequest(requestBuffer, length, responder, true);
+    }
+
+    /*
+     * Same as above, but when lookup is not allowed, only queries answered
+     * from local zones, blocklist or cache are handled. Returns false for
+     * others, which are left unchanged in buffer to be handled later by
+     * thread that can wait for lookup. */
+    public static boolean handleRequest(BytePacketBuffer requestBuffer, int length, Responder responder,
+                                        boolean mayLookup) throws Exception {
+        // Every query in pass-through mode is relayed to upstream
+        if (PASS_THROUGH && !mayLookup) return false;
+        METRICS.queryStarted();
+        try {
+            requestBuffer.setLimit(length);
+            if (PASS_THROUGH && forward(requestBuffer, length, responder)) return true;
+            if (respond(requestBuffer, responder, mayLookup)) return true;
+            METRICS.queryDeferred();
+            requestBuffer.jump(0);
+            return false;
+        } catch (Exception ex) {
+            METRICS.countError();
+            throw ex;
+        } finally {
+            METRICS.queryFinished();
+        }
+    }
+
+    /*
+     * Parses query, resolves it and sends response. Returns false without
+     * sending anything if answer needs lookup that is not allowed. */
+    private static boolean respond(BytePacketBuffer requestBuffer, Responder responder, boolean mayLookup)
+            throws Exception {
+        long start = System.nanoTime();
+
+        // Read data and covert it to DNS packet
+        DnsPacket requestDnsPacket = new DnsPacket();
+        requestDnsPacket.fromBuffer(requestBuffer);
+        METRICS.record(Metrics.Stage.PARSE, System.nanoTime() - start);
+
+        DnsPacket responseDnsPacket = newResponse(requestDnsPacket);
+        OptRecord requestOpt = requestDnsPacket.getOpt();
+
+        QueryType queryType = QueryType.UNKNOWN;
+        DnsQuestion question = null;
+
+        // Only EDNS version 0 is known (RFC 6891 section 6.1.3)
+        if (requestOpt != null && requestOpt.getVersion() > 0) {
+            responseDnsPacket.getOpt().setExtendedRcode(OptRecord.BADVERS);
+
+            // Check if request contains question
+        } else if (!requestDnsPacket.getQuestions().isEmpty()) {
+            question = requestDnsPacket.getQuestions().get(0);
+            queryType = question.getQueryType();
+            if (DEBUG) {
+                System.out.println(">>> RECEIVED QUERY <<<");
+                System.out.println(question);
+            }
+
+            // Answer from local zone or blocklist or try to forward query
+            // to another DNS server. Query might fail so we need to catch
+            // exception and set proper result code.
+            try {
+                DnsPacket result = ZONES != null ? ZONES.answer(question) : null;
+                if (result == null && BLOCKLIST != null) result = BLOCKLIST.answer(question);
+                if (result == null && WIRE_CACHE && sendEncoded(requestDnsPacket, question, responder, start)) {
+                    return true;
+                }
+                if (result == null) result = mayLookup ? DnsServer.resolve(question) : CACHE.getIfPresent(question);
+                if (result == null) return false;
+                addResult(responseDnsPacket, question, result);
+                if (DEBUG) printRecords(result);
+
+            } catch (Exception ex) {
+                responseDnsPacket.getHeader().setRescode(ResultCode.SERVFAIL);
+            }
+
+            // If query does not contain question, set response code to
+            // indicate format error made by sender.
+        } else {
+            responseDnsPacket.getHeader().setRescode(ResultCode.FORMERR);
+        }
+
+        // Write response packet to buffer of current thread limited to
+        // what transport can carry and send it off
+        long serializeStart = System.nanoTime();
+        int maxSize = responder.getMaxSize(requestOpt != null ? requestOpt.getPayloadSize() : 0);
+        BytePacketBuffer responseBuffer = BufferPool.threadLocalLarge();
+        responseBuffer.setLimit(maxSize);
+        try {
+            responseDnsPacket.write(responseBuffer);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            // Response does not fit, send only question with TC flag so
+            // client repeats query over TCP (RFC 1035 section 4.2.1)
+            truncate(responseDnsPacket);
+            responseBuffer.clear();
+            responseBuffer.setLimit(maxSize);
+            responseDnsPacket.write(responseBuffer);
+            METRICS.countTruncated();
+        }
+
+        long sendStart = System.nanoTime();
+        METRICS.record(Metrics.Stage.SERIALIZE, sendStart - serializeStart);
+        send(responder, responseBuffer);
+        METRICS.record(Metrics.Stage.SEND, System.nanoTime() - sendStart);
+        METRICS.countResponse(queryType, responseDnsPacket.getHeader().getRescode());
+        if (QUERY_LOG != null && question != null) {
+            QUERY_LOG.publish(System.currentTimeMillis(), responder.getAddress(), responder.getPort(), question,
+                    responseDnsPacket.getHeader().getRescode(), responseDnsPacket.getAnswers().size(),
+                    System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    /*
+     * Creates response to given request with its ID and flags set, RD and
+     * CD copied from request (RFC 1035, RFC 4035), and with OPT record if
+     * request has one */
+    private static DnsPacket newResponse(DnsPacket request) {
+        DnsPacket response = new DnsPacket();
+        response.getHeader().setId(request.getHeader().getId());
+        response.getHeader().setRecursionDesired(request.getHeader().isRecursionDesired());
+        response.getHeader().setCheckingDisabled(request.getHeader().isCheckingDisabled());
+        response.getHeader().setRecursionAvailable(true);
+        response.getHeader().setResponse(true);
+
+        // Client that sent OPT record gets ours with payload size we accept
+        OptRecord requestOpt = request.getOpt();
+        if (requestOpt != null) {
+            OptRecord responseOpt = new OptRecord(EDNS_PAYLOAD_SIZE);
+            responseOpt.setDnssecOk(requestOpt.isDnssecOk());
+            response.setOpt(responseOpt);
+        }
+        return response;
+    }
+
+    /*
+     * Adds question and result of its lookup to response */
+    private static void addResult(DnsPacket response, DnsQuestion question, DnsPacket result) {
+        response.getQuestions().add(question);
+
+        // Copy response code and authority flag from returned result
+        response.getHeader().setRescode(result.getHeader().getRescode());
+        response.getHeader().setAuthoritativeAnswer(result.getHeader().isAuthoritativeAnswer());
+
+        // Copy all records
+        response.getAnswers().addAll(result.getAnswers());
+        response.getAuthorityRecords().addAll(result.getAuthorityRecords());
+        response.getResourceRecords().addAll(result.getResourceRecords());
+    }
+
+    /*
+     * Sends fresh cached answer to given question as encoded message with
+     * ID, flags and question name of request patched in. Returns false if answer is not cached or
+     * does not fit, so regular path builds the response. */
+    private static boolean sendEncoded(DnsPacket request, DnsQuestion question, Responder responder, long start)
+            throws IOException {
+        long serializeStart = System.nanoTime();
+        OptRecord requestOpt = request.getOpt();
+        // Encoded message holds question type and OPT record of request
+        int variant = question.getQueryType().toNumber() << 2
+                | (requestOpt == null ? 0 : requestOpt.isDnssecOk() ? 2 : 1);
+
+        BytePacketBuffer responseBuffer = BufferPool.threadLocalLarge();
+        responseBuffer.setLimit(responder.getMaxSize(requestOpt != null ? requestOpt.getPayloadSize() : 0));
+        if (!CACHE.writeEncoded(question, variant, request.getHeader(), responseBuffer,
+                result -> encode(variant, request, question, result))) {
+            return false;
+        }
+
+        long sendStart = System.nanoTime();
+        METRICS.record(Metrics.Stage.SERIALIZE, sendStart - serializeStart);
+        ResultCode rescode = ResultCode.fromNumber((byte) (responseBuffer.getOne(3) & 0x0F));
+        send(responder, responseBuffer);
+        METRICS.record(Metrics.Stage.SEND, System.nanoTime() - sendStart);
+        METRICS.countResponse(question.getQueryType(), rescode);
+        if (QUERY_LOG != null) {
+            int answers = (responseBuffer.getOne(6) & 0xFF) << 8 | responseBuffer.getOne(7) & 0xFF;
+            QUERY_LOG.publish(System.currentTimeMillis(), responder.getAddress(), responder.getPort(), question,
+                    rescode, answers, System.nanoTime() - start);
+        }
+        return true;
+    }
+
+    /*
+     * Encodes response to given request with given cached result the same
+     * way regular path writes it */
+    private static EncodedResponse encode(int variant, DnsPacket request, DnsQuestion question, DnsPacket result) {
+        DnsPacket response = newResponse(request);
+        addResult(response, question, result);
+        BytePacketBuffer buffer = ENCODE_BUFFERS.get();
+        buffer.clear();
+        response.write(buffer);
+        return new EncodedResponse(variant, buffer, buffer.getPosition());
+    }
+
+    /*
+     * Sends response in given buffer, unless client went over its rate
+     * limit. Then response is dropped or sent truncated. */
+    private static void send(Responder responder, BytePacketBuffer responseBuffer) throws IOException {
+        if (RATE_LIMITER != null && responder.isDatagram()) {
+            ResultCode rescode = ResultCode.fromNumber((byte) (responseBuffer.getOne(3) & 0x0F));
+            int answers = (responseBuffer.getOne(6) & 0xFF) << 8 | responseBuffer.getOne(7) & 0xFF;
+            switch (RATE_LIMITER.check(responder.getAddress(), RateLimiter.kindOf(rescode, answers))) {
+                case DROP:
+                    return;
+                case SLIP:
+                    truncate(responseBuffer);
+                    break;
+                default:
+            }
+        }
+        responder.send(responseBuffer);
+    }
+
+    /*
+     * Cuts encoded response in given buffer after question section and sets
+     * TC flag, so client repeats query over TCP. OPT record is moved right
+     * after the question, so client still sees EDNS is supported (RFC 6891). */
+    private static void truncate(BytePacketBuffer responseBuffer) {
+        int messageEnd = responseBuffer.getPosition();
+        int position = 12;
+        int questions = getTwo(responseBuffer, 4);
+        for (int i = 0; i < questions; i++) position = skipName(responseBuffer, position) + 4;
+        int end = position;
+
+        byte[] opt = null;
+        int records = getTwo(responseBuffer, 6) + getTwo(responseBuffer, 8) + getTwo(responseBuffer, 10);
+        // Records of reply passed through from upstream are not validated
+        for (int i = 0; i < records && opt == null && position < messageEnd; i++) {
+            int start = position;
+            position = skipName(responseBuffer, position);
+            if (position + 10 > messageEnd) break;
+            int length = 10 + getTwo(responseBuffer, position + 8);
+            if (position + length > messageEnd) break;
+            if (QueryType.fromNumber((short) getTwo(responseBuffer, position)) == QueryType.OPT) {
+                opt = responseBuffer.getRange(start, position - start + length);
+            }
+            position += length;
+        }
+
+        responseBuffer.setOne(2, (byte) (responseBuffer.getOne(2) | 0x02));
+        responseBuffer.setTwo(6, (short) 0);
+        responseBuffer.setTwo(8, (short) 0);
+        responseBuffer.setTwo(10, (short) (opt != null ? 1 : 0));
+        responseBuffer.jump(end);
+        if (opt != null) responseBuffer.writeBytes(opt);
+    }
+
+    private static int getTwo(BytePacketBuffer buffer, int position) {
+        return (buffer.getOne(position) & 0xFF) << 8 | buffer.getOne(position + 1) & 0xFF;
+    }
+
+    /*
+     * Returns position after name starting at given position of buffer */
+    private static int skipName(BytePacketBuffer buffer, int position) {
+        while (true) {
+            int length = buffer.getOne(position) & 0xFF;
+            if ((length & 0xC0) == 0xC0) return position + 2;
+            if (length == 0) return position + 1;
+            position += length + 1;
+        }
+    }
+
+    /*
+     * Removes all records except OPT from response and sets TC flag */
+    private static void truncate(DnsPacket response) {
+        response.getAnswers().clear();
+        response.getAuthorityRecords().clear();
+        response.getResourceRecords().clear();
+        response.getHeader().setTruncatedMessage(true);
+    }
+
+    /*
+     * Prints all records of given response, used only in debug mode */
+    private static void printRecords(DnsPacket result) {
+        result.getAnswers().forEach(x -> {
+            System.out.println(">>> ANSWER <<<");
+            System.out.println(x);
+        });
+
+        result.getAuthorityRecords().forEach(x -> {
+            System.out.println(">>> AUTHORITY <<<");
+            System.out.println(x);
+        });
+
+        result.getResourceRecords().forEach(x -> {
+            System.out.println(">>> RESOURCE <<<");
+            System.out.println(x);
+        });
+    }
+}
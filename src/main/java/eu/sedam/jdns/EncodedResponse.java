@@ -0,0 +1,104 @@
+package eu.sedam.jdns;
+
+import java.util.Arrays;
+
+/*
+ * Complete response message in wire format, with names already compressed,
+ * kept by AnswerCache so that cache hit is sent without building packet
+ * and writing its records again. Offset of TTL of every record is found
+ * once when response is encoded, so serving it is a copy of the bytes,
+ * a store per record of TTL decreased by the time spent in cache, and
+ * patching of what differs between requests with the same question -
+ * transaction ID, RD and CD flags and case of question name. OPT record is
+ * skipped, its TTL field holds EDNS flags.
+ *
+ * Bytes are never modified after construction, so response is shared by
+ * workers without locking. */
+public final class EncodedResponse {
+
+    private static final int HEADER_SIZE = 12;
+    // Flags copied from request, RD in third byte of header and CD in fourth
+    private static final int RD = 0x01;
+    private static final int CD = 0x10;
+
+    // Query type and EDNS variant of request the response was encoded for
+    private final int variant;
+    private final byte[] message;
+    private final int[] ttlOffsets;
+    private final int[] ttls;
+
+    /*
+     * Copies message of given length from start of given buffer and finds
+     * its TTLs */
+    public EncodedResponse(int variant, BytePacketBuffer buffer, int length) {
+        this.variant = variant;
+        this.message = buffer.getRange(0, length);
+
+        int[] offsets = new int[8];
+        int count = 0;
+        int position = HEADER_SIZE;
+        for (int i = 0; i < getTwo(4); i++) position = skipName(position) + 4;
+
+        int records = getTwo(6) + getTwo(8) + getTwo(10);
+        for (int i = 0; i < records; i++) {
+            position = skipName(position);
+            if (QueryType.fromNumber((short) getTwo(position)) != QueryType.OPT) {
+                if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = position + 4;
+            }
+            position += 10 + getTwo(position + 8);
+        }
+
+        this.ttlOffsets = Arrays.copyOf(offsets, count);
+        this.ttls = new int[count];
+        for (int i = 0; i < count; i++) {
+            int offset = this.ttlOffsets[i];
+            this.ttls[i] = (this.message[offset] & 0xFF) << 24 | (this.message[offset + 1] & 0xFF) << 16
+                    | (this.message[offset + 2] & 0xFF) << 8 | this.message[offset + 3] & 0xFF;
+        }
+    }
+
+    /*
+     * Writes message to start of given buffer as response to request with
+     * given header and question, with TTLs decreased by given number of
+     * seconds. Returns false and writes nothing if message is longer than
+     * limit of the buffer. */
+    public boolean writeTo(BytePacketBuffer buffer, DnsHeader request, DnsQuestion question, int elapsed) {
+        if (this.message.length > buffer.getLimit()) return false;
+        buffer.jump(0);
+        buffer.writeBytes(this.message);
+        buffer.setTwo(0, request.getId());
+        buffer.setOne(2, (byte) (this.message[2] & ~RD | (request.isRecursionDesired() ? RD : 0)));
+        buffer.setOne(3, (byte) (this.message[3] & ~CD | (request.isCheckingDisabled() ? CD : 0)));
+        question.writeNameAt(buffer, HEADER_SIZE);
+        for (int i = 0; i < this.ttlOffsets.length; i++) {
+            // TTL with the most significant bit set is treated as zero
+            buffer.setFour(this.ttlOffsets[i], Math.max(0, Math.max(0, this.ttls[i]) - elapsed));
+        }
+        return true;
+    }
+
+    public int getVariant() {
+        return variant;
+    }
+
+    public int getLength() {
+        return message.length;
+    }
+
+    private int getTwo(int position) {
+        return (this.message[position] & 0xFF) << 8 | this.message[position + 1] & 0xFF;
+    }
+
+    /*
+     * Returns position after name starting at given position */
+    private int skipName(int position) {
+        while (true) {
+            int length = this.message[position] & 0xFF;
+            if ((length & 0xC0) == 0xC0) return position + 2;
+            if (length == 0) return position + 1;
+            position += length + 1;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package eu.sedam.jdns;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/*
+ * Histogram of latencies in nanoseconds with bounded relative error, in the
+ * spirit of HdrHistogram. Values are grouped into buckets whose width grows
+ * with magnitude of value - every power of two range is split into the same
+ * number of sub-buckets, so error of reported value is below 1 %.
+ *
+ * Recording is lock-free and can be done from many threads at once. */
+public class LatencyHistogram {
+
+    // Every power of two range is split into 2^(SUB_BUCKET_BITS - 1) sub-buckets
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1);
+    // Enough buckets for any positive long value
+    private static final int BUCKET_CNT = (64 - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_CNT);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /*
+     * Records single value, negative values are recorded as zero */
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        this.counts.incrementAndGet(indexOf(clamped));
+        this.max.accumulate(clamped);
+    }
+
+    /*
+     * Adds all values recorded by other histogram to this one */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_CNT; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) this.counts.addAndGet(i, count);
+        }
+        this.max.accumulate(other.getMax());
+    }
+
+    /*
+     * Removes all recorded values */
+    public void reset() {
+        for (int i = 0; i < BUCKET_CNT; i++) this.counts.set(i, 0);
+        this.max.reset();
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_CNT; i++) total += this.counts.get(i);
+        return total;
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /*
+     * Returns value below which given percentage (0 - 100) of recorded
+     * values fall, 0 if nothing was recorded */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long count : snapshot) total += count;
+        if (total == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_CNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target) return Math.min(highestValueAt(i), getMax());
+        }
+        return getMax();
+    }
+
+    /*
+     * Mean of recorded values computed from bucket midpoints */
+    public double getMean() {
+        long[] snapshot = snapshot();
+        double sum = 0;
+        long total = 0;
+        for (int i = 0; i < BUCKET_CNT; i++) {
+            if (snapshot[i] == 0) continue;
+            sum += snapshot[i] * (lowestValueAt(i) + highestValueAt(i)) / 2.0;
+            total += snapshot[i];
+        }
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /*
+     * Prints percentile distribution with values divided by given scale,
+     * for example 1000.0 to print nanoseconds as microseconds */
+    public void printPercentiles(PrintStream out, double scale, String unit) {
+        double[] percentiles = {50, 75, 90, 95, 99, 99.9, 99.99, 100};
+        out.printf("%12s %14s%n", "Percentile", "Value [" + unit + "]");
+        for (double percentile : percentiles) {
+            out.printf("%12s %14.3f%n", percentile + " %", getValueAtPercentile(percentile) / scale);
+        }
+        out.printf("%12s %14.3f%n", "Mean", getMean() / scale);
+        out.printf("%12s %14d%n", "Count", getTotalCount());
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKET_CNT];
+        for (int i = 0; i < BUCKET_CNT; i++) snapshot[i] = this.counts.get(i);
+        return snapshot;
+    }
+
+    /*
+     * Values below SUB_BUCKET_HALF get their own bucket. Larger values are
+     * shifted right until they fit into [SUB_BUCKET_HALF, 2 * SUB_BUCKET_HALF)
+     * and number of shifts selects the power of two range. */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_HALF) return (int) value;
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKET_HALF) return index;
+        int shift = index / SUB_BUCKET_HALF - 1;
+        return (long) (index - shift * SUB_BUCKET_HALF) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_HALF) return index;
+        int shift = index / SUB_BUCKET_HALF - 1;
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+
+}
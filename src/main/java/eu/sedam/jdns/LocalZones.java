@@ -0,0 +1,133 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Zones that are answered authoritatively instead of being forwarded or
+ * resolved. Question belongs to the zone with the longest origin it is
+ * equal to or below, found by walking up the labels of question name.
+ *
+ * Zones come from master files, which are parsed into MemoryZone, and
+ * from compiled snapshot, which is mapped as SnapshotZone. When reload is
+ * enabled, files are checked periodically and if any of them changed, all
+ * zones are loaded again and swapped in at once. Queries in flight finish
+ * with zones they started with. If loading fails, previous zones are kept. */
+public class LocalZones implements AutoCloseable {
+
+    private final List<Path> zoneFiles;
+    private final Path snapshot;
+
+    private volatile Index index;
+    private final ReloadWatcher watcher;
+
+    private final LongAdder answered = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+
+    /*
+     * Loads zones from given master files and snapshot, which can be null */
+    public LocalZones(List<Path> zoneFiles, Path snapshot) throws IOException {
+        this.zoneFiles = List.copyOf(zoneFiles);
+        this.snapshot = snapshot;
+        List<Path> sources = new ArrayList<>(zoneFiles);
+        if (snapshot != null) sources.add(snapshot);
+        this.watcher = new ReloadWatcher("zones", sources, this::reload);
+        this.index = load();
+    }
+
+    /*
+     * Checks sources for changes every given number of milliseconds */
+    public void startReload(long intervalMillis) {
+        this.watcher.start(intervalMillis);
+    }
+
+    /*
+     * Loads all zones again and swaps them in at once */
+    public void reload() throws IOException {
+        this.index = load();
+        this.reloads.increment();
+    }
+
+    private Index load() throws IOException {
+        long start = System.nanoTime();
+        List<Zone> zones = new ArrayList<>();
+        for (Path file : this.zoneFiles) zones.add(ZoneFileReader.read(file));
+        if (this.snapshot != null) zones.addAll(SnapshotZone.open(this.snapshot));
+
+        Index result = new Index(zones);
+        int records = zones.stream().mapToInt(Zone::getRecordCnt).sum();
+        System.out.printf("Loaded %d zones with %d records in %d ms%n", zones.size(), records,
+                (System.nanoTime() - start) / 1_000_000);
+        return result;
+    }
+
+    /*
+     * Returns zone that given name belongs to, null if there is none */
+    public Zone find(DnsName name) {
+        return this.index.find(name);
+    }
+
+    /*
+     * Answers given question from local zone with AA flag set, returns null
+     * if question is not about local zone */
+    public DnsPacket answer(DnsQuestion question) {
+        Zone zone = find(question.getDnsName());
+        if (zone == null) return null;
+        this.answered.increment();
+        return zone.answer(question.getDnsName(), question.getQueryType());
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.register(Metrics.LOCAL_ANSWERS, this::getAnswered);
+        metrics.register(Metrics.ZONE_RELOADS, this::getReloads);
+    }
+
+    /*
+     * Getters for statistics */
+    public long getAnswered() {
+        return answered.sum();
+    }
+
+    public long getReloads() {
+        return reloads.sum();
+    }
+
+    @Override
+    public void close() {
+        this.watcher.close();
+    }
+
+    /*
+     * Zones by origin, replaced as whole on reload */
+    private static final class Index {
+        private final Map<DnsName, Zone> zones = new HashMap<>();
+        // Fewest labels among origins, shorter names cannot be in any zone
+        private int minLabels = Integer.MAX_VALUE;
+
+        private Index(List<Zone> zones) throws IOException {
+            for (Zone zone : zones) {
+                if (this.zones.put(zone.getOrigin(), zone) != null) {
+                    throw new IOException("Zone " + zone.getOrigin() + " given twice");
+                }
+                this.minLabels = Math.min(this.minLabels, zone.getOrigin().labelCount());
+            }
+        }
+
+        private Zone find(DnsName name) {
+            int labels = name.labelCount();
+            for (DnsName current = name; labels >= this.minLabels; current = current.parent(), labels--) {
+                Zone zone = this.zones.get(current);
+                if (zone != null) return zone;
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package eu.sedam.jdns;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Zone kept on heap, filled from master file by ZoneFileReader. Every name
+ * of the zone maps to its RRsets by type, so answering a question takes
+ * one hash lookup of the canonical name. */
+public class MemoryZone extends Zone {
+
+    private final Map<DnsName, Map<QueryType, List<DnsRecord>>> names = new HashMap<>();
+    private DnsRecord soa;
+    private int recordCnt;
+
+    public MemoryZone(DnsName origin) {
+        super(origin);
+        this.names.put(origin, new EnumMap<>(QueryType.class));
+    }
+
+    /*
+     * Adds record to zone, record must be owned by origin or name below it */
+    public void add(DnsRecord record) {
+        DnsName owner = record.getDomain();
+        if (!owner.isSubdomainOf(this.origin)) {
+            throw new IllegalArgumentException(owner + " is outside of zone " + this.origin);
+        }
+        if (record.getQueryType() == QueryType.SOA) {
+            if (!owner.equals(this.origin)) throw new IllegalArgumentException("SOA of " + owner + " in zone " + this.origin);
+            this.soa = record;
+        }
+
+        this.names.computeIfAbsent(owner, x -> new EnumMap<>(QueryType.class))
+                .computeIfAbsent(record.getQueryType(), x -> new ArrayList<>())
+                .add(record);
+        // Ancestors up to origin exist even without records of their own
+        for (DnsName name = owner; !name.equals(this.origin); ) {
+            name = name.parent();
+            this.names.computeIfAbsent(name, x -> new EnumMap<>(QueryType.class));
+        }
+        this.recordCnt++;
+    }
+
+    /*
+     * Marks name as existing without adding records, used for names whose
+     * records are of types that are not served */
+    public void addName(DnsName name) {
+        if (!name.isSubdomainOf(this.origin)) {
+            throw new IllegalArgumentException(name + " is outside of zone " + this.origin);
+        }
+        for (DnsName current = name; this.names.putIfAbsent(current, new EnumMap<>(QueryType.class)) == null; ) {
+            current = current.parent();
+        }
+    }
+
+    /*
+     * All names of zone with their RRsets, used by ZoneCompiler */
+    Map<DnsName, Map<QueryType, List<DnsRecord>>> getNames() {
+        return names;
+    }
+
+    @Override
+    protected boolean exists(DnsName name) {
+        return this.names.containsKey(name);
+    }
+
+    @Override
+    protected boolean hasRRset(DnsName name, QueryType queryType) {
+        return rrset(name, queryType) != null;
+    }
+
+    @Override
+    protected List<DnsRecord> rrset(DnsName name, QueryType queryType) {
+        Map<QueryType, List<DnsRecord>> rrsets = this.names.get(name);
+        return rrsets != null ? rrsets.get(queryType) : null;
+    }
+
+    @Override
+    public DnsRecord getSoa() {
+        return soa;
+    }
+
+    @Override
+    public int getRecordCnt() {
+        return recordCnt;
+    }
+
+}
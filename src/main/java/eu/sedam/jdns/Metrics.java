@@ -0,0 +1,487 @@
+package eu.sedam.jdns;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/*
+ * Counters and latency histograms of the query path. All updates are
+ * lock-free so they can be called from every worker on every query.
+ *
+ * Latency is tracked for following stages:
+ *
+ *  - RECEIVE   - time query waited between listener and worker
+ *  - PARSE     - reading of request packet
+ *  - UPSTREAM  - round trip to upstream server
+ *  - SERIALIZE - writing of response packet
+ *  - SEND      - handing response to socket
+ *
+ * Statistics kept by components such as cache or blocklist are not known
+ * here. Components register them by name when they are created and they
+ * are read on every scrape, so metrics of disabled components read zero. */
+public class Metrics implements MetricsMXBean {
+
+    public static final Metrics INSTANCE = new Metrics();
+
+    // Names of values registered by components
+    public static final String LOCAL_ANSWERS = "jdns_local_answers_total";
+    public static final String ZONE_RELOADS = "jdns_zone_reloads_total";
+    public static final String BLOCKED = "jdns_blocked_total";
+    public static final String BLOCKLIST_RELOADS = "jdns_blocklist_reloads_total";
+    public static final String CACHE_HITS = "jdns_cache_hits_total";
+    public static final String CACHE_MISSES = "jdns_cache_misses_total";
+    public static final String CACHE_NEGATIVE_HITS = "jdns_cache_negative_hits_total";
+    public static final String CACHE_STALE = "jdns_cache_stale_total";
+    public static final String COALESCED = "jdns_coalesced_total";
+    public static final String PREFETCHED = "jdns_prefetched_total";
+    public static final String PREFETCH_DROPPED = "jdns_prefetch_dropped_total";
+    public static final String RATE_LIMIT_DROPPED = "jdns_rate_limit_dropped_total";
+    public static final String RATE_LIMIT_SLIPPED = "jdns_rate_limit_slipped_total";
+    public static final String QUERY_LOG_WRITTEN = "jdns_query_log_written_total";
+    public static final String QUERY_LOG_DROPPED = "jdns_query_log_dropped_total";
+
+    public enum Stage {
+        RECEIVE,
+        PARSE,
+        UPSTREAM,
+        SERIALIZE,
+        SEND
+    }
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder upstreamErrors = new LongAdder();
+    private final LongAdder upstreamTimeouts = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder upstreamTruncated = new LongAdder();
+    private final LongAdder upstreamHedged = new LongAdder();
+    private final LongAdder upstreamHedgeWon = new LongAdder();
+    private final LongAdder tcpConnections = new LongAdder();
+
+    // Indexed by ordinal of QueryType and ResultCode
+    private final LongAdder[] queryTypes = adders(QueryType.values().length);
+    private final LongAdder[] resultCodes = adders(ResultCode.values().length);
+
+    // Indexed by ordinal of Stage
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+
+    // Values read from components that registered them
+    private final Map<String, LongSupplier> registered = new ConcurrentHashMap<>();
+    private volatile Supplier<Map<String, Double>> upstreamRtt = Collections::emptyMap;
+    private volatile Supplier<Map<String, Boolean>> upstreamHealthy = Collections::emptyMap;
+
+    private Metrics() {
+        for (int i = 0; i < this.latencies.length; i++) {
+            this.latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /*
+     * Registers metrics in platform MBean server so they can be read with
+     * JConsole or any other JMX client */
+    public void registerMBean() throws Exception {
+        ObjectName name = new ObjectName("eu.sedam.jdns:type=Metrics");
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        }
+    }
+
+    /*
+     * Registers value of component read under given name, replacing value
+     * registered under the same name before */
+    public void register(String name, LongSupplier value) {
+        this.registered.put(name, value);
+    }
+
+    /*
+     * Registers round trip times and health of upstream servers by name */
+    public void registerUpstream(Supplier<Map<String, Double>> rttMicros, Supplier<Map<String, Boolean>> healthy) {
+        this.upstreamRtt = rttMicros;
+        this.upstreamHealthy = healthy;
+    }
+
+    /*
+     * Marks start and end of handling single query */
+    public void queryStarted() {
+        this.queries.increment();
+        this.inFlight.increment();
+    }
+
+    public void queryFinished() {
+        this.inFlight.decrement();
+    }
+
+    /*
+     * Takes back query counted by queryStarted that is handed over to be
+     * handled again, see DnsServer.handleRequest */
+    public void queryDeferred() {
+        this.queries.decrement();
+    }
+
+    /*
+     * Counts response sent for question of given type */
+    public void countResponse(QueryType queryType, ResultCode rescode) {
+        this.queryTypes[queryType.ordinal()].increment();
+        this.resultCodes[rescode.ordinal()].increment();
+    }
+
+    /*
+     * Counts unexpected error while handling query */
+    public void countError() {
+        this.errors.increment();
+    }
+
+    /*
+     * Counts response sent truncated because it did not fit the transport */
+    public void countTruncated() {
+        this.truncated.increment();
+    }
+
+    /*
+     * Counts query dropped because no worker was free to look it up */
+    public void countDropped() {
+        this.dropped.increment();
+    }
+
+    /*
+     * Counts truncated upstream reply that was repeated over TCP */
+    public void countUpstreamTruncated() {
+        this.upstreamTruncated.increment();
+    }
+
+    /*
+     * Counts query duplicated to another upstream server because the first
+     * was slow, and such duplicate that answered first */
+    public void countUpstreamHedged() {
+        this.upstreamHedged.increment();
+    }
+
+    public void countUpstreamHedgeWon() {
+        this.upstreamHedgeWon.increment();
+    }
+
+    /*
+     * Tracks number of open client TCP connections */
+    public void tcpConnectionOpened() {
+        this.tcpConnections.increment();
+    }
+
+    public void tcpConnectionClosed() {
+        this.tcpConnections.decrement();
+    }
+
+    /*
+     * Counts failed upstream query, timeouts are counted separately */
+    public void countUpstreamFailure(Throwable cause) {
+        if (cause instanceof TimeoutException) {
+            this.upstreamTimeouts.increment();
+        } else {
+            this.upstreamErrors.increment();
+        }
+    }
+
+    /*
+     * Records latency of given stage in nanoseconds */
+    public void record(Stage stage, long nanos) {
+        this.latencies[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getLatency(Stage stage) {
+        return this.latencies[stage.ordinal()];
+    }
+
+    /*
+     * Returns all metrics in Prometheus text exposition format */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        counter(out, "jdns_queries_total", "Queries received", getQueries());
+        gauge(out, "jdns_queries_in_flight", "Queries being handled", getInFlight());
+        counter(out, "jdns_errors_total", "Unexpected errors while handling queries", getErrors());
+        counter(out, "jdns_upstream_errors_total", "Failed upstream queries", getUpstreamErrors());
+        counter(out, "jdns_upstream_timeouts_total", "Timed out upstream queries", getUpstreamTimeouts());
+        counter(out, "jdns_upstream_truncated_total", "Truncated upstream replies repeated over TCP",
+                getUpstreamTruncated());
+        counter(out, "jdns_upstream_hedged_total", "Queries duplicated to another upstream server",
+                getUpstreamHedged());
+        counter(out, "jdns_upstream_hedge_won_total", "Duplicated queries answered first by the other server",
+                getUpstreamHedgeWon());
+        counter(out, "jdns_truncated_total", "Responses truncated to fit transport", getTruncated());
+        counter(out, "jdns_queries_dropped_total", "Queries dropped because all workers were busy", getDropped());
+        counter(out, RATE_LIMIT_DROPPED, "Responses dropped by rate limit", getRateLimitDropped());
+        counter(out, RATE_LIMIT_SLIPPED, "Responses over rate limit sent truncated", getRateLimitSlipped());
+        gauge(out, "jdns_tcp_connections", "Open client TCP connections", getTcpConnections());
+        counter(out, LOCAL_ANSWERS, "Questions answered from local zones", getLocalAnswers());
+        counter(out, ZONE_RELOADS, "Reloads of changed local zones", getZoneReloads());
+        counter(out, BLOCKED, "Questions about blocked names", getBlocked());
+        counter(out, BLOCKLIST_RELOADS, "Reloads of changed blocklist", getBlocklistReloads());
+        counter(out, CACHE_HITS, "Answer cache hits", getCacheHits());
+        counter(out, CACHE_MISSES, "Answer cache misses", getCacheMisses());
+        counter(out, CACHE_NEGATIVE_HITS, "Answer cache hits of NXDOMAIN and NODATA answers", getCacheNegativeHits());
+        counter(out, CACHE_STALE, "Expired answers served because lookup failed or was slow",
+                getCacheStaleHits());
+        counter(out, COALESCED, "Lookups that joined identical lookup in flight", getCoalesced());
+        counter(out, PREFETCHED, "Cache entries refreshed before expiry", getPrefetched());
+        counter(out, PREFETCH_DROPPED, "Refreshes dropped by full prefetch queue", getPrefetchDropped());
+        counter(out, QUERY_LOG_WRITTEN, "Events written to query log", getQueryLogWritten());
+        counter(out, QUERY_LOG_DROPPED, "Events dropped by full query log", getQueryLogDropped());
+
+        out.append("# HELP jdns_responses_by_type_total Responses by query type\n");
+        out.append("# TYPE jdns_responses_by_type_total counter\n");
+        getQueryTypeCounts().forEach((type, count) ->
+                out.append("jdns_responses_by_type_total{type=\"").append(type).append("\"} ").append(count).append('\n'));
+
+        out.append("# HELP jdns_responses_by_rcode_total Responses by result code\n");
+        out.append("# TYPE jdns_responses_by_rcode_total counter\n");
+        getResultCodeCounts().forEach((rcode, count) ->
+                out.append("jdns_responses_by_rcode_total{rcode=\"").append(rcode).append("\"} ").append(count).append('\n'));
+
+        out.append("# HELP jdns_upstream_rtt_seconds Smoothed round trip time of upstream server\n");
+        out.append("# TYPE jdns_upstream_rtt_seconds gauge\n");
+        getUpstreamRttMicros().forEach((server, rtt) ->
+                out.append("jdns_upstream_rtt_seconds{server=\"").append(server).append("\"} ").append(rtt / 1e6).append('\n'));
+
+        out.append("# HELP jdns_upstream_healthy Whether upstream server is used or skipped after failures\n");
+        out.append("# TYPE jdns_upstream_healthy gauge\n");
+        getUpstreamHealthy().forEach((server, healthy) ->
+                out.append("jdns_upstream_healthy{server=\"").append(server).append("\"} ").append(healthy ? 1 : 0).append('\n'));
+
+        out.append("# HELP jdns_stage_latency_seconds Latency of query handling stages\n");
+        out.append("# TYPE jdns_stage_latency_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getLatency(stage);
+            String label = stage.name().toLowerCase();
+            for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                out.append("jdns_stage_latency_seconds{stage=\"").append(label)
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.getValueAtPercentile(quantile * 100) / 1e9).append('\n');
+            }
+            long count = histogram.getTotalCount();
+            out.append("jdns_stage_latency_seconds_sum{stage=\"").append(label).append("\"} ")
+                    .append(histogram.getMean() * count / 1e9).append('\n');
+            out.append("jdns_stage_latency_seconds_count{stage=\"").append(label).append("\"} ")
+                    .append(count).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /*
+     * Getters exposed over JMX */
+    @Override
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getUpstreamErrors() {
+        return upstreamErrors.sum();
+    }
+
+    @Override
+    public long getUpstreamTimeouts() {
+        return upstreamTimeouts.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getTruncated() {
+        return truncated.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getUpstreamTruncated() {
+        return upstreamTruncated.sum();
+    }
+
+    @Override
+    public long getUpstreamHedged() {
+        return upstreamHedged.sum();
+    }
+
+    @Override
+    public long getUpstreamHedgeWon() {
+        return upstreamHedgeWon.sum();
+    }
+
+    @Override
+    public Map<String, Double> getUpstreamRttMicros() {
+        return upstreamRtt.get();
+    }
+
+    @Override
+    public Map<String, Boolean> getUpstreamHealthy() {
+        return upstreamHealthy.get();
+    }
+
+    @Override
+    public long getTcpConnections() {
+        return tcpConnections.sum();
+    }
+
+    @Override
+    public long getLocalAnswers() {
+        return registered(LOCAL_ANSWERS);
+    }
+
+    @Override
+    public long getZoneReloads() {
+        return registered(ZONE_RELOADS);
+    }
+
+    @Override
+    public long getBlocked() {
+        return registered(BLOCKED);
+    }
+
+    @Override
+    public long getBlocklistReloads() {
+        return registered(BLOCKLIST_RELOADS);
+    }
+
+    @Override
+    public long getCacheHits() {
+        return registered(CACHE_HITS);
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return registered(CACHE_MISSES);
+    }
+
+    @Override
+    public long getCacheNegativeHits() {
+        return registered(CACHE_NEGATIVE_HITS);
+    }
+
+    @Override
+    public long getCacheStaleHits() {
+        return registered(CACHE_STALE);
+    }
+
+    @Override
+    public long getCoalesced() {
+        return registered(COALESCED);
+    }
+
+    @Override
+    public long getPrefetched() {
+        return registered(PREFETCHED);
+    }
+
+    @Override
+    public long getPrefetchDropped() {
+        return registered(PREFETCH_DROPPED);
+    }
+
+    @Override
+    public long getRateLimitDropped() {
+        return registered(RATE_LIMIT_DROPPED);
+    }
+
+    @Override
+    public long getRateLimitSlipped() {
+        return registered(RATE_LIMIT_SLIPPED);
+    }
+
+    @Override
+    public long getQueryLogWritten() {
+        return registered(QUERY_LOG_WRITTEN);
+    }
+
+    @Override
+    public long getQueryLogDropped() {
+        return registered(QUERY_LOG_DROPPED);
+    }
+
+    @Override
+    public Map<String, Long> getQueryTypeCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (QueryType queryType : QueryType.values()) {
+            result.put(queryType.name(), this.queryTypes[queryType.ordinal()].sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getResultCodeCounts() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (ResultCode rescode : ResultCode.values()) {
+            result.put(rescode.name(), this.resultCodes[rescode.ordinal()].sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP50Micros() {
+        return latencyMicros(x -> x.getValueAtPercentile(50));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyP99Micros() {
+        return latencyMicros(x -> x.getValueAtPercentile(99));
+    }
+
+    @Override
+    public Map<String, Double> getLatencyMaxMicros() {
+        return latencyMicros(LatencyHistogram::getMax);
+    }
+
+    private Map<String, Double> latencyMicros(ToDoubleFunction<LatencyHistogram> value) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            result.put(stage.name(), value.applyAsDouble(getLatency(stage)) / 1000.0);
+        }
+        return result;
+    }
+
+    private long registered(String name) {
+        LongSupplier value = this.registered.get(name);
+        return value == null ? 0 : value.getAsLong();
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] result = new LongAdder[count];
+        for (int i = 0; i < count; i++) result[i] = new LongAdder();
+        return result;
+    }
+
+}
@@ -0,0 +1,34 @@
+package eu.sedam.jdns;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * HTTP endpoint serving metrics in Prometheus text format on /metrics */
+public class MetricsEndpoint implements AutoCloseable {
+
+    private final HttpServer server;
+
+    public MetricsEndpoint(InetSocketAddress address, Metrics metrics) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/metrics", exchange -> {
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.server.start();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+
+}
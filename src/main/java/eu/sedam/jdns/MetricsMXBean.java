@@ -0,0 +1,77 @@
+package eu.sedam.jdns;
+
+import java.util.Map;
+
+/*
+ * Management interface of server metrics registered in platform MBean
+ * server under name eu.sedam.jdns:type=Metrics */
+public interface MetricsMXBean {
+
+    long getQueries();
+
+    long getInFlight();
+
+    long getUpstreamErrors();
+
+    long getUpstreamTimeouts();
+
+    long getErrors();
+
+    long getTruncated();
+
+    long getDropped();
+
+    long getUpstreamTruncated();
+
+    long getUpstreamHedged();
+
+    long getUpstreamHedgeWon();
+
+    Map<String, Double> getUpstreamRttMicros();
+
+    Map<String, Boolean> getUpstreamHealthy();
+
+    long getTcpConnections();
+
+    long getLocalAnswers();
+
+    long getZoneReloads();
+
+    long getBlocked();
+
+    long getBlocklistReloads();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheNegativeHits();
+
+    long getCacheStaleHits();
+
+    long getCoalesced();
+
+    long getPrefetched();
+
+    long getPrefetchDropped();
+
+    long getRateLimitDropped();
+
+    long getRateLimitSlipped();
+
+    long getQueryLogWritten();
+
+    long getQueryLogDropped();
+
+    Map<String, Long> getQueryTypeCounts();
+
+    Map<String, Long> getResultCodeCounts();
+
+    // Latency of every stage in microseconds
+    Map<String, Double> getLatencyP50Micros();
+
+    Map<String, Double> getLatencyP99Micros();
+
+    Map<String, Double> getLatencyMaxMicros();
+
+}
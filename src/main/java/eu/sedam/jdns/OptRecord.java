@@ -0,0 +1,121 @@
+package eu.sedam.jdns;
+
+public class OptRecord {
+
+    /*
+     * EDNS(0) OPT pseudo-record (RFC 6891) reuses fields of resource record:
+     *
+     *     0  1  2  3  4  5  6  7  8  9  0  1  2  3  4  5
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |              NAME - root (single 0)           |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                   TYPE - 41                   |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |            CLASS - UDP payload size           |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |     EXTENDED-RCODE    |        VERSION        |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |DO|                    Z                       |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *   |                   RDLENGTH                    |
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--|
+     *   /            RDATA - options, kept raw          /
+     *   +--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+--+
+     *
+     * */
+
+    // Payload size every client can receive, smaller advertised sizes are
+    // treated as this one
+    public static final int MIN_PAYLOAD_SIZE = 512;
+
+    // Length of record without options
+    public static final int SIZE = 11;
+
+    // Extended result code sent when client uses version we do not know,
+    // upper 8 bits of 12-bit BADVERS (16)
+    public static final int BADVERS = 1;
+
+    private static final byte[] NO_OPTIONS = new byte[0];
+
+    private int payloadSize;
+    private int extendedRcode;
+    private int version;
+    private boolean dnssecOk;
+    private byte[] options = NO_OPTIONS;
+
+    public OptRecord() {
+        this(MIN_PAYLOAD_SIZE);
+    }
+
+    public OptRecord(int payloadSize) {
+        this.payloadSize = payloadSize;
+    }
+
+    /*
+     * Reads OPT record, buffer must be positioned at its name */
+    public OptRecord read(BytePacketBuffer buffer) throws Exception {
+        if (!buffer.readName().isRoot()) throw new Exception("OPT record with non-root name");
+        if (QueryType.fromNumber(buffer.readTwo()) != QueryType.OPT) throw new Exception("Not an OPT record");
+        this.payloadSize = buffer.readTwo() & 0xFFFF;
+        this.extendedRcode = buffer.readOne() & 0xFF;
+        this.version = buffer.readOne() & 0xFF;
+        this.dnssecOk = (buffer.readTwo() & 0x8000) != 0;
+        int length = buffer.readTwo() & 0xFFFF;
+        this.options = length == 0 ? NO_OPTIONS : new byte[length];
+        buffer.readBytes(this.options);
+        return this;
+    }
+
+    /*
+     * Writes OPT record with its options */
+    public void write(BytePacketBuffer buffer) {
+        buffer.writeOne((byte) 0);
+        buffer.writeTwo(QueryType.OPT.toNumber());
+        buffer.writeTwo((short) this.payloadSize);
+        buffer.writeOne((byte) this.extendedRcode);
+        buffer.writeOne((byte) this.version);
+        buffer.writeTwo((short) (this.dnssecOk ? 0x8000 : 0));
+        buffer.writeTwo((short) this.options.length);
+        buffer.writeBytes(this.options);
+    }
+
+    /*
+     * Getters and setters */
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    public void setPayloadSize(int payloadSize) {
+        this.payloadSize = payloadSize;
+    }
+
+    public int getExtendedRcode() {
+        return extendedRcode;
+    }
+
+    public void setExtendedRcode(int extendedRcode) {
+        this.extendedRcode = extendedRcode;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isDnssecOk() {
+        return dnssecOk;
+    }
+
+    public void setDnssecOk(boolean dnssecOk) {
+        this.dnssecOk = dnssecOk;
+    }
+
+    @Override
+    public String toString() {
+        return "OPT {" + "\n" +
+                "\t" + "payloadSize = " + payloadSize + "\n" +
+                "\t" + "extendedRcode = " + extendedRcode + "\n" +
+                "\t" + "version = " + version + "\n" +
+                "\t" + "dnssecOk = " + dnssecOk + "\n" +
+                '}';
+    }
+}
@@ -0,0 +1,100 @@
+package eu.sedam.jdns;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*
+ * Refreshes popular cache entries in background shortly before they
+ * expire, so clients asking for them keep hitting the cache. AnswerCache
+ * decides which entries are due and hands their questions over here.
+ *
+ * Refreshes run on small pool of low priority threads with bounded queue.
+ * Every thread waits for its refresh to finish, so number of prefetch
+ * queries in flight never exceeds number of threads. Questions that do not
+ * fit into full queue are dropped - entry then simply expires. */
+public class Prefetcher implements AutoCloseable {
+
+    private final ThreadPoolExecutor executor;
+    private final Function<DnsQuestion, CompletableFuture<?>> lookup;
+
+    private final LongAdder prefetched = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /*
+     * Creates prefetcher that refreshes entries with given lookup, which is
+     * expected to store its result in cache */
+    public Prefetcher(int threads, int queueSize, Function<DnsQuestion, CompletableFuture<?>> lookup) {
+        this.lookup = lookup;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), task -> {
+            Thread thread = new Thread(task, "jdns-prefetch-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            // Client queries go first when CPU is short
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /*
+     * Queues refresh of given question. Returns false if queue is full and
+     * question was dropped. */
+    public boolean submit(DnsQuestion question) {
+        try {
+            this.executor.execute(() -> refresh(question));
+            return true;
+        } catch (RejectedExecutionException ex) {
+            this.dropped.increment();
+            return false;
+        }
+    }
+
+    private void refresh(DnsQuestion question) {
+        try {
+            this.lookup.apply(question).get();
+            this.prefetched.increment();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            // Entry expires as if there was no prefetch
+            this.failed.increment();
+        }
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.register(Metrics.PREFETCHED, this::getPrefetched);
+        metrics.register(Metrics.PREFETCH_DROPPED, this::getDropped);
+    }
+
+    /*
+     * Getters for statistics */
+    public long getPrefetched() {
+        return prefetched.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /*
+     * Stops refreshing, queued questions are discarded */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,72 @@
+package eu.sedam.jdns;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*
+ * Joins identical lookups that are in flight at the same time. First
+ * caller for given question starts the lookup, callers that arrive before
+ * it completes get the same future instead of sending their own query.
+ * Every caller still builds its own response with its own transaction ID
+ * from the shared result.
+ *
+ * Entry is removed before the shared future is completed, so lookup that
+ * stores its result in cache (see DnsServer.resolve) leaves no window in
+ * which question is neither cached nor in flight. */
+public class QueryCoalescer<T> {
+
+    private final Map<QuestionKey, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /*
+     * Returns future result of lookup for given question, starting the
+     * lookup only if the same question is not already in flight */
+    public CompletableFuture<T> lookup(DnsQuestion question, Function<DnsQuestion, CompletableFuture<T>> lookup) {
+        QuestionKey key = new QuestionKey(question);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> existing = this.inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            this.coalesced.increment();
+            return existing;
+        }
+
+        CompletableFuture<T> result;
+        try {
+            result = lookup.apply(question);
+        } catch (RuntimeException ex) {
+            result = CompletableFuture.failedFuture(ex);
+        }
+
+        result.whenComplete((value, ex) -> {
+            this.inFlight.remove(key, future);
+            if (ex == null) {
+                future.complete(value);
+            } else {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.register(Metrics.COALESCED, this::getCoalesced);
+    }
+
+    /*
+     * Number of lookups that joined lookup already in flight */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /*
+     * Number of distinct lookups in flight */
+    public int size() {
+        return inFlight.size();
+    }
+
+}
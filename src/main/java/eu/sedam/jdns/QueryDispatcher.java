@@ -0,0 +1,135 @@
+package eu.sedam.jdns;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Concurrent serving mode. Single receiver thread reads datagrams from the
+ * socket and hands each one to a bounded pool of worker threads, so one slow
+ * upstream answer no longer blocks every other client.
+ *
+ * Number of queries in flight is limited by a semaphore. Receiver takes a
+ * permit before reading next datagram, so when all workers are busy new
+ * queries wait in the kernel's socket queue instead of piling up in memory. */
+public class QueryDispatcher implements AutoCloseable {
+
+    private final DatagramSocket socket;
+    private final ExecutorService workers;
+    private final Semaphore permits;
+    private final BufferPool buffers;
+    private final Thread receiver;
+    private volatile boolean running;
+
+    public QueryDispatcher(DatagramSocket socket, int maxInFlight) {
+        this.socket = socket;
+        this.permits = new Semaphore(maxInFlight);
+        this.buffers = new BufferPool(maxInFlight, ServerConfig.bufferSize(), false);
+
+        AtomicInteger workerCnt = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(maxInFlight, task -> {
+            Thread thread = new Thread(task, "jdns-worker-" + workerCnt.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.receiver = new Thread(this::receiveLoop, "jdns-receiver");
+    }
+
+    /*
+     * Starts receiver thread */
+    public void start() {
+        this.running = true;
+        this.receiver.start();
+    }
+
+    /*
+     * Blocks until receiver thread stops */
+    public void awaitTermination() throws InterruptedException {
+        this.receiver.join();
+    }
+
+    /*
+     * Reads datagrams and submits them to worker pool until stopped */
+    private void receiveLoop() {
+        while (this.running) {
+            try {
+                // Waiting with timeout so stopped flag is noticed while all
+                // workers are busy
+                if (!this.permits.tryAcquire(100, TimeUnit.MILLISECONDS)) continue;
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            // Socket needs heap buffer, workers return it to pool when done
+            BytePacketBuffer requestBuffer = this.buffers.acquire();
+            DatagramPacket udpPacket;
+            try {
+                udpPacket = requestBuffer.receive(this.socket);
+            } catch (Exception ex) {
+                this.buffers.release(requestBuffer);
+                this.permits.release();
+                // Closed socket is the normal way of stopping receiver
+                if (!this.running || ex instanceof SocketException && this.socket.isClosed()) break;
+                System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+                continue;
+            }
+
+            InetAddress address = udpPacket.getAddress();
+            int port = udpPacket.getPort();
+            int length = udpPacket.getLength();
+            long receivedAt = System.nanoTime();
+            try {
+                this.workers.execute(() -> {
+                    Metrics.INSTANCE.record(Metrics.Stage.RECEIVE, System.nanoTime() - receivedAt);
+                    try {
+                        DnsServer.handleRequest(this.socket, requestBuffer, length, address, port);
+                    } catch (Exception ex) {
+                        System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+                    } finally {
+                        this.buffers.release(requestBuffer);
+                        this.permits.release();
+                    }
+                });
+            } catch (Exception ex) {
+                // Pool was shut down between receive and submit
+                this.buffers.release(requestBuffer);
+                this.permits.release();
+                break;
+            }
+        }
+    }
+
+    /*
+     * Stops receiving new queries and gives in-flight ones time to finish
+     * before closing the socket. When interrupted, queries in flight are
+     * abandoned and interrupt status is kept for the caller. */
+    @Override
+    public void close() {
+        this.running = false;
+        this.workers.shutdown();
+        try {
+            if (!this.workers.awaitTermination(ServerConfig.shutdownTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                this.workers.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            this.workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        // Closing socket unblocks pending receive. It is closed only after
+        // workers are done because they use it for sending responses.
+        this.socket.close();
+        try {
+            this.receiver.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
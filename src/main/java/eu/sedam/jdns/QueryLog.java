@@ -0,0 +1,260 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Asynchronous binary log of every answered query. Worker threads publish
+ * fixed-size events into a lock-free ring buffer and single background
+ * thread copies them in batches to log files through FileChannel. When the
+ * ring is full (disk is slower than traffic) events are dropped and counted
+ * so workers never wait for the disk.
+ *
+ * Ring buffer is bounded multi-producer queue where every slot carries its
+ * own sequence number. Producer claims slot by moving tail with CAS when
+ * slot's sequence says it is free, writes the event and publishes it by
+ * advancing the sequence. Writer thread consumes published slots in order.
+ *
+ * Files are rotated when they reach given size and only given number of
+ * newest files is kept. File starts with magic followed by records:
+ *
+ *     +--------+----------+--------+----------------+------+-------+-------+-------+---------+---------+--------+------+
+ *     | length | time ms  | family | address        | port | qtype | class | rcode | answers | latency | name   | name |
+ *     | 2      | 8        | 1      | 4 or 16        | 2    | 2     | 2     | 1     | 2       | 4 (us)  | len 1  | wire |
+ *     +--------+----------+--------+----------------+------+-------+-------+-------+---------+---------+--------+------+
+ *
+ * See QueryLogReader for decoding. */
+public class QueryLog implements AutoCloseable {
+
+    public static final byte[] MAGIC = {'J', 'D', 'N', 'S', 'Q', 'L', 'O', 'G'};
+    public static final String FILE_PREFIX = "queries-";
+    public static final String FILE_SUFFIX = ".jqlog";
+
+    // Large enough for the biggest record: 2 + 8 + 1 + 16 + 2 + 2 + 2 + 1 + 2 + 4 + 1 + 255
+    static final int SLOT_SIZE = 320;
+
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+            .withZone(ZoneOffset.UTC);
+
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    private final int capacity;
+    private final int mask;
+    private final ByteBuffer slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private FileChannel file;
+    private long fileBytes;
+
+    /*
+     * Creates log writing to given directory. Capacity of the ring is rounded
+     * up to power of two. */
+    public QueryLog(Path directory, int capacity, long maxFileBytes, int maxFiles) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.slots = ByteBuffer.allocateDirect(this.capacity * SLOT_SIZE);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) this.sequences.set(i, i);
+
+        openFile();
+        this.writer = new Thread(this::writeLoop, "jdns-query-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /*
+     * Publishes event for answered query. Never blocks, returns false if
+     * event was dropped because ring is full. */
+    public boolean publish(long timeMillis, InetAddress client, int port, DnsQuestion question,
+                           ResultCode rescode, int answers, long latencyNanos) {
+        if (!this.running) return false;
+
+        // Claim next slot if writer already freed it
+        long sequence;
+        int slot;
+        while (true) {
+            sequence = this.tail.get();
+            slot = (int) (sequence & this.mask);
+            long slotSequence = this.sequences.get(slot);
+            if (slotSequence == sequence) {
+                if (this.tail.compareAndSet(sequence, sequence + 1)) break;
+            } else if (slotSequence < sequence) {
+                // Writer has not consumed this slot yet - ring is full
+                this.dropped.increment();
+                return false;
+            }
+            // Another producer claimed the slot, retry with new tail
+        }
+
+        int position = slot * SLOT_SIZE + 2;
+        this.slots.putLong(position, timeMillis);
+        position += 8;
+
+        byte[] address = client.getAddress();
+        this.slots.put(position++, (byte) (address.length == 4 ? 4 : 6));
+        for (byte b : address) this.slots.put(position++, b);
+        this.slots.putShort(position, (short) port);
+        this.slots.putShort(position + 2, question.getQueryType().toNumber());
+        this.slots.putShort(position + 4, question.getQueryClass());
+        this.slots.put(position + 6, (byte) rescode.ordinal());
+        this.slots.putShort(position + 7, (short) answers);
+        this.slots.putInt(position + 9, (int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        position += 13;
+
+        DnsName name = question.getDnsName();
+        this.slots.put(position++, (byte) name.length());
+        for (int i = 0; i < name.length(); i++) this.slots.put(position++, name.byteAt(i));
+
+        // Length of record excluding length field itself
+        this.slots.putShort(slot * SLOT_SIZE, (short) (position - slot * SLOT_SIZE - 2));
+
+        // Publish slot to writer
+        this.sequences.set(slot, sequence + 1);
+        return true;
+    }
+
+    /*
+     * Moves published events to batch buffer and writes batches to file */
+    private void writeLoop() {
+        ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+        long lastFlush = System.nanoTime();
+
+        while (true) {
+            boolean consumed = false;
+            while (batch.remaining() >= SLOT_SIZE) {
+                int slot = (int) (this.head & this.mask);
+                if (this.sequences.get(slot) != this.head + 1) break;
+
+                int start = slot * SLOT_SIZE;
+                int length = (this.slots.getShort(start) & 0xFFFF) + 2;
+                batch.put(this.slots.slice(start, length));
+
+                // Free slot for producers one lap later
+                this.sequences.set(slot, this.head + this.capacity);
+                this.head++;
+                consumed = true;
+            }
+
+            long now = System.nanoTime();
+            boolean stopping = !this.running;
+            if (batch.position() > 0 && (batch.remaining() < SLOT_SIZE || now - lastFlush > FLUSH_INTERVAL_NANOS || stopping)) {
+                flush(batch);
+                lastFlush = now;
+            }
+
+            if (stopping && !consumed) break;
+            if (!consumed) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void flush(ByteBuffer batch) {
+        batch.flip();
+        int records = 0;
+        for (int position = 0; position < batch.limit(); position += (batch.getShort(position) & 0xFFFF) + 2) {
+            records++;
+        }
+        try {
+            if (this.fileBytes + batch.remaining() > this.maxFileBytes) rotate();
+            while (batch.hasRemaining()) this.fileBytes += this.file.write(batch);
+            this.written.add(records);
+        } catch (IOException ex) {
+            this.dropped.add(records);
+            System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+        }
+        batch.clear();
+    }
+
+    private void openFile() throws IOException {
+        Path path = this.directory.resolve(FILE_PREFIX + FILE_TIME.format(Instant.now()) + FILE_SUFFIX);
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.fileBytes = this.file.size();
+        if (this.fileBytes == 0) this.fileBytes += this.file.write(ByteBuffer.wrap(MAGIC));
+    }
+
+    /*
+     * Closes current file, opens new one and deletes oldest files above limit */
+    private void rotate() throws IOException {
+        this.file.close();
+        openFile();
+
+        List<Path> files = listFiles(this.directory);
+        for (int i = 0; i < files.size() - this.maxFiles; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /*
+     * Returns log files in given directory from oldest to newest */
+    public static List<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(x -> x.getFileName().toString().startsWith(FILE_PREFIX)
+                            && x.getFileName().toString().endsWith(FILE_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.register(Metrics.QUERY_LOG_WRITTEN, this::getWritten);
+        metrics.register(Metrics.QUERY_LOG_DROPPED, this::getDropped);
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /*
+     * Stops accepting events, writes everything already published and
+     * closes the file. When interrupted, file is closed right away, events
+     * not yet written are dropped and interrupt status is kept. */
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.file.close();
+    }
+
+}
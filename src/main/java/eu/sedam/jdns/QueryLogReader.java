@@ -0,0 +1,115 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Prints events of binary query log written by QueryLog, one per line:
+ *
+ *     java -cp target/classes eu.sedam.jdns.QueryLogReader --path /var/log/jdns
+ *
+ * Path can be single file or directory with rotated files, which are read
+ * from oldest to newest. Output can be limited with --name (suffix of
+ * queried name) and --rcode, and --summary prints only counts by query
+ * type and result code. */
+public class QueryLogReader {
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+        Path path = Path.of(arguments.getString("path", "."));
+        String nameFilter = arguments.getString("name", null);
+        String rcodeFilter = arguments.getString("rcode", null);
+        boolean summary = arguments.getBoolean("summary");
+
+        List<Path> files = Files.isDirectory(path) ? QueryLog.listFiles(path) : List.of(path);
+        Map<String, Long> counts = new TreeMap<>();
+
+        for (Path file : files) {
+            ByteBuffer buffer = readFile(file);
+            while (buffer.remaining() >= 2) {
+                int length = buffer.getShort() & 0xFFFF;
+                // Last record can be cut short if server was killed
+                if (buffer.remaining() < length) break;
+                Event event = Event.read(buffer.slice(buffer.position(), length));
+                buffer.position(buffer.position() + length);
+
+                if (nameFilter != null && !event.name.isSubdomainOf(DnsName.of(nameFilter))) continue;
+                if (rcodeFilter != null && !event.rescode.name().equalsIgnoreCase(rcodeFilter)) continue;
+
+                if (summary) {
+                    counts.merge(event.queryType + " " + event.rescode, 1L, Long::sum);
+                } else {
+                    System.out.println(event);
+                }
+            }
+        }
+
+        if (summary) counts.forEach((key, count) -> System.out.printf("%-24s %d%n", key, count));
+    }
+
+    /*
+     * Reads whole file and checks that it starts with log magic */
+    private static ByteBuffer readFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) ;
+            buffer.flip();
+
+            byte[] magic = new byte[QueryLog.MAGIC.length];
+            if (buffer.remaining() < magic.length) throw new IOException("Not a query log: " + file);
+            buffer.get(magic);
+            if (!Arrays.equals(magic, QueryLog.MAGIC)) throw new IOException("Not a query log: " + file);
+            return buffer;
+        }
+    }
+
+    /*
+     * Single decoded event */
+    private static class Event {
+
+        long timeMillis;
+        InetAddress address;
+        int port;
+        QueryType queryType;
+        int queryClass;
+        ResultCode rescode;
+        int answers;
+        long latencyMicros;
+        DnsName name;
+
+        static Event read(ByteBuffer buffer) throws Exception {
+            Event event = new Event();
+            event.timeMillis = buffer.getLong();
+            byte[] address = new byte[buffer.get() == 4 ? 4 : 16];
+            buffer.get(address);
+            event.address = InetAddress.getByAddress(address);
+            event.port = buffer.getShort() & 0xFFFF;
+            event.queryType = QueryType.fromNumber(buffer.getShort());
+            event.queryClass = buffer.getShort() & 0xFFFF;
+            event.rescode = ResultCode.fromNumber(buffer.get());
+            event.answers = buffer.getShort() & 0xFFFF;
+            event.latencyMicros = buffer.getInt() & 0xFFFFFFFFL;
+            int nameLength = buffer.get() & 0xFF;
+            event.name = DnsName.read(new BytePacketBuffer(buffer.slice(buffer.position(), nameLength)));
+            return event;
+        }
+
+        @Override
+        public String toString() {
+            return Instant.ofEpochMilli(timeMillis) + " " + address.getHostAddress() + "#" + port + " "
+                    + (name.isRoot() ? "." : name + ".") + " " + queryType + " " + (queryClass == 1 ? "IN" : "CLASS" + queryClass) + " " + rescode
+                    + " answers=" + answers + " latency=" + latencyMicros + "us";
+        }
+
+    }
+
+}
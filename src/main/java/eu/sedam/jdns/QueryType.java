@@ -1,3 +1,5 @@
+package eu.sedam.jdns;
+
 /*
  * Enum for types of queries */
 public enum QueryType {
@@ -5,8 +7,10 @@ public enum QueryType {
     A,      // 1
     NS,     // 2
     CNAME,  // 5
+    SOA,    // 6
     MX,     // 15
-    AAAA;   // 28
+    AAAA,   // 28
+    OPT;    // 41
 
 
     public short toNumber() {
@@ -14,8 +18,10 @@ public enum QueryType {
             case A -> (short) 1;
             case NS -> (short) 2;
             case CNAME -> (short) 5;
+            case SOA -> (short) 6;
             case MX -> (short) 15;
             case AAAA -> (short) 28;
+            case OPT -> (short) 41;
             default -> (short) 0;
         };
     }
@@ -25,8 +31,10 @@ public enum QueryType {
             case (short) 1 -> A;
             case (short) 2 -> NS;
             case (short) 5 -> CNAME;
+            case (short) 6 -> SOA;
             case (short) 15 -> MX;
             case (short) 28 -> AAAA;
+            case (short) 41 -> OPT;
             default -> UNKNOWN;
         };
     }
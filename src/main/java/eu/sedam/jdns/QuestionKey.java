@@ -0,0 +1,44 @@
+package eu.sedam.jdns;
+
+/*
+ * Key made of (name, query type, class) of a question. Canonical name
+ * makes comparison case insensitive. Key without query type stands for
+ * the name as whole, for example name that does not exist. */
+public final class QuestionKey {
+
+    private final DnsName name;
+    private final QueryType queryType;
+    private final short queryClass;
+
+    public QuestionKey(DnsQuestion question) {
+        this.name = question.getDnsName();
+        this.queryType = question.getQueryType();
+        this.queryClass = question.getQueryClass();
+    }
+
+    private QuestionKey(DnsName name, short queryClass) {
+        this.name = name;
+        this.queryType = null;
+        this.queryClass = queryClass;
+    }
+
+    /*
+     * Returns key of name and class of given question matching any type */
+    public static QuestionKey ofName(DnsQuestion question) {
+        return new QuestionKey(question.getDnsName(), question.getQueryClass());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QuestionKey)) return false;
+        QuestionKey key = (QuestionKey) o;
+        return queryClass == key.queryClass && queryType == key.queryType && name.equals(key.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return (name.hashCode() * 31 + (queryType == null ? 0 : queryType.hashCode())) * 31 + queryClass;
+    }
+
+}
@@ -0,0 +1,180 @@
+package eu.sedam.jdns;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Response rate limiting of UDP responses. Source address of UDP query can
+ * be spoofed, so flood of queries can turn server into amplifier aimed at
+ * victim, or single client can take all of its capacity. Responses are
+ * counted per client network (/24 for IPv4, /56 for IPv6 by default) and
+ * kind of response, each pair has token bucket refilled at given rate with
+ * burst of one second.
+ *
+ * Response over the limit is dropped, except every slip-th one which is
+ * sent truncated with TC flag and no records. Real client then repeats
+ * query over TCP, which is not limited because its source cannot be
+ * spoofed, while victim of reflection gets only small fraction of traffic.
+ *
+ * Buckets are kept in fixed table of packed longs updated with CAS, so
+ * memory does not grow with number of clients and threads never block.
+ * Slot holds tag of the key, slip counter, tokens and time of last refill:
+ *
+ *     | tag 12 | slip 4 | tokens 16 | time 32 |
+ *
+ * Tag is part of hash not used for index. Key with different tag takes slot
+ * over with full bucket only if bucket of the slot has refilled, otherwise
+ * it continues with tokens and slip counter left there. Keys colliding with
+ * limited network are then limited too until it goes idle, but spoofed
+ * flood from many networks can not reset the bucket of any of them. */
+public class RateLimiter {
+
+    /*
+     * What is done with response */
+    public enum Decision {
+        SEND,
+        DROP,
+        SLIP
+    }
+
+    /*
+     * Kinds of responses limited separately, so flood of NXDOMAIN answers
+     * for random names does not limit answers of the same client */
+    public enum Kind {
+        ANSWER,
+        NODATA,
+        NXDOMAIN,
+        ERROR
+    }
+
+    private static final int MAX_SLIP = 15;
+    private static final int MAX_RATE = 0xFFFF;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final int rate;
+    private final int slip;
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder slipped = new LongAdder();
+
+    /*
+     * Table has given number of slots rounded up to power of two. Clients
+     * get given number of responses per second of each kind, networks are
+     * grouped by given prefix lengths. */
+    public RateLimiter(int slots, int rate, int slip, int ipv4Prefix, int ipv6Prefix) {
+        int size = Integer.highestOneBit(Math.max(2, slots) - 1) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.rate = Math.max(1, Math.min(MAX_RATE, rate));
+        this.slip = Math.max(0, Math.min(MAX_SLIP, slip));
+        this.ipv4Prefix = Math.max(0, Math.min(32, ipv4Prefix));
+        this.ipv6Prefix = Math.max(0, Math.min(128, ipv6Prefix));
+    }
+
+    /*
+     * Decides what to do with response of given kind sent to given client */
+    public Decision check(InetAddress client, Kind kind) {
+        return check(client, kind, System.nanoTime() / 1_000_000);
+    }
+
+    /*
+     * Decides at given time in milliseconds, separate for tests */
+    Decision check(InetAddress client, Kind kind, long nowMillis) {
+        long hash = hash(client, kind);
+        int index = (int) hash & this.mask;
+        long tag = hash >>> 52;
+        long now = nowMillis & 0xFFFFFFFFL;
+
+        while (true) {
+            long slot = this.slots.get(index);
+            int tokens;
+            long time;
+            int slipCnt;
+            if (slot == 0) {
+                // Empty slot starts with full bucket
+                tokens = this.rate;
+                time = now;
+                slipCnt = 0;
+            } else {
+                tokens = (int) (slot >>> 32) & 0xFFFF;
+                time = slot & 0xFFFFFFFFL;
+                slipCnt = (int) (slot >>> 48) & 0xF;
+                long elapsed = now - time & 0xFFFFFFFFL;
+                long added = elapsed * this.rate / 1000;
+                if (tokens + added >= this.rate) {
+                    tokens = this.rate;
+                    time = now;
+                    // Idle slot of another key is taken over
+                    if (slot >>> 52 != tag) slipCnt = 0;
+                } else if (added > 0) {
+                    // Time moves only by what was turned into tokens, so
+                    // frequent checks do not lose fractions of token
+                    tokens += (int) added;
+                    time = time + added * 1000 / this.rate & 0xFFFFFFFFL;
+                }
+            }
+
+            Decision decision;
+            if (tokens > 0) {
+                tokens--;
+                decision = Decision.SEND;
+            } else if (this.slip > 0 && (slipCnt = (slipCnt + 1) % this.slip) == 0) {
+                decision = Decision.SLIP;
+            } else {
+                decision = Decision.DROP;
+            }
+
+            long next = tag << 52 | (long) slipCnt << 48 | (long) tokens << 32 | time;
+            if (next == slot || this.slots.compareAndSet(index, slot, next)) {
+                if (decision == Decision.DROP) this.dropped.increment();
+                if (decision == Decision.SLIP) this.slipped.increment();
+                return decision;
+            }
+        }
+    }
+
+    /*
+     * Hash of network of given client and given kind (finalizer of
+     * MurmurHash3) */
+    private long hash(InetAddress client, Kind kind) {
+        byte[] address = client.getAddress();
+        int prefix = address.length == 4 ? this.ipv4Prefix : this.ipv6Prefix;
+        long key = address.length * 0x9E3779B97F4A7C15L ^ kind.ordinal();
+        for (int i = 0; i < address.length && i * 8 < prefix; i++) {
+            int bits = Math.min(8, prefix - i * 8);
+            key = key * 31 + (address[i] & 0xFF & 0xFF00 >>> bits);
+        }
+        key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+        key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+
+    /*
+     * Kind of response with given result code and number of answers */
+    public static Kind kindOf(ResultCode rescode, int answers) {
+        if (rescode == ResultCode.NOERROR) return answers > 0 ? Kind.ANSWER : Kind.NODATA;
+        return rescode == ResultCode.NXDOMAIN ? Kind.NXDOMAIN : Kind.ERROR;
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.register(Metrics.RATE_LIMIT_DROPPED, this::getDropped);
+        metrics.register(Metrics.RATE_LIMIT_SLIPPED, this::getSlipped);
+    }
+
+    /*
+     * Getters for statistics */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getSlipped() {
+        return slipped.sum();
+    }
+
+}
@@ -0,0 +1,402 @@
+package eu.sedam.jdns;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Iterative resolver that answers queries without help of another
+ * recursive server. Resolution starts at the closest zone cut known to
+ * DelegationCache (root servers from hints at first) and follows NS
+ * referrals from authority section, using glue addresses from additional
+ * section or looking up addresses of name servers that came without glue.
+ * Records outside of the zone of answering server are dropped, so CNAMEs
+ * pointing outside of the answering zone are chased by new lookup of the
+ * target.
+ *
+ * Every query to authoritative server is sent from new socket bound to
+ * random port, so forged reply has to guess port as well as ID (RFC 5452).
+ * Queries are blocking, so resolver is meant to be called from worker
+ * threads of QueryDispatcher. Queries advertise EDNS payload size and
+ * truncated replies are repeated over short-lived TCP connection to the
+ * same server. */
+public class RecursiveResolver {
+
+    // Maximum number of referrals followed during single lookup
+    private static final int MAX_REFERRALS = 16;
+    // Maximum number of CNAMEs followed for single question
+    private static final int MAX_CNAME_CHAIN = 8;
+    // Maximum nesting of lookups of name server addresses
+    private static final int MAX_DEPTH = 4;
+    // Maximum number of servers of single zone tried before giving up
+    private static final int MAX_SERVER_ATTEMPTS = 3;
+    // Source ports are picked at random above well-known ports, taken port
+    // is retried few times before leaving the choice to the system
+    private static final int MIN_PORT = 1024;
+    private static final int MAX_PORT_ATTEMPTS = 8;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    // EDNS payload size advertised in queries
+    private static final int EDNS_PAYLOAD_SIZE = ServerConfig.ednsPayloadSize();
+
+    private final DelegationCache delegations;
+    private final int port;
+    private final long timeoutMillis;
+
+    /*
+     * Creates resolver starting at given root servers. Addresses learned
+     * from referrals are contacted on given port, which is 53 except in
+     * tests with local stand-in servers. */
+    public RecursiveResolver(List<InetSocketAddress> rootServers, int port, long timeoutMillis, int cacheSize) {
+        this.delegations = new DelegationCache(rootServers, cacheSize);
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public DelegationCache getDelegations() {
+        return delegations;
+    }
+
+    /*
+     * Resolves given name and type. Answer section of returned packet
+     * contains whole CNAME chain followed by records of requested type. */
+    public DnsPacket resolve(DnsName name, QueryType queryType) throws Exception {
+        return resolve(name, queryType, 0);
+    }
+
+    private DnsPacket resolve(DnsName name, QueryType queryType, int depth) throws Exception {
+        DnsPacket result = new DnsPacket();
+        DnsName target = name;
+        int chainLength = 0;
+
+        while (true) {
+            DnsPacket reply = resolveIterative(target, queryType, depth);
+            result.getHeader().setRescode(reply.getHeader().getRescode());
+            result.getAnswers().addAll(reply.getAnswers());
+            result.getAuthorityRecords().clear();
+            result.getAuthorityRecords().addAll(reply.getAuthorityRecords());
+
+            if (reply.getHeader().getRescode() != ResultCode.NOERROR || queryType == QueryType.CNAME) {
+                return result;
+            }
+
+            // Follow CNAMEs that are already answered in this reply
+            DnsName next = target;
+            boolean answered = false;
+            while (!answered) {
+                DnsRecord cname = null;
+                for (DnsRecord record : reply.getAnswers()) {
+                    if (!record.getDomain().equals(next)) continue;
+                    if (record.getQueryType() == queryType) answered = true;
+                    if (record.getQueryType() == QueryType.CNAME) cname = record;
+                }
+                if (answered || cname == null) break;
+                if (++chainLength > MAX_CNAME_CHAIN) throw new Exception("CNAME chain of " + name + " too long");
+                next = cname.getHost();
+            }
+
+            // Either answered or no data for the name at the end of chain
+            if (answered || next.equals(target)) return result;
+
+            // Chain leads to another zone, look up its end
+            target = next;
+        }
+    }
+
+    /*
+     * Follows referrals from the closest known zone cut until some server
+     * answers the question or says there is no answer */
+    private DnsPacket resolveIterative(DnsName name, QueryType queryType, int depth) throws Exception {
+        DelegationCache.Delegation zone = this.delegations.closest(name);
+
+        for (int i = 0; i < MAX_REFERRALS; i++) {
+            DnsPacket reply = queryZone(zone, name, queryType, depth);
+            dropOutOfZone(reply, zone.getZone());
+
+            if (reply.getHeader().getRescode() != ResultCode.NOERROR || !reply.getAnswers().isEmpty()
+                    || reply.getHeader().isAuthoritativeAnswer()) {
+                return reply;
+            }
+
+            DelegationCache.Delegation referral = referral(reply, zone.getZone(), name);
+            // No answer and no referral means name exists without data
+            if (referral == null) return reply;
+            zone = referral;
+        }
+
+        throw new Exception("Too many referrals for " + name);
+    }
+
+    /*
+     * Removes answer and authority records of names outside of given zone.
+     * Server of the zone has no authority over them, so they could poison
+     * the cache. Targets of CNAMEs leading outside of the zone are looked
+     * up again from their own servers. */
+    private static void dropOutOfZone(DnsPacket reply, DnsName zone) {
+        reply.getAnswers().removeIf(x -> !x.getDomain().isSubdomainOf(zone));
+        reply.getAuthorityRecords().removeIf(x -> !x.getDomain().isSubdomainOf(zone));
+    }
+
+    /*
+     * Reads referral to zone below given current zone from authority
+     * section and stores it together with glue addresses. Returns null if
+     * reply is not a referral closer to given name. */
+    private DelegationCache.Delegation referral(DnsPacket reply, DnsName currentZone, DnsName name) {
+        DnsName zone = null;
+        List<DnsName> nameServers = new ArrayList<>();
+        long ttl = Long.MAX_VALUE;
+
+        for (DnsRecord record : reply.getAuthorityRecords()) {
+            if (record.getQueryType() != QueryType.NS) continue;
+            DnsName cut = record.getDomain();
+
+            // Referral must lead strictly below current zone towards the name,
+            // otherwise server is lame or tries to send us elsewhere
+            if (zone == null) {
+                if (!name.isSubdomainOf(cut) || !cut.isSubdomainOf(currentZone) || cut.equals(currentZone)) continue;
+                zone = cut;
+            } else if (!cut.equals(zone)) {
+                continue;
+            }
+            nameServers.add(record.getHost());
+            ttl = Math.min(ttl, ttlSeconds(record.getTtl()));
+        }
+        if (zone == null) return null;
+
+        // Glue is trusted only for names within zone of the server that sent it
+        Map<DnsName, List<InetSocketAddress>> glue = new HashMap<>();
+        Map<DnsName, Long> glueTtl = new HashMap<>();
+        for (DnsRecord record : reply.getResourceRecords()) {
+            if (record.getQueryType() != QueryType.A || !nameServers.contains(record.getDomain())
+                    || !record.getDomain().isSubdomainOf(currentZone)) continue;
+            glue.computeIfAbsent(record.getDomain(), x -> new ArrayList<>())
+                    .add(new InetSocketAddress(record.getAddr(), this.port));
+            glueTtl.merge(record.getDomain(), ttlSeconds(record.getTtl()), Math::min);
+        }
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        glue.forEach((nameServer, serverAddresses) -> {
+            addresses.addAll(serverAddresses);
+            this.delegations.putAddresses(nameServer, serverAddresses, glueTtl.get(nameServer));
+        });
+
+        return this.delegations.putDelegation(zone, nameServers, addresses, ttl);
+    }
+
+    /*
+     * Sends question to servers of given zone until one of them gives
+     * usable reply */
+    private DnsPacket queryZone(DelegationCache.Delegation zone, DnsName name, QueryType queryType, int depth)
+            throws Exception {
+        List<InetSocketAddress> servers = serverAddresses(zone, depth);
+        if (servers.isEmpty()) throw new IOException("No address of name server for zone " + zone.getZone());
+
+        // Start at random server to spread load over all of them
+        int start = ThreadLocalRandom.current().nextInt(servers.size());
+        int attempts = Math.min(servers.size(), MAX_SERVER_ATTEMPTS);
+        DnsPacket lastReply = null;
+        for (int i = 0; i < attempts; i++) {
+            DnsPacket reply = query(servers.get((start + i) % servers.size()), name, queryType);
+            if (reply == null) continue;
+
+            // Server failures and refusals are worth trying another server
+            ResultCode rescode = reply.getHeader().getRescode();
+            if (rescode == ResultCode.SERVFAIL || rescode == ResultCode.REFUSED) {
+                lastReply = reply;
+                continue;
+            }
+            return reply;
+        }
+
+        if (lastReply != null) return lastReply;
+        throw new IOException("No name server for zone " + zone.getZone() + " responded");
+    }
+
+    /*
+     * Returns addresses of name servers of given zone, looking up addresses
+     * of name servers that came without glue */
+    private List<InetSocketAddress> serverAddresses(DelegationCache.Delegation zone, int depth) {
+        if (!zone.getAddresses().isEmpty()) return zone.getAddresses();
+
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (DnsName nameServer : zone.getNameServers()) {
+            List<InetSocketAddress> cached = this.delegations.getAddresses(nameServer);
+            if (cached != null) {
+                result.addAll(cached);
+                continue;
+            }
+            // Name server within the zone itself can not be found without glue
+            if (depth >= MAX_DEPTH || nameServer.isSubdomainOf(zone.getZone())) continue;
+
+            try {
+                DnsPacket reply = resolve(nameServer, QueryType.A, depth + 1);
+                List<InetSocketAddress> addresses = new ArrayList<>();
+                long ttl = Long.MAX_VALUE;
+                for (DnsRecord record : reply.getAnswers()) {
+                    if (record.getQueryType() != QueryType.A) continue;
+                    addresses.add(new InetSocketAddress(record.getAddr(), this.port));
+                    ttl = Math.min(ttl, ttlSeconds(record.getTtl()));
+                }
+                this.delegations.putAddresses(nameServer, addresses, ttl);
+                result.addAll(addresses);
+            } catch (Exception ex) {
+                // Try next name server
+                continue;
+            }
+            // One reachable name server is enough
+            if (!result.isEmpty()) break;
+        }
+        return result;
+    }
+
+    /*
+     * Sends single non-recursive query to given server and waits for reply.
+     * Returns null if server did not respond in time. */
+    private DnsPacket query(InetSocketAddress server, DnsName name, QueryType queryType) throws IOException {
+        DnsPacket reply = query(server, name, queryType, true);
+        // Server that does not know EDNS may refuse query with OPT record,
+        // it is asked again without it (RFC 6891 section 7)
+        if (reply != null && reply.getHeader().getRescode() == ResultCode.FORMERR && reply.getOpt() == null) {
+            reply = query(server, name, queryType, false);
+        }
+        return reply;
+    }
+
+    private DnsPacket query(InetSocketAddress server, DnsName name, QueryType queryType, boolean edns)
+            throws IOException {
+        DnsPacket packet = new DnsPacket();
+        short id = (short) RANDOM.get().nextInt(0x10000);
+        packet.getHeader().setId(id);
+        packet.getQuestions().add(new DnsQuestion(name, queryType));
+        if (edns) packet.setOpt(new OptRecord(EDNS_PAYLOAD_SIZE));
+
+        BytePacketBuffer requestBuffer = BufferPool.threadLocal();
+        packet.write(requestBuffer);
+
+        try (DatagramSocket socket = openSocket()) {
+            return query(socket, requestBuffer, server, packet, id, name, queryType);
+        }
+    }
+
+    private DnsPacket query(DatagramSocket socket, BytePacketBuffer requestBuffer, InetSocketAddress server,
+                            DnsPacket packet, short id, DnsName name, QueryType queryType) throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.timeoutMillis);
+        requestBuffer.send(socket, server.getAddress(), server.getPort());
+
+        BytePacketBuffer responseBuffer = new BytePacketBuffer(ServerConfig.upstreamBufferSize());
+        while (true) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                Metrics.INSTANCE.countUpstreamFailure(new TimeoutException());
+                return null;
+            }
+            socket.setSoTimeout((int) remaining);
+
+            DatagramPacket udpPacket;
+            try {
+                udpPacket = responseBuffer.receive(socket);
+            } catch (SocketTimeoutException ex) {
+                continue;
+            }
+
+            // Forged replies are skipped
+            if (!server.getAddress().equals(udpPacket.getAddress()) || server.getPort() != udpPacket.getPort()) {
+                continue;
+            }
+            DnsPacket reply;
+            try {
+                reply = new DnsPacket().fromBuffer(responseBuffer);
+            } catch (Exception ex) {
+                continue;
+            }
+            if (reply.getHeader().getId() != id || reply.getQuestions().size() != 1) continue;
+            DnsQuestion question = reply.getQuestions().get(0);
+            if (question.getQueryType() != queryType || !question.getDnsName().equals(name)) continue;
+
+            Metrics.INSTANCE.record(Metrics.Stage.UPSTREAM, System.nanoTime() - start);
+            if (!reply.getHeader().isTruncatedMessage()) return reply;
+
+            Metrics.INSTANCE.countUpstreamTruncated();
+            return queryTcp(server, packet, id, name, queryType);
+        }
+    }
+
+    /*
+     * Opens socket bound to random port */
+    private static DatagramSocket openSocket() throws IOException {
+        SecureRandom random = RANDOM.get();
+        for (int i = 0; i < MAX_PORT_ATTEMPTS; i++) {
+            try {
+                return new DatagramSocket(MIN_PORT + random.nextInt(0x10000 - MIN_PORT));
+            } catch (BindException ex) {
+                // Port taken, try another one
+            }
+        }
+        return new DatagramSocket();
+    }
+
+    /*
+     * Sends given query over new TCP connection and waits for reply.
+     * Returns null if server did not respond in time. */
+    private DnsPacket queryTcp(InetSocketAddress server, DnsPacket packet, short id, DnsName name,
+                               QueryType queryType) throws IOException {
+        BytePacketBuffer requestBuffer = BufferPool.threadLocal();
+        packet.write(requestBuffer);
+
+        long start = System.nanoTime();
+        try (Socket socket = new Socket()) {
+            socket.connect(server, (int) this.timeoutMillis);
+            socket.setSoTimeout((int) this.timeoutMillis);
+
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeShort(requestBuffer.getPosition());
+            out.write(requestBuffer.getRange(0, requestBuffer.getPosition()));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] message = new byte[in.readUnsignedShort()];
+            in.readFully(message);
+
+            DnsPacket reply = new DnsPacket().fromBuffer(new BytePacketBuffer(ByteBuffer.wrap(message)));
+            if (reply.getHeader().getId() != id || reply.getQuestions().size() != 1) return null;
+            DnsQuestion question = reply.getQuestions().get(0);
+            if (question.getQueryType() != queryType || !question.getDnsName().equals(name)) return null;
+
+            Metrics.INSTANCE.record(Metrics.Stage.UPSTREAM, System.nanoTime() - start);
+            return reply;
+        } catch (SocketTimeoutException ex) {
+            Metrics.INSTANCE.countUpstreamFailure(new TimeoutException());
+            return null;
+        } catch (IOException ex) {
+            Metrics.INSTANCE.countUpstreamFailure(ex);
+            return null;
+        } catch (Exception ex) {
+            // Malformed reply
+            return null;
+        }
+    }
+
+    /*
+     * TTL with the most significant bit set is treated as zero (RFC 2181) */
+    private static long ttlSeconds(int ttl) {
+        return ttl < 0 ? 0 : ttl;
+    }
+
+}
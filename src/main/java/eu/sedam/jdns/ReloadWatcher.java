@@ -0,0 +1,88 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Checks given files periodically on its own daemon thread and calls
+ * loader when any of them changed since the last check. Loader is expected
+ * to build new data completely before it swaps it in, so serving never
+ * waits for it. If loader fails, error is printed once and files are
+ * checked again on later changes. */
+public class ReloadWatcher implements AutoCloseable {
+
+    /*
+     * Loads data again from watched files */
+    public interface Loader {
+        void load() throws Exception;
+    }
+
+    private final String name;
+    private final List<Path> files;
+    private final Loader loader;
+
+    // Modification time and file key of every file as of last load
+    private List<Object> stamps;
+    private ScheduledExecutorService executor;
+
+    /*
+     * Remembers current state of given files, name is used for reload
+     * thread and in error messages */
+    public ReloadWatcher(String name, List<Path> files, Loader loader) throws IOException {
+        this.name = name;
+        this.files = List.copyOf(files);
+        this.loader = loader;
+        this.stamps = stamps();
+    }
+
+    /*
+     * Checks files for changes every given number of milliseconds, 0 or
+     * less does nothing */
+    public synchronized void start(long intervalMillis) {
+        if (this.executor != null || intervalMillis <= 0) return;
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "jdns-" + this.name + "-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        try {
+            List<Object> current = stamps();
+            if (current.equals(this.stamps)) return;
+            // Broken files are reported once, not on every check
+            this.stamps = current;
+            this.loader.load();
+        } catch (Exception ex) {
+            System.out.println(">>> ERROR <<<" + "\n" + "Reload of " + this.name + " failed: " + ex.getMessage());
+        }
+    }
+
+    /*
+     * Identifies current version of every file. File key changes when file
+     * is replaced by rename even if time stays the same. */
+    private List<Object> stamps() throws IOException {
+        List<Object> result = new ArrayList<>();
+        for (Path file : this.files) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            result.add(Objects.toString(attributes.fileKey()) + "@" + attributes.lastModifiedTime().toMillis());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.executor != null) this.executor.shutdownNow();
+    }
+
+}
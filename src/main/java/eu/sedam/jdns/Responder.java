@@ -0,0 +1,34 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/*
+ * Way back to the client that sent a query. Implemented by UDP, where
+ * response goes to sender of the datagram, and by TCP connection, where
+ * response is framed and queued on the connection. */
+public interface Responder {
+
+    /*
+     * Address and port of the client */
+    InetAddress getAddress();
+
+    int getPort();
+
+    /*
+     * Largest response that can be sent to client that advertised given
+     * EDNS payload size (0 when query has no OPT record), bigger responses
+     * are truncated */
+    int getMaxSize(int payloadSize);
+
+    /*
+     * Whether response goes in datagram to address that may be spoofed,
+     * such responses are subject to rate limiting */
+    boolean isDatagram();
+
+    /*
+     * Sends response held in given buffer up to its position. Buffer can be
+     * reused by caller after this method returns. */
+    void send(BytePacketBuffer responseBuffer) throws IOException;
+
+}
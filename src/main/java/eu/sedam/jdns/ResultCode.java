@@ -1,3 +1,5 @@
+package eu.sedam.jdns;
+
 /*
  * Enum for values of rescode field - not all are implemented.
  * For more https://tools.ietf.org/html/rfc5395#page-5 */
@@ -11,8 +13,8 @@ public enum ResultCode {
 
     static ResultCode fromNumber(byte number) {
         return switch (number) {
-            case (byte) 1 -> SERVFAIL;
-            case (byte) 2 -> FORMERR;
+            case (byte) 1 -> FORMERR;
+            case (byte) 2 -> SERVFAIL;
             case (byte) 3 -> NXDOMAIN;
             case (byte) 4 -> NOTIMP;
             case (byte) 5 -> REFUSED;
@@ -0,0 +1,304 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Serving mode for many cores. Given number of UDP channels are bound to the
+ * same address with SO_REUSEPORT, so kernel spreads queries among their
+ * separate receive queues by hash of client address and port. Every channel
+ * is served by its own event loop thread with its own pool of buffers.
+ *
+ * On every selector wakeup, loop drains up to batch size datagrams. Queries
+ * that can be answered without lookup, from local zones, blocklist or cache,
+ * are answered right on the loop. Others are handed with their buffer to
+ * worker pool shared by all loops, and loop continues with buffer from its
+ * pool. Queries in flight are limited, when all workers are busy query is
+ * dropped and counted, and client asks again.
+ *
+ * Channels are non-blocking. Response that does not fit socket send buffer
+ * is queued and sent by the loop once channel is writable again, so neither
+ * loop nor workers wait for kernel. */
+public class ReusePortListener implements AutoCloseable {
+
+    // Responses waiting for room in socket send buffer per loop
+    private static final int MAX_PENDING = 1024;
+
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final Semaphore permits;
+
+    /*
+     * Binds given number of channels to given address, lookups run on given
+     * number of workers and datagrams are read in batches of given size */
+    public ReusePortListener(InetSocketAddress address, int listeners, int workers, int batchSize)
+            throws IOException {
+        this.permits = new Semaphore(workers);
+        AtomicInteger workerCnt = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, task -> {
+            Thread thread = new Thread(task, "jdns-worker-" + workerCnt.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.loops = new EventLoop[listeners];
+        try {
+            for (int i = 0; i < listeners; i++) {
+                this.loops[i] = new EventLoop(i, address, Math.max(1, workers / listeners), batchSize);
+            }
+        } catch (IOException ex) {
+            for (EventLoop loop : this.loops) {
+                if (loop != null) loop.closeChannel();
+            }
+            this.workers.shutdownNow();
+            throw ex;
+        }
+    }
+
+    /*
+     * Starts event loop threads */
+    public void start() {
+        for (EventLoop loop : this.loops) loop.thread.start();
+    }
+
+    /*
+     * Blocks until all event loops stop */
+    public void awaitTermination() throws InterruptedException {
+        for (EventLoop loop : this.loops) loop.thread.join();
+    }
+
+    /*
+     * Stops receiving new queries and gives in-flight ones time to finish
+     * before closing the channels. When interrupted, queries in flight are
+     * abandoned and interrupt status is kept. */
+    @Override
+    public void close() {
+        for (EventLoop loop : this.loops) loop.stop();
+        this.workers.shutdown();
+        try {
+            if (!this.workers.awaitTermination(ServerConfig.shutdownTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                this.workers.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            this.workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (EventLoop loop : this.loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            loop.closeChannel();
+        }
+    }
+
+    /*
+     * Loop serving single channel */
+    private final class EventLoop implements Runnable {
+        private final DatagramChannel channel;
+        private final Selector selector;
+        private final SelectionKey key;
+        private final BufferPool buffers;
+        private final int batchSize;
+        private final Thread thread;
+        private final Queue<PendingResponse> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCnt = new AtomicInteger();
+        private volatile boolean running = true;
+
+        private EventLoop(int index, InetSocketAddress address, int poolSize, int batchSize) throws IOException {
+            this.channel = DatagramChannel.open();
+            try {
+                this.channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                this.channel.bind(address);
+                this.channel.configureBlocking(false);
+                this.selector = Selector.open();
+                this.key = this.channel.register(this.selector, SelectionKey.OP_READ);
+            } catch (IOException | UnsupportedOperationException ex) {
+                this.channel.close();
+                throw ex instanceof IOException ? (IOException) ex : new IOException("SO_REUSEPORT not supported", ex);
+            }
+            // Buffers of queries handed to workers come back to the pool
+            this.buffers = new BufferPool(poolSize + batchSize, ServerConfig.bufferSize(), ServerConfig.directBuffers());
+            this.batchSize = batchSize;
+            this.thread = new Thread(this, "jdns-udp-loop-" + index);
+        }
+
+        @Override
+        public void run() {
+            BytePacketBuffer requestBuffer = this.buffers.acquire();
+            while (this.running) {
+                try {
+                    this.selector.select();
+                    this.selector.selectedKeys().clear();
+                    if (this.key.isValid() && this.key.isWritable()) flushPending();
+                    requestBuffer = receiveBatch(requestBuffer);
+                } catch (ClosedSelectorException ex) {
+                    break;
+                } catch (Exception ex) {
+                    if (!this.running) break;
+                    System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+                }
+            }
+        }
+
+        /*
+         * Handles datagrams waiting in channel, at most batch size of them
+         * so pending responses are not held back. Returns buffer for next
+         * datagram, which is a new one if the last one went to worker. */
+        private BytePacketBuffer receiveBatch(BytePacketBuffer requestBuffer) throws IOException {
+            for (int i = 0; i < this.batchSize; i++) {
+                SocketAddress sender = requestBuffer.receive(this.channel);
+                if (sender == null) break;
+                long receivedAt = System.nanoTime();
+                int length = requestBuffer.getLimit();
+                ChannelResponder responder = new ChannelResponder(this, (InetSocketAddress) sender);
+
+                try {
+                    if (DnsServer.handleRequest(requestBuffer, length, responder, false)) continue;
+                } catch (Exception ex) {
+                    System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+                    continue;
+                }
+
+                if (!ReusePortListener.this.permits.tryAcquire()) {
+                    Metrics.INSTANCE.countDropped();
+                    continue;
+                }
+                BytePacketBuffer handed = requestBuffer;
+                requestBuffer = this.buffers.acquire();
+                try {
+                    ReusePortListener.this.workers.execute(() -> lookup(handed, length, responder, receivedAt));
+                } catch (Exception ex) {
+                    // Pool was shut down while loop was stopping
+                    this.buffers.release(handed);
+                    ReusePortListener.this.permits.release();
+                }
+            }
+            // Selector wakes up again if more datagrams are waiting
+            return requestBuffer;
+        }
+
+        private void lookup(BytePacketBuffer requestBuffer, int length, ChannelResponder responder, long receivedAt) {
+            Metrics.INSTANCE.record(Metrics.Stage.RECEIVE, System.nanoTime() - receivedAt);
+            try {
+                DnsServer.handleRequest(requestBuffer, length, responder);
+            } catch (Exception ex) {
+                System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+            } finally {
+                this.buffers.release(requestBuffer);
+                ReusePortListener.this.permits.release();
+            }
+        }
+
+        /*
+         * Sends response or queues it if socket send buffer is full */
+        private void send(BytePacketBuffer responseBuffer, SocketAddress target) throws IOException {
+            if (this.pendingCnt.get() == 0 && responseBuffer.send(this.channel, target) > 0) return;
+            if (this.pendingCnt.incrementAndGet() > MAX_PENDING) {
+                // Client asks again, like when datagram is lost
+                this.pendingCnt.decrementAndGet();
+                Metrics.INSTANCE.countDropped();
+                return;
+            }
+            this.pending.add(new PendingResponse(responseBuffer.getRange(0, responseBuffer.getPosition()), target));
+            this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            this.selector.wakeup();
+        }
+
+        /*
+         * Sends queued responses in order until socket send buffer is full */
+        private void flushPending() throws IOException {
+            BytePacketBuffer buffer = BufferPool.threadLocalLarge();
+            PendingResponse response;
+            while ((response = this.pending.peek()) != null) {
+                buffer.clear();
+                buffer.writeBytes(response.message);
+                if (buffer.send(this.channel, response.target) == 0) return;
+                this.pending.poll();
+                this.pendingCnt.decrementAndGet();
+            }
+            this.key.interestOps(SelectionKey.OP_READ);
+            // Response queued after the queue was seen empty
+            if (!this.pending.isEmpty()) this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void stop() {
+            this.running = false;
+            this.selector.wakeup();
+        }
+
+        private void closeChannel() {
+            try {
+                this.selector.close();
+                this.channel.close();
+            } catch (IOException ex) {
+                System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+            }
+        }
+    }
+
+    /*
+     * Response waiting for room in socket send buffer */
+    private static final class PendingResponse {
+        private final byte[] message;
+        private final SocketAddress target;
+
+        private PendingResponse(byte[] message, SocketAddress target) {
+            this.message = message;
+            this.target = target;
+        }
+    }
+
+    /*
+     * Sends response through channel of the loop that received the query */
+    private static final class ChannelResponder implements Responder {
+        private final EventLoop loop;
+        private final InetSocketAddress client;
+
+        private ChannelResponder(EventLoop loop, InetSocketAddress client) {
+            this.loop = loop;
+            this.client = client;
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return this.client.getAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return this.client.getPort();
+        }
+
+        @Override
+        public int getMaxSize(int payloadSize) {
+            return Math.max(OptRecord.MIN_PAYLOAD_SIZE, Math.min(payloadSize, ServerConfig.ednsPayloadSize()));
+        }
+
+        @Override
+        public boolean isDatagram() {
+            return true;
+        }
+
+        @Override
+        public void send(BytePacketBuffer responseBuffer) throws IOException {
+            this.loop.send(responseBuffer, this.client);
+        }
+    }
+
+}
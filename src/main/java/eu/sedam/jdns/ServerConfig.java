@@ -0,0 +1,426 @@
+package eu.sedam.jdns;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Server settings read from system properties, for example:
+ *
+ *     java -Djdns.port=53 -Djdns.workers=128 DnsResolver
+ *
+ * Every setting has a default so server can be started without any. */
+public class ServerConfig {
+
+    // IPv4 addresses of a to m.root-servers.net
+    private static final String ROOT_SERVERS = "198.41.0.4,170.247.170.2,192.33.4.12,199.7.91.13,192.203.230.10,"
+            + "192.5.5.241,192.112.36.4,198.97.190.53,192.36.148.17,192.58.128.30,193.0.14.129,199.7.83.42,"
+            + "202.12.27.33";
+
+    /*
+     * Address and port on which server listens for queries */
+    public static String listenAddress() {
+        return System.getProperty("jdns.address", "127.0.0.1");
+    }
+
+    public static int listenPort() {
+        return Integer.getInteger("jdns.port", 5053);
+    }
+
+    /*
+     * Maximum number of queries handled at the same time. Value of 1
+     * keeps the original single threaded loop. */
+    public static int workers() {
+        return Math.max(1, Integer.getInteger("jdns.workers", 64));
+    }
+
+    /*
+     * Whether UDP is served by several channels sharing the port with
+     * SO_REUSEPORT, each with its own event loop */
+    public static boolean reusePort() {
+        return Boolean.getBoolean("jdns.reusePort");
+    }
+
+    /*
+     * Number of channels and event loops when reusePort is enabled, one per
+     * core by default */
+    public static int listeners() {
+        return Math.max(1, Integer.getInteger("jdns.listeners", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /*
+     * Maximum number of datagrams read by event loop on single wakeup */
+    public static int receiveBatch() {
+        return Math.max(1, Integer.getInteger("jdns.receiveBatch", 64));
+    }
+
+    /*
+     * Time in milliseconds given to in-flight queries to finish on shutdown */
+    public static long shutdownTimeoutMillis() {
+        return Long.getLong("jdns.shutdownTimeout", 5000L);
+    }
+
+    /*
+     * Maximum number of entries in answer cache, 0 disables caching */
+    public static int cacheSize() {
+        return Integer.getInteger("jdns.cacheSize", 10000);
+    }
+
+    /*
+     * Whether cache hits are sent from response kept in wire format instead
+     * of being written again */
+    public static boolean wireCache() {
+        return Boolean.parseBoolean(System.getProperty("jdns.wireCache", "true"));
+    }
+
+    /*
+     * Upper bound in seconds of TTL of cached NXDOMAIN and NODATA answers */
+    public static long negativeTtlMax() {
+        return Long.getLong("jdns.negativeTtlMax", 3600L);
+    }
+
+    /*
+     * Whether identical questions asked at the same time share single
+     * upstream lookup */
+    public static boolean coalesce() {
+        return Boolean.parseBoolean(System.getProperty("jdns.coalesce", "true"));
+    }
+
+    /*
+     * Time in seconds for which expired answers are kept and served when
+     * upstream fails (RFC 8767), 0 disables serve-stale */
+    public static long staleWindowSeconds() {
+        return Long.getLong("jdns.staleWindow", 86400L);
+    }
+
+    /*
+     * TTL in seconds of served stale records, also time for which stale
+     * answer is served without new lookup after refresh failed */
+    public static int staleTtl() {
+        return Math.max(1, Integer.getInteger("jdns.staleTtl", 30));
+    }
+
+    /*
+     * Time in milliseconds after which client gets stale answer if lookup
+     * has not finished yet. Lookup itself continues until upstream timeout. */
+    public static long clientTimeoutMillis() {
+        return Long.getLong("jdns.clientTimeout", 1800L);
+    }
+
+    /*
+     * Whether popular cache entries are refreshed before they expire */
+    public static boolean prefetch() {
+        return Boolean.parseBoolean(System.getProperty("jdns.prefetch", "true"));
+    }
+
+    /*
+     * Fraction of TTL below which popular entry is refreshed */
+    public static double prefetchThreshold() {
+        return Double.parseDouble(System.getProperty("jdns.prefetchThreshold", "0.1"));
+    }
+
+    /*
+     * Number of cache hits after which entry is considered popular */
+    public static int prefetchMinHits() {
+        return Math.max(1, Integer.getInteger("jdns.prefetchMinHits", 5));
+    }
+
+    /*
+     * Number of threads refreshing entries, which is also the maximum
+     * number of refreshes in flight */
+    public static int prefetchThreads() {
+        return Math.max(1, Integer.getInteger("jdns.prefetchThreads", 2));
+    }
+
+    /*
+     * Number of refreshes waiting for thread before new ones are dropped */
+    public static int prefetchQueue() {
+        return Math.max(1, Integer.getInteger("jdns.prefetchQueue", 256));
+    }
+
+    /*
+     * Upstream servers in form host[:port] separated by commas to which
+     * queries are forwarded */
+    public static List<InetSocketAddress> upstreams() {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (String address : System.getProperty("jdns.upstream", "8.8.8.8,8.8.4.4").split(",")) {
+            if (!address.isBlank()) result.add(parseAddress(address.trim(), 53));
+        }
+        return result;
+    }
+
+    /*
+     * Whether query that upstream did not answer within its 95th percentile
+     * RTT is sent to another upstream server as well */
+    public static boolean upstreamHedge() {
+        return Boolean.parseBoolean(System.getProperty("jdns.upstreamHedge", "true"));
+    }
+
+    /*
+     * Number of long-lived sockets used for talking to upstream */
+    public static int upstreamSockets() {
+        return Math.max(1, Integer.getInteger("jdns.upstreamSockets", 4));
+    }
+
+    /*
+     * Number of TCP connections to upstream used for truncated replies */
+    public static int upstreamTcpConnections() {
+        return Math.max(1, Integer.getInteger("jdns.upstreamTcpConnections", 2));
+    }
+
+    /*
+     * Number of threads of each upstream client that parse replies and run
+     * callbacks waiting for them */
+    public static int upstreamThreads() {
+        return Math.max(1, Integer.getInteger("jdns.upstreamThreads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /*
+     * Time in milliseconds after which upstream query fails */
+    public static long upstreamTimeoutMillis() {
+        return Long.getLong("jdns.upstreamTimeout", 2000L);
+    }
+
+    /*
+     * Whether queries are also served over TCP on the same address and port */
+    public static boolean tcp() {
+        return Boolean.parseBoolean(System.getProperty("jdns.tcp", "true"));
+    }
+
+    /*
+     * Number of workers handling queries received over TCP */
+    public static int tcpWorkers() {
+        return Math.max(1, Integer.getInteger("jdns.tcpWorkers", 16));
+    }
+
+    /*
+     * Maximum number of open client TCP connections */
+    public static int tcpConnections() {
+        return Math.max(1, Integer.getInteger("jdns.tcpConnections", 1000));
+    }
+
+    /*
+     * Maximum number of queries of single TCP connection handled at once */
+    public static int tcpPipeline() {
+        return Math.max(1, Integer.getInteger("jdns.tcpPipeline", 32));
+    }
+
+    /*
+     * Time in milliseconds after which TCP connection without queries is closed */
+    public static long tcpIdleTimeoutMillis() {
+        return Long.getLong("jdns.tcpIdleTimeout", 10000L);
+    }
+
+    /*
+     * Master files of zones answered authoritatively, separated by commas */
+    public static List<Path> zones() {
+        List<Path> result = new ArrayList<>();
+        for (String file : System.getProperty("jdns.zones", "").split(",")) {
+            if (!file.isBlank()) result.add(Path.of(file.trim()));
+        }
+        return result;
+    }
+
+    /*
+     * Zone snapshot compiled by ZoneCompiler that is answered
+     * authoritatively, null when not set */
+    public static Path zoneSnapshot() {
+        String file = System.getProperty("jdns.zoneSnapshot");
+        return file == null || file.isBlank() ? null : Path.of(file);
+    }
+
+    /*
+     * Time in milliseconds between checks whether zone files or snapshot
+     * changed, 0 disables reload */
+    public static long zoneReloadIntervalMillis() {
+        return Long.getLong("jdns.zoneReloadInterval", 5000L);
+    }
+
+    /*
+     * Files with blocked names separated by commas */
+    public static List<Path> blocklists() {
+        List<Path> result = new ArrayList<>();
+        for (String file : System.getProperty("jdns.blocklists", "").split(",")) {
+            if (!file.isBlank()) result.add(Path.of(file.trim()));
+        }
+        return result;
+    }
+
+    /*
+     * Addresses given in answers about blocked names, separated by commas.
+     * Blocked names get NXDOMAIN when there are none. */
+    public static List<InetAddress> sinkhole() {
+        List<InetAddress> result = new ArrayList<>();
+        for (String address : System.getProperty("jdns.sinkhole", "").split(",")) {
+            if (address.isBlank()) continue;
+            InetSocketAddress parsed = parseAddress(address.trim(), 0);
+            if (parsed.isUnresolved()) throw new IllegalArgumentException("Invalid sinkhole address " + address);
+            result.add(parsed.getAddress());
+        }
+        return result;
+    }
+
+    /*
+     * TTL of sinkhole records in seconds */
+    public static int sinkholeTtl() {
+        return Math.max(0, Integer.getInteger("jdns.sinkholeTtl", 60));
+    }
+
+    /*
+     * Time in milliseconds between checks whether blocklist files changed,
+     * 0 disables reload */
+    public static long blocklistReloadIntervalMillis() {
+        return Long.getLong("jdns.blocklistReloadInterval", 5000L);
+    }
+
+    /*
+     * Whether queries are resolved iteratively from root servers instead
+     * of being forwarded to upstream server */
+    public static boolean recursive() {
+        return Boolean.getBoolean("jdns.recursive");
+    }
+
+    /*
+     * Root servers in form host[:port] separated by commas where iterative
+     * resolution starts */
+    public static List<InetSocketAddress> rootHints() {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (String address : System.getProperty("jdns.rootHints", ROOT_SERVERS).split(",")) {
+            if (!address.isBlank()) result.add(parseAddress(address.trim(), nameServerPort()));
+        }
+        return result;
+    }
+
+    /*
+     * Port on which authoritative servers learned from referrals are
+     * contacted, changed only for tests with local servers */
+    public static int nameServerPort() {
+        return Integer.getInteger("jdns.nameServerPort", 53);
+    }
+
+    /*
+     * Time in milliseconds to wait for single authoritative server */
+    public static long nameServerTimeoutMillis() {
+        return Long.getLong("jdns.nameServerTimeout", 800L);
+    }
+
+    /*
+     * Maximum number of cached zone cuts and name server addresses */
+    public static int delegationCacheSize() {
+        return Integer.getInteger("jdns.delegationCacheSize", 10000);
+    }
+
+    /*
+     * Whether upstream replies are relayed to clients without parsing */
+    public static boolean passThrough() {
+        return Boolean.getBoolean("jdns.passThrough") && !recursive();
+    }
+
+    /*
+     * Size of packet buffers in bytes */
+    public static int bufferSize() {
+        return Integer.getInteger("jdns.bufferSize", BytePacketBuffer.DEFAULT_CAPACITY);
+    }
+
+    /*
+     * Largest EDNS UDP payload in bytes that is accepted from upstream and
+     * sent to clients. Default 1232 avoids IP fragmentation on common paths. */
+    public static int ednsPayloadSize() {
+        return Math.max(OptRecord.MIN_PAYLOAD_SIZE, Math.min(BytePacketBuffer.MAX_MESSAGE_SIZE,
+                Integer.getInteger("jdns.ednsPayloadSize", 1232)));
+    }
+
+    /*
+     * Size of buffers receiving upstream replies, big enough for both
+     * configured buffer size and advertised EDNS payload */
+    public static int upstreamBufferSize() {
+        return Math.max(bufferSize(), ednsPayloadSize());
+    }
+
+    /*
+     * Whether buffers used with channels are allocated in direct memory */
+    public static boolean directBuffers() {
+        return Boolean.getBoolean("jdns.directBuffers");
+    }
+
+    /*
+     * Whether every query and record is printed to console */
+    public static boolean debug() {
+        return Boolean.getBoolean("jdns.debug");
+    }
+
+    /*
+     * Responses per second sent over UDP to single client network of each
+     * response kind, 0 disables response rate limiting */
+    public static int rateLimit() {
+        return Math.max(0, Integer.getInteger("jdns.rateLimit", 0));
+    }
+
+    /*
+     * Every slip-th response over the rate limit is sent truncated instead
+     * of being dropped, 0 drops all of them */
+    public static int rateLimitSlip() {
+        return Integer.getInteger("jdns.rateLimitSlip", 2);
+    }
+
+    /*
+     * Prefix lengths of client networks sharing rate limit */
+    public static int rateLimitIpv4Prefix() {
+        return Integer.getInteger("jdns.rateLimitIpv4Prefix", 24);
+    }
+
+    public static int rateLimitIpv6Prefix() {
+        return Integer.getInteger("jdns.rateLimitIpv6Prefix", 56);
+    }
+
+    /*
+     * Number of rate limit buckets, memory used is 8 bytes per bucket */
+    public static int rateLimitTableSize() {
+        return Integer.getInteger("jdns.rateLimitTableSize", 65536);
+    }
+
+    /*
+     * Port of HTTP endpoint with metrics, 0 disables it */
+    public static int metricsPort() {
+        return Integer.getInteger("jdns.metricsPort", 0);
+    }
+
+    /*
+     * Directory of binary query log, logging is disabled when not set */
+    public static String queryLog() {
+        return System.getProperty("jdns.queryLog");
+    }
+
+    /*
+     * Number of events query log can hold before they are dropped */
+    public static int queryLogCapacity() {
+        return Integer.getInteger("jdns.queryLogCapacity", 65536);
+    }
+
+    /*
+     * Size in bytes after which query log file is rotated */
+    public static long queryLogFileSize() {
+        return Long.getLong("jdns.queryLogFileSize", 64L * 1024 * 1024);
+    }
+
+    /*
+     * Number of newest query log files that are kept */
+    public static int queryLogFiles() {
+        return Math.max(1, Integer.getInteger("jdns.queryLogFiles", 10));
+    }
+
+    /*
+     * Parses address in form host[:port] using given default port */
+    static InetSocketAddress parseAddress(String address, int defaultPort) {
+        int colon = address.lastIndexOf(':');
+        // More than one colon without brackets is bare IPv6 address
+        if (colon == -1 || address.indexOf(':') != colon && !address.startsWith("[")) {
+            return new InetSocketAddress(address, defaultPort);
+        }
+        String host = address.substring(0, colon).replace("[", "").replace("]", "");
+        return new InetSocketAddress(host, Integer.parseInt(address.substring(colon + 1)));
+    }
+
+}
@@ -0,0 +1,165 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Zone answered straight from memory-mapped snapshot written by
+ * ZoneCompiler. Opening snapshot only checks its header, so it takes the
+ * same time for any number of records, and records stay in page cache
+ * instead of on heap. Name is found by binary search over sorted index of
+ * the zone. RRsets of name are stored with their type and length, so
+ * checks for existence, delegation and type read only these headers, and
+ * records of RRset are decoded only when it goes into answer.
+ *
+ * Mapped buffer is only read with absolute positions, so it is shared by
+ * all workers. Mapping is released when the last zone of snapshot becomes
+ * unreachable, which lets reload replace snapshot file while old one is
+ * still used by queries in flight. */
+public class SnapshotZone extends Zone {
+
+    private final ByteBuffer snapshot;
+    private final int indexOffset;
+    private final int nameCnt;
+    private final int recordCnt;
+    private final DnsRecord soa;
+
+    private SnapshotZone(ByteBuffer snapshot, DnsName origin, int indexOffset, int nameCnt, int recordCnt)
+            throws IOException {
+        super(origin);
+        this.snapshot = snapshot;
+        this.indexOffset = indexOffset;
+        this.nameCnt = nameCnt;
+        this.recordCnt = recordCnt;
+
+        List<DnsRecord> soaRecords = rrset(origin, QueryType.SOA);
+        if (soaRecords == null) throw new IOException("Zone " + origin + " without SOA in snapshot");
+        this.soa = soaRecords.get(0);
+    }
+
+    /*
+     * Maps given snapshot and returns its zones */
+    public static List<Zone> open(Path path) throws IOException {
+        MappedByteBuffer snapshot;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException(path + ": Snapshot larger than 2 GB");
+            snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            for (int i = 0; i < ZoneCompiler.MAGIC.length; i++) {
+                if (snapshot.get(i) != ZoneCompiler.MAGIC[i]) throw new IOException(path + ": Not a zone snapshot");
+            }
+            int version = snapshot.getInt(8);
+            if (version != ZoneCompiler.VERSION) throw new IOException(path + ": Unsupported version " + version);
+
+            int zoneCnt = snapshot.getInt(12);
+            List<Zone> zones = new ArrayList<>(zoneCnt);
+            BytePacketBuffer reader = new BytePacketBuffer(snapshot);
+            for (int i = 0; i < zoneCnt; i++) {
+                int position = ZoneCompiler.HEADER_SIZE + i * ZoneCompiler.ZONE_SIZE;
+                reader.jump(snapshot.getInt(position));
+                DnsName origin = reader.readName();
+                zones.add(new SnapshotZone(snapshot, origin, snapshot.getInt(position + 4),
+                        snapshot.getInt(position + 8), snapshot.getInt(position + 12)));
+            }
+            return zones;
+        } catch (IOException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(path + ": Corrupted snapshot", ex);
+        }
+    }
+
+    @Override
+    protected boolean exists(DnsName name) {
+        return find(name) >= 0;
+    }
+
+    @Override
+    protected boolean hasRRset(DnsName name, QueryType queryType) {
+        return findRRset(name, queryType) >= 0;
+    }
+
+    @Override
+    protected List<DnsRecord> rrset(DnsName name, QueryType queryType) {
+        int rrset = findRRset(name, queryType);
+        if (rrset < 0) return null;
+
+        int count = this.snapshot.getShort(rrset + 2) & 0xFFFF;
+        List<DnsRecord> records = new ArrayList<>(count);
+        BytePacketBuffer reader = new BytePacketBuffer(this.snapshot);
+        reader.jump(rrset + ZoneCompiler.RRSET_HEADER_SIZE);
+        try {
+            for (int i = 0; i < count; i++) records.add(new DnsRecord().read(reader));
+        } catch (Exception ex) {
+            throw new IllegalStateException("Corrupted snapshot entry of " + name, ex);
+        }
+        return records;
+    }
+
+    /*
+     * Returns offset of RRset of given type of given name, -1 if there is
+     * none. Only headers of RRsets are read. */
+    private int findRRset(DnsName name, QueryType queryType) {
+        int entry = find(name);
+        if (entry < 0) return -1;
+
+        int position = entry + name.length();
+        int rrsetCnt = this.snapshot.getShort(position) & 0xFFFF;
+        position += 2;
+        for (int i = 0; i < rrsetCnt; i++) {
+            if (this.snapshot.getShort(position) == queryType.toNumber()) return position;
+            position += ZoneCompiler.RRSET_HEADER_SIZE + this.snapshot.getInt(position + 4);
+        }
+        return -1;
+    }
+
+    /*
+     * Returns offset of entry of given name, -1 if zone has no such name */
+    private int find(DnsName name) {
+        int low = 0;
+        int high = this.nameCnt - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = this.snapshot.getInt(this.indexOffset + middle * 4);
+            int comparison = compare(entry, name);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Compares name of entry at given offset with given name by unsigned
+     * wire bytes, in the same order as ZoneCompiler sorts entries */
+    private int compare(int entry, DnsName name) {
+        for (int i = 0; i < name.length(); i++) {
+            int difference = (this.snapshot.get(entry + i) & 0xFF) - (name.byteAt(i) & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+
+    @Override
+    public DnsRecord getSoa() {
+        return soa;
+    }
+
+    @Override
+    public int getRecordCnt() {
+        return recordCnt;
+    }
+
+}
@@ -0,0 +1,414 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * DNS over TCP (RFC 7766). Every message on connection is preceded by its
+ * length in 2 bytes. Client can send many queries without waiting for
+ * answers and every query is handled by worker pool on its own, so
+ * responses are sent in order in which they are ready, not in order of
+ * queries.
+ *
+ * Single selector thread accepts connections, reads queries and writes
+ * responses that could not be written right away by workers. Number of
+ * queries handled at the same time on one connection is limited; when the
+ * limit is reached connection is not read until some of them finish.
+ * Connections without queries in flight are closed after idle timeout. */
+public class TcpListener implements AutoCloseable {
+
+    // Size of read buffer of new connection, grows for bigger messages
+    private static final int INITIAL_READ_BUFFER = 1024;
+    // How often idle connections are looked for
+    private static final long IDLE_CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final BufferPool buffers;
+    private final Thread selectorThread;
+    private final int maxConnections;
+    private final int maxPipelined;
+    private final long idleTimeoutNanos;
+
+    // Accessed only by selector thread
+    private final Set<Connection> connections = new HashSet<>();
+
+    // Connections whose interest in reading or writing changed in workers
+    private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running;
+
+    public TcpListener(InetSocketAddress address, int workerCnt, int maxConnections, int maxPipelined,
+                       long idleTimeoutMillis) throws IOException {
+        this.maxConnections = maxConnections;
+        this.maxPipelined = maxPipelined;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.buffers = new BufferPool(workerCnt, ServerConfig.bufferSize(), false);
+
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(address);
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        AtomicInteger workerIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCnt, task -> {
+            Thread thread = new Thread(task, "jdns-tcp-worker-" + workerIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.running = true;
+        this.selectorThread = new Thread(this::selectLoop, "jdns-tcp");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+    }
+
+    /*
+     * Port the listener is bound to, useful when bound to port 0 */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) this.server.getLocalAddress()).getPort();
+    }
+
+    private void selectLoop() {
+        long lastIdleCheck = System.nanoTime();
+
+        while (this.running) {
+            try {
+                this.selector.select(TimeUnit.NANOSECONDS.toMillis(IDLE_CHECK_NANOS));
+
+                Connection connection;
+                while ((connection = this.changed.poll()) != null) {
+                    connection.updateInterest();
+                }
+
+                Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isWritable()) connection.flush();
+                    if (key.isValid() && key.isReadable()) connection.read();
+                    connection.updateInterest();
+                }
+
+                long now = System.nanoTime();
+                if (now - lastIdleCheck >= IDLE_CHECK_NANOS) {
+                    closeIdle(now);
+                    lastIdleCheck = now;
+                }
+            } catch (ClosedSelectorException ex) {
+                break;
+            } catch (IOException ex) {
+                if (!this.running) break;
+                System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = this.server.accept()) != null) {
+            // Over the limit new connections are closed right away
+            if (this.connections.size() >= this.maxConnections) {
+                channel.close();
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+            this.connections.add(connection);
+            Metrics.INSTANCE.tcpConnectionOpened();
+        }
+    }
+
+    /*
+     * Closes connections that have nothing in flight and were not active
+     * for longer than idle timeout */
+    private void closeIdle(long now) {
+        Iterator<Connection> it = this.connections.iterator();
+        while (it.hasNext()) {
+            Connection connection = it.next();
+            if (!connection.isOpen()
+                    || connection.isIdle() && now - connection.lastActivity > this.idleTimeoutNanos) {
+                connection.close();
+                it.remove();
+            }
+        }
+    }
+
+    /*
+     * Hands complete query read from connection to worker pool */
+    private void dispatch(Connection connection, ByteBuffer frame, int length) {
+        BytePacketBuffer requestBuffer = length <= ServerConfig.bufferSize()
+                ? this.buffers.acquire()
+                : new BytePacketBuffer(length);
+        requestBuffer.writeBytes(frame, length);
+        requestBuffer.jump(0);
+
+        connection.inFlight.incrementAndGet();
+        long receivedAt = System.nanoTime();
+        try {
+            this.workers.execute(() -> {
+                Metrics.INSTANCE.record(Metrics.Stage.RECEIVE, System.nanoTime() - receivedAt);
+                try {
+                    DnsServer.handleRequest(requestBuffer, length, connection);
+                } catch (Exception ex) {
+                    System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+                } finally {
+                    this.buffers.release(requestBuffer);
+                    connection.queryFinished();
+                }
+            });
+        } catch (Exception ex) {
+            // Pool was shut down while stopping
+            this.buffers.release(requestBuffer);
+            connection.inFlight.decrementAndGet();
+        }
+    }
+
+    /*
+     * Stops accepting connections, gives queries in flight time to finish
+     * and closes all connections. When interrupted, queries in flight are
+     * abandoned and interrupt status is kept. */
+    @Override
+    public void close() throws IOException {
+        this.workers.shutdown();
+        try {
+            this.workers.awaitTermination(ServerConfig.shutdownTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            this.workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        this.running = false;
+        this.selector.wakeup();
+        try {
+            this.selectorThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.connections.forEach(Connection::close);
+        this.connections.clear();
+        this.server.close();
+        this.selector.close();
+    }
+
+    /*
+     * Single client connection. Workers send responses through it, so it
+     * is used both by selector thread and worker threads. */
+    private final class Connection implements Responder {
+
+        private final SocketChannel channel;
+        private final InetSocketAddress remote;
+        private SelectionKey key;
+
+        // Used only by selector thread
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        private boolean inputClosed;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile long lastActivity = System.nanoTime();
+        // Closed by selector thread or worker, whichever comes first
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        // Framed responses that did not fit into socket buffer, guarded by this
+        private final Queue<ByteBuffer> pendingWrites = new ArrayDeque<>();
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.remote = (InetSocketAddress) channel.getRemoteAddress();
+        }
+
+        @Override
+        public InetAddress getAddress() {
+            return this.remote.getAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return this.remote.getPort();
+        }
+
+        @Override
+        public int getMaxSize(int payloadSize) {
+            return BytePacketBuffer.MAX_MESSAGE_SIZE;
+        }
+
+        @Override
+        public boolean isDatagram() {
+            return false;
+        }
+
+        /*
+         * Frames response and writes as much as socket accepts. Rest is
+         * written by selector thread when socket becomes writable. */
+        @Override
+        public void send(BytePacketBuffer responseBuffer) throws IOException {
+            int length = responseBuffer.getPosition();
+            ByteBuffer frame = ByteBuffer.allocate(length + 2);
+            frame.putShort((short) length);
+            responseBuffer.copyTo(frame);
+            frame.flip();
+
+            boolean blocked;
+            synchronized (this) {
+                try {
+                    if (this.pendingWrites.isEmpty()) this.channel.write(frame);
+                } catch (IOException ex) {
+                    // Client went away, there is nobody to tell about it
+                    close();
+                    return;
+                }
+                blocked = frame.hasRemaining();
+                if (blocked) this.pendingWrites.add(frame);
+            }
+            this.lastActivity = System.nanoTime();
+            if (blocked) requestUpdate();
+        }
+
+        /*
+         * Reads available bytes and dispatches every complete query */
+        private void read() {
+            int read;
+            try {
+                read = this.channel.read(this.readBuffer);
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            if (read < 0) {
+                // Client is done sending, responses in flight are still written
+                this.inputClosed = true;
+                return;
+            }
+            this.lastActivity = System.nanoTime();
+            dispatchComplete();
+        }
+
+        /*
+         * Dispatches complete queries from read buffer while limit of
+         * queries in flight allows it */
+        private void dispatchComplete() {
+            this.readBuffer.flip();
+            while (this.readBuffer.remaining() >= 2 && this.inFlight.get() < maxPipelined) {
+                int length = this.readBuffer.getShort(this.readBuffer.position()) & 0xFFFF;
+                if (this.readBuffer.remaining() < length + 2) break;
+                this.readBuffer.position(this.readBuffer.position() + 2);
+                dispatch(this, this.readBuffer, length);
+            }
+
+            // Make room for rest of the message if it is bigger than buffer
+            if (this.readBuffer.remaining() >= 2) {
+                int needed = (this.readBuffer.getShort(this.readBuffer.position()) & 0xFFFF) + 2;
+                if (needed > this.readBuffer.capacity()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(needed);
+                    bigger.put(this.readBuffer);
+                    this.readBuffer = bigger;
+                    return;
+                }
+            }
+            this.readBuffer.compact();
+        }
+
+        /*
+         * Writes queued responses, called by selector thread */
+        private synchronized void flush() {
+            try {
+                while (!this.pendingWrites.isEmpty()) {
+                    ByteBuffer frame = this.pendingWrites.peek();
+                    this.channel.write(frame);
+                    if (frame.hasRemaining()) return;
+                    this.pendingWrites.poll();
+                }
+            } catch (IOException ex) {
+                this.pendingWrites.clear();
+                close();
+            }
+        }
+
+        private void queryFinished() {
+            // Reading was paused when limit was reached
+            if (this.inFlight.getAndDecrement() >= maxPipelined || this.inputClosed) requestUpdate();
+        }
+
+        /*
+         * Asks selector thread to recompute interest of this connection */
+        private void requestUpdate() {
+            changed.add(this);
+            selector.wakeup();
+        }
+
+        /*
+         * Sets interest in reading and writing, called by selector thread */
+        private void updateInterest() {
+            if (!this.key.isValid()) return;
+            // Queries left in buffer while limit was reached
+            if (this.inFlight.get() < maxPipelined && this.readBuffer.position() > 0) dispatchComplete();
+
+            boolean writesPending;
+            synchronized (this) {
+                writesPending = !this.pendingWrites.isEmpty();
+            }
+
+            // Closed input with everything answered ends the connection
+            if (this.inputClosed && this.inFlight.get() == 0 && !writesPending) {
+                close();
+                return;
+            }
+
+            int ops = 0;
+            if (!this.inputClosed && this.inFlight.get() < maxPipelined) ops |= SelectionKey.OP_READ;
+            if (writesPending) ops |= SelectionKey.OP_WRITE;
+            this.key.interestOps(ops);
+        }
+
+        private boolean isOpen() {
+            return this.channel.isOpen();
+        }
+
+        private boolean isIdle() {
+            synchronized (this) {
+                if (!this.pendingWrites.isEmpty()) return false;
+            }
+            return this.inFlight.get() == 0;
+        }
+
+        private void close() {
+            if (!this.closed.compareAndSet(false, true)) return;
+            try {
+                this.channel.close();
+            } catch (IOException ex) {
+                // Nothing more to do with broken connection
+            }
+            Metrics.INSTANCE.tcpConnectionClosed();
+        }
+    }
+
+}
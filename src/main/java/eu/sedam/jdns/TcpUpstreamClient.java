@@ -0,0 +1,292 @@
+package eu.sedam.jdns;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Client for the upstream DNS server over TCP, used when reply over UDP
+ * comes back truncated. Small pool of connections is kept open and reused,
+ * so connection setup is paid once and not for every truncated reply.
+ * Queries are pipelined - many of them can be outstanding on one
+ * connection and replies are matched to callers by transaction ID and
+ * question, in whatever order they arrive.
+ *
+ * Connections are opened on first use and opened again after server
+ * closes them, which servers usually do after some idle time. */
+public class TcpUpstreamClient implements AutoCloseable {
+
+    // Maximum number of attempts to find unused transaction ID
+    private static final int MAX_ID_ATTEMPTS = 16;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private final InetSocketAddress server;
+    private final long timeoutMillis;
+    private final Connection[] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    // Connecting and writing blocks, so it is done off the caller's thread
+    private final ExecutorService senders;
+
+    private volatile boolean running = true;
+
+    public TcpUpstreamClient(InetSocketAddress server, int connections, long timeoutMillis) {
+        this.server = server;
+        this.timeoutMillis = timeoutMillis;
+        this.connections = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            this.connections[i] = new Connection(i);
+        }
+
+        AtomicInteger senderIndex = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(connections, task -> {
+            Thread thread = new Thread(task, "jdns-upstream-tcp-" + senderIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /*
+     * Sends already serialized query in given buffer (up to its position) and
+     * returns future raw response. Request is copied before this method
+     * returns, so buffer can be reused by caller. Response buffer is
+     * positioned after its last byte. */
+    public CompletableFuture<BytePacketBuffer> send(BytePacketBuffer requestBuffer, DnsQuestion question) {
+        CompletableFuture<BytePacketBuffer> future = new CompletableFuture<>();
+        if (!this.running) {
+            future.completeExceptionally(new IOException("Upstream client closed"));
+            return future;
+        }
+
+        int length = requestBuffer.getPosition();
+        ByteBuffer frame = ByteBuffer.allocate(length + 2);
+        frame.putShort((short) length);
+        requestBuffer.copyTo(frame);
+        frame.flip();
+
+        Connection connection = this.connections[Math.floorMod(this.nextConnection.getAndIncrement(),
+                this.connections.length)];
+        Pending entry = new Pending(question, future, frame);
+
+        long start = System.nanoTime();
+        future.orTimeout(this.timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((result, ex) -> {
+                    connection.pending.values().remove(entry);
+                    if (ex == null) {
+                        Metrics.INSTANCE.record(Metrics.Stage.UPSTREAM, System.nanoTime() - start);
+                    } else {
+                        Metrics.INSTANCE.countUpstreamFailure(ex);
+                    }
+                });
+
+        try {
+            this.senders.execute(() -> connection.send(entry));
+        } catch (Exception ex) {
+            future.completeExceptionally(new IOException("Upstream client closed"));
+        }
+        return future;
+    }
+
+    /*
+     * Number of queries waiting for response */
+    public int getPendingCount() {
+        int count = 0;
+        for (Connection connection : this.connections) count += connection.pending.size();
+        return count;
+    }
+
+    /*
+     * Closes all connections and fails outstanding queries */
+    @Override
+    public void close() {
+        this.running = false;
+        this.senders.shutdownNow();
+        for (Connection connection : this.connections) {
+            connection.reset(new IOException("Upstream client closed"));
+        }
+    }
+
+    /*
+     * Single connection to the server with its own reader thread */
+    private final class Connection {
+
+        private final int index;
+
+        // Outstanding queries keyed by transaction ID
+        private final Map<Short, Pending> pending = new ConcurrentHashMap<>();
+
+        // Guarded by this
+        private SocketChannel channel;
+
+        private Connection(int index) {
+            this.index = index;
+        }
+
+        /*
+         * Writes query to the connection, opening it first if needed */
+        private synchronized void send(Pending entry) {
+            if (entry.future.isDone()) return;
+            short id = 0;
+            boolean registered = false;
+            for (int i = 0; i < MAX_ID_ATTEMPTS && !registered; i++) {
+                id = (short) RANDOM.get().nextInt(0x10000);
+                registered = this.pending.putIfAbsent(id, entry) == null;
+            }
+            if (!registered) {
+                entry.future.completeExceptionally(new IOException("No free transaction ID"));
+                return;
+            }
+            ByteBuffer frame = entry.frame;
+            frame.putShort(2, id);
+            frame.rewind();
+
+            try {
+                SocketChannel current = connect();
+                while (frame.hasRemaining()) current.write(frame);
+            } catch (IOException ex) {
+                // Connection may have been closed by server while idle
+                retryPending(ex);
+            }
+        }
+
+        private SocketChannel connect() throws IOException {
+            if (this.channel != null && this.channel.isOpen()) return this.channel;
+
+            SocketChannel opened = SocketChannel.open();
+            try {
+                opened.socket().connect(server, (int) timeoutMillis);
+                opened.socket().setTcpNoDelay(true);
+            } catch (IOException ex) {
+                opened.close();
+                throw ex;
+            }
+            this.channel = opened;
+
+            Thread reader = new Thread(() -> readLoop(opened), "jdns-upstream-tcp-reader-" + this.index);
+            reader.setDaemon(true);
+            reader.start();
+            return opened;
+        }
+
+        /*
+         * Reads replies until connection is closed and completes matching
+         * queries */
+        private void readLoop(SocketChannel current) {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(2);
+            try {
+                while (true) {
+                    lengthBuffer.clear();
+                    readFully(current, lengthBuffer);
+                    ByteBuffer message = ByteBuffer.allocate(lengthBuffer.getShort(0) & 0xFFFF);
+                    readFully(current, message);
+                    dispatch(new BytePacketBuffer(message));
+                }
+            } catch (IOException ex) {
+                synchronized (this) {
+                    if (this.channel != current) return;
+
+                    // Server may close idle connection just as query is sent on it
+                    if (ex instanceof EOFException) {
+                        retryPending(ex);
+                    } else {
+                        reset(ex);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Closes broken connection and sends queries waiting on it once more
+         * on new connection. Queries that were already sent again fail with
+         * given cause. */
+        private synchronized void retryPending(IOException cause) {
+            List<Pending> retry = new ArrayList<>();
+            for (Pending entry : this.pending.values()) {
+                if (entry.retried) continue;
+                entry.retried = true;
+                retry.add(entry);
+            }
+            this.pending.values().removeAll(retry);
+            reset(cause);
+            retry.forEach(x -> {
+                try {
+                    senders.execute(() -> send(x));
+                } catch (Exception rejected) {
+                    x.future.completeExceptionally(cause);
+                }
+            });
+        }
+
+        private void dispatch(BytePacketBuffer responseBuffer) {
+            try {
+                DnsHeader header = new DnsHeader();
+                header.read(responseBuffer);
+                Pending entry = this.pending.get(header.getId());
+                if (entry == null || header.getQuestionsCnt() != 1) return;
+
+                // Reply must repeat the question we asked
+                DnsQuestion question = new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN);
+                question.read(responseBuffer);
+                if (question.getQueryType() != entry.question.getQueryType()
+                        || !question.getDnsName().equals(entry.question.getDnsName())) return;
+
+                this.pending.remove(header.getId(), entry);
+                responseBuffer.jump(responseBuffer.getLimit());
+                entry.future.complete(responseBuffer);
+            } catch (Exception ex) {
+                // Malformed reply - query will time out
+            }
+        }
+
+        /*
+         * Closes connection and fails every query waiting on it */
+        private synchronized void reset(IOException cause) {
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException ex) {
+                    // Already broken
+                }
+                this.channel = null;
+            }
+            this.pending.values().forEach(x -> x.future.completeExceptionally(cause));
+            this.pending.clear();
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("Connection closed by upstream");
+        }
+    }
+
+    /*
+     * Query waiting for response */
+    private static final class Pending {
+        private final DnsQuestion question;
+        private final CompletableFuture<BytePacketBuffer> future;
+        // Framed query, kept so it can be sent again
+        private final ByteBuffer frame;
+        private boolean retried;
+
+        private Pending(DnsQuestion question, CompletableFuture<BytePacketBuffer> future, ByteBuffer frame) {
+            this.question = question;
+            this.future = future;
+            this.frame = frame;
+        }
+    }
+
+}
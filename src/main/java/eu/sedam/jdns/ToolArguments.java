@@ -0,0 +1,66 @@
+package eu.sedam.jdns;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Minimal parser of "--name value" command line arguments used by tools */
+public class ToolArguments {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    public ToolArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            String name = args[i].substring(2);
+            // Flag without value is treated as true
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                this.values.put(name, args[++i]);
+            } else {
+                this.values.put(name, "true");
+            }
+        }
+    }
+
+    public String getString(String name, String defaultValue) {
+        return this.values.getOrDefault(name, defaultValue);
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = this.values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        String value = this.values.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    public boolean getBoolean(String name) {
+        return Boolean.parseBoolean(this.values.get(name));
+    }
+
+    /*
+     * Returns duration in nanoseconds. Value can have suffix ns, us, ms,
+     * s or m; plain number is in milliseconds. */
+    public long getNanos(String name, String defaultValue) {
+        return parseNanos(this.values.getOrDefault(name, defaultValue));
+    }
+
+    static long parseNanos(String value) {
+        String number = value.replaceAll("[a-z]+$", "");
+        String unit = value.substring(number.length());
+        double amount = Double.parseDouble(number);
+        long nanosPerUnit = switch (unit) {
+            case "ns" -> 1L;
+            case "us" -> TimeUnit.MICROSECONDS.toNanos(1);
+            case "", "ms" -> TimeUnit.MILLISECONDS.toNanos(1);
+            case "s" -> TimeUnit.SECONDS.toNanos(1);
+            case "m" -> TimeUnit.MINUTES.toNanos(1);
+            default -> throw new IllegalArgumentException("Unknown time unit in " + value);
+        };
+        return (long) (amount * nanosPerUnit);
+    }
+
+}
@@ -0,0 +1,53 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+/*
+ * Sends response as single datagram to the sender of the query */
+public class UdpResponder implements Responder {
+
+    // Cap of payload size advertised by clients
+    private static final int MAX_PAYLOAD_SIZE = ServerConfig.ednsPayloadSize();
+
+    private final DatagramSocket socket;
+    private final InetAddress address;
+    private final int port;
+
+    public UdpResponder(DatagramSocket socket, InetAddress address, int port) {
+        this.socket = socket;
+        this.address = address;
+        this.port = port;
+    }
+
+    @Override
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    /*
+     * Plain DNS over UDP is limited to 512 bytes (RFC 1035), with EDNS it is
+     * the size advertised by client but no more than configured cap
+     * (RFC 6891 section 6.2.5) */
+    @Override
+    public int getMaxSize(int payloadSize) {
+        return Math.max(OptRecord.MIN_PAYLOAD_SIZE, Math.min(payloadSize, MAX_PAYLOAD_SIZE));
+    }
+
+    @Override
+    public boolean isDatagram() {
+        return true;
+    }
+
+    @Override
+    public void send(BytePacketBuffer responseBuffer) throws IOException {
+        responseBuffer.send(this.socket, this.address, this.port);
+    }
+
+}
@@ -0,0 +1,307 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Client for the upstream DNS server that owns a small pool of long-lived
+ * UDP sockets. Many queries can be outstanding on each socket at the same
+ * time. Every query gets random transaction ID and reply is matched to
+ * waiting caller by socket, ID and question, so replies arriving out of
+ * order or forged replies with wrong question are handled correctly.
+ *
+ * Single selector thread reads replies from all sockets and only matches
+ * them to waiting callers. Futures are completed on small pool of threads,
+ * so parsing of replies and callbacks of callers (caching, coalescing) run
+ * in parallel and slow callback does not hold back other sockets. Queries advertise EDNS payload size, so
+ * most large answers fit into single datagram. Replies that come back
+ * truncated anyway are repeated over TCP with TcpUpstreamClient. */
+public class UpstreamClient implements AutoCloseable {
+
+    // Maximum number of attempts to find unused transaction ID
+    private static final int MAX_ID_ATTEMPTS = 16;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    // EDNS payload size advertised in queries
+    private static final int EDNS_PAYLOAD_SIZE = ServerConfig.ednsPayloadSize();
+
+    private final DatagramChannel[] channels;
+    private final Selector selector;
+    private final Thread receiver;
+    private final long timeoutMillis;
+    private final TcpUpstreamClient tcp;
+    // Completes futures of matched replies off the selector thread
+    private final ExecutorService completions;
+
+    // Outstanding queries keyed by socket index and transaction ID
+    private final Map<Integer, Pending> pending = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+
+    public UpstreamClient(InetSocketAddress server, int sockets, long timeoutMillis) throws IOException {
+        this(server, sockets, ServerConfig.upstreamTcpConnections(), timeoutMillis);
+    }
+
+    public UpstreamClient(InetSocketAddress server, int sockets, int tcpConnections, long timeoutMillis)
+            throws IOException {
+        this.timeoutMillis = timeoutMillis;
+        this.tcp = new TcpUpstreamClient(server, tcpConnections, timeoutMillis);
+        this.selector = Selector.open();
+        this.channels = new DatagramChannel[sockets];
+
+        for (int i = 0; i < sockets; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            // Connected channel drops datagrams from anyone but the server
+            channel.connect(server);
+            channel.configureBlocking(false);
+            channel.register(this.selector, SelectionKey.OP_READ, i);
+            this.channels[i] = channel;
+        }
+
+        AtomicInteger completionIndex = new AtomicInteger();
+        this.completions = Executors.newFixedThreadPool(ServerConfig.upstreamThreads(), task -> {
+            Thread thread = new Thread(task, "jdns-upstream-completion-" + completionIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.running = true;
+        this.receiver = new Thread(this::receiveLoop, "jdns-upstream");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    /*
+     * Sends query for given name and type and returns future parsed response */
+    public CompletableFuture<DnsPacket> query(String qname, QueryType queryType) {
+        return query(DnsName.of(qname), queryType);
+    }
+
+    public CompletableFuture<DnsPacket> query(DnsName qname, QueryType queryType) {
+        DnsQuestion question = new DnsQuestion(qname, queryType);
+
+        // Query is sent before this method returns so thread's buffer can be used
+        return send(writeQuery(question), question).thenCompose(responseBuffer -> {
+            if ((responseBuffer.getOne(2) & 0x02) == 0) return CompletableFuture.completedFuture(responseBuffer);
+
+            // Answer did not fit into datagram, ask again over TCP
+            Metrics.INSTANCE.countUpstreamTruncated();
+            return this.tcp.send(writeQuery(question), question);
+        }).thenApply(responseBuffer -> {
+            try {
+                responseBuffer.jump(0);
+                return new DnsPacket().fromBuffer(responseBuffer);
+            } catch (Exception ex) {
+                throw new IllegalStateException("Malformed upstream response", ex);
+            }
+        });
+    }
+
+    /*
+     * Writes recursive query with given question to buffer of current thread */
+    private static BytePacketBuffer writeQuery(DnsQuestion question) {
+        DnsPacket packet = new DnsPacket();
+
+        // Set to true so upstream server resolves it for us
+        packet.getHeader().setRecursionDesired(true);
+        packet.getQuestions().add(question);
+        packet.setOpt(new OptRecord(EDNS_PAYLOAD_SIZE));
+
+        BytePacketBuffer requestBuffer = BufferPool.threadLocal();
+        packet.write(requestBuffer);
+        return requestBuffer;
+    }
+
+    /*
+     * Sends already serialized query in given buffer (up to its position) and
+     * returns future raw response. Transaction ID of the query is overwritten
+     * with random one. Response buffer is positioned after its last byte. */
+    public CompletableFuture<BytePacketBuffer> send(BytePacketBuffer requestBuffer, DnsQuestion question) {
+        CompletableFuture<BytePacketBuffer> future = new CompletableFuture<>();
+        if (!this.running) {
+            future.completeExceptionally(new IOException("Upstream client closed"));
+            return future;
+        }
+
+        // Spread queries over sockets randomly
+        int channelIndex = ThreadLocalRandom.current().nextInt(this.channels.length);
+
+        Pending entry = new Pending(question, future);
+        int key = -1;
+        short id = 0;
+        for (int i = 0; i < MAX_ID_ATTEMPTS; i++) {
+            id = (short) RANDOM.get().nextInt(0x10000);
+            int candidate = pendingKey(channelIndex, id);
+            if (this.pending.putIfAbsent(candidate, entry) == null) {
+                key = candidate;
+                break;
+            }
+        }
+        if (key == -1) {
+            future.completeExceptionally(new IOException("No free transaction ID"));
+            return future;
+        }
+
+        // Forget query when it completes in any way, including timeout
+        int registeredKey = key;
+        long start = System.nanoTime();
+        future.orTimeout(this.timeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((result, ex) -> {
+                    this.pending.remove(registeredKey, entry);
+                    if (ex == null) {
+                        Metrics.INSTANCE.record(Metrics.Stage.UPSTREAM, System.nanoTime() - start);
+                    } else {
+                        Metrics.INSTANCE.countUpstreamFailure(ex);
+                    }
+                });
+
+        requestBuffer.setTwo(0, id);
+        try {
+            int sent = requestBuffer.write(this.channels[channelIndex]);
+            if (sent == 0) throw new IOException("Socket send buffer full");
+        } catch (IOException ex) {
+            future.completeExceptionally(ex);
+        }
+
+        return future;
+    }
+
+    /*
+     * Same as send, but reply that comes back truncated is repeated over
+     * TCP, so returned reply is never truncated. Request is copied, so
+     * buffer can be reused by caller after this method returns. */
+    public CompletableFuture<BytePacketBuffer> relay(BytePacketBuffer requestBuffer, DnsQuestion question) {
+        byte[] request = requestBuffer.getRange(0, requestBuffer.getPosition());
+        return send(requestBuffer, question).thenCompose(responseBuffer -> {
+            if ((responseBuffer.getOne(2) & 0x02) == 0) return CompletableFuture.completedFuture(responseBuffer);
+
+            Metrics.INSTANCE.countUpstreamTruncated();
+            BytePacketBuffer copy = new BytePacketBuffer(ByteBuffer.wrap(request));
+            copy.jump(request.length);
+            return this.tcp.send(copy, question);
+        });
+    }
+
+    /*
+     * Number of queries waiting for response */
+    public int getPendingCount() {
+        return this.pending.size() + this.tcp.getPendingCount();
+    }
+
+    /*
+     * Reads replies from all sockets and completes matching queries */
+    private void receiveLoop() {
+        // Single buffer for reading, caller gets heap copy of its reply
+        BytePacketBuffer readBuffer = ServerConfig.directBuffers()
+                ? BytePacketBuffer.allocateDirect(ServerConfig.upstreamBufferSize())
+                : new BytePacketBuffer(ServerConfig.upstreamBufferSize());
+
+        while (this.running) {
+            try {
+                this.selector.select();
+                for (SelectionKey selectionKey : this.selector.selectedKeys()) {
+                    DatagramChannel channel = (DatagramChannel) selectionKey.channel();
+                    int channelIndex = (Integer) selectionKey.attachment();
+
+                    // Drain every datagram waiting on this socket
+                    while (true) {
+                        int length;
+                        try {
+                            length = readBuffer.read(channel);
+                        } catch (IOException ex) {
+                            // ICMP port unreachable and similar errors surface
+                            // here; affected queries will time out
+                            break;
+                        }
+                        if (length <= 0) break;
+                        dispatch(channelIndex, readBuffer, length);
+                    }
+                }
+                this.selector.selectedKeys().clear();
+            } catch (IOException | ClosedSelectorException ex) {
+                if (!this.running) break;
+            }
+        }
+    }
+
+    /*
+     * Hands copy of reply of given length in given buffer to pending query
+     * it matches */
+    private void dispatch(int channelIndex, BytePacketBuffer readBuffer, int length) {
+        Pending entry;
+        try {
+            DnsHeader header = new DnsHeader();
+            header.read(readBuffer);
+            entry = this.pending.get(pendingKey(channelIndex, header.getId()));
+            if (entry == null) return;
+
+            // Reply must repeat the question we asked
+            if (header.getQuestionsCnt() != 1) return;
+            DnsQuestion question = new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN);
+            question.read(readBuffer);
+            if (question.getQueryType() != entry.question.getQueryType()
+                    || !question.getDnsName().equals(entry.question.getDnsName())) return;
+        } catch (Exception ex) {
+            // Malformed datagram - ignore it
+            return;
+        }
+
+        BytePacketBuffer responseBuffer = new BytePacketBuffer(ByteBuffer.wrap(readBuffer.getRange(0, length)));
+        responseBuffer.jump(length);
+        try {
+            this.completions.execute(() -> entry.future.complete(responseBuffer));
+        } catch (RejectedExecutionException ex) {
+            // Client is closing
+            entry.future.complete(responseBuffer);
+        }
+    }
+
+    private static int pendingKey(int channelIndex, short id) {
+        return (channelIndex << 16) | (id & 0xFFFF);
+    }
+
+    /*
+     * Stops receiver thread, closes sockets and fails outstanding queries */
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.tcp.close();
+        this.completions.shutdown();
+        this.selector.close();
+        for (DatagramChannel channel : this.channels) {
+            channel.close();
+        }
+        IOException closed = new IOException("Upstream client closed");
+        this.pending.values().forEach(x -> x.future.completeExceptionally(closed));
+        this.pending.clear();
+    }
+
+    /*
+     * Query waiting for response */
+    private static final class Pending {
+        private final DnsQuestion question;
+        private final CompletableFuture<BytePacketBuffer> future;
+
+        private Pending(DnsQuestion question, CompletableFuture<BytePacketBuffer> future) {
+            this.question = question;
+            this.future = future;
+        }
+    }
+
+}
@@ -0,0 +1,339 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/*
+ * Set of upstream servers that queries are forwarded to. Every server has
+ * its own UpstreamClient and keeps smoothed round trip time and failure
+ * score, which is moving average of failed queries. Query goes to the healthy server with the lowest
+ * smoothed RTT, servers not measured yet are tried first.
+ *
+ * When selected server does not answer within its 95th percentile RTT,
+ * duplicate query is sent to the next best server and the first usable
+ * answer wins. Server that fails, or answers SERVFAIL or REFUSED, is
+ * replaced by the next one right away. Server whose failure score gets
+ * over threshold is skipped for a while and then given single probe query,
+ * which clears its score when answered. */
+public class UpstreamPool implements AutoCloseable {
+
+    // Weights of new sample in smoothed RTT and its variation (RFC 6298)
+    private static final double RTT_ALPHA = 1.0 / 8;
+    private static final double RTT_BETA = 1.0 / 4;
+    // Weight of new result in failure score and score at which server is skipped
+    private static final double FAILURE_ALPHA = 1.0 / 8;
+    private static final double FAILURE_THRESHOLD = 0.5;
+    // Time for which failing server is skipped
+    private static final long BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Number of RTT samples after which percentile used for hedging is recomputed
+    private static final int WINDOW_SAMPLES = 1000;
+    // Percentile of RTT after which hedged query is sent
+    private static final double HEDGE_PERCENTILE = 95;
+
+    private final Upstream[] upstreams;
+    private final long timeoutNanos;
+    private final boolean hedge;
+
+    // Single thread firing hedged queries, only used with more servers
+    private final ScheduledThreadPoolExecutor hedgeTimer;
+
+    public UpstreamPool(List<InetSocketAddress> servers, int sockets, int tcpConnections, long timeoutMillis,
+                        boolean hedge) throws IOException {
+        if (servers.isEmpty()) throw new IllegalArgumentException("No upstream server");
+        this.upstreams = new Upstream[servers.size()];
+        for (int i = 0; i < servers.size(); i++) {
+            this.upstreams[i] = new Upstream(servers.get(i),
+                    new UpstreamClient(servers.get(i), sockets, tcpConnections, timeoutMillis));
+        }
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.hedge = hedge && servers.size() > 1;
+
+        if (this.hedge) {
+            this.hedgeTimer = new ScheduledThreadPoolExecutor(1, task -> {
+                Thread thread = new Thread(task, "jdns-upstream-hedge");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Most timers are cancelled because answer came in time
+            this.hedgeTimer.setRemoveOnCancelPolicy(true);
+        } else {
+            this.hedgeTimer = null;
+        }
+    }
+
+    /*
+     * Sends query for given name and type and returns future parsed response */
+    public CompletableFuture<DnsPacket> query(DnsName qname, QueryType queryType) {
+        return lookup(client -> client.query(qname, queryType), UpstreamPool::isServerFailure);
+    }
+
+    /*
+     * Sends already serialized query in given buffer (up to its position) and
+     * returns future raw response, see UpstreamClient.relay. Truncated reply
+     * is repeated over TCP. Query is copied when it may need to be sent
+     * again, so buffer can be reused by caller after this method returns. */
+    public CompletableFuture<BytePacketBuffer> send(BytePacketBuffer requestBuffer, DnsQuestion question) {
+        // Single server is never asked twice
+        if (this.upstreams.length == 1) {
+            return lookup(client -> client.relay(requestBuffer, question), UpstreamPool::isServerFailure);
+        }
+
+        byte[] request = requestBuffer.getRange(0, requestBuffer.getPosition());
+        return lookup(client -> {
+            BytePacketBuffer copy = new BytePacketBuffer(ByteBuffer.wrap(request.clone()));
+            copy.jump(request.length);
+            return client.relay(copy, question);
+        }, UpstreamPool::isServerFailure);
+    }
+
+    /*
+     * Number of queries waiting for response */
+    public int getPendingCount() {
+        int count = 0;
+        for (Upstream upstream : this.upstreams) count += upstream.client.getPendingCount();
+        return count;
+    }
+
+    /*
+     * Registers statistics read by metrics endpoint */
+    public void registerMetrics(Metrics metrics) {
+        metrics.registerUpstream(this::getSmoothedRttMicros, this::getHealthy);
+    }
+
+    /*
+     * Smoothed RTT of every server in microseconds, 0 for servers that did
+     * not answer yet */
+    public Map<String, Double> getSmoothedRttMicros() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Upstream upstream : this.upstreams) result.put(upstream.name, upstream.srtt / 1000.0);
+        return result;
+    }
+
+    /*
+     * Whether every server is currently used or skipped after failures */
+    public Map<String, Boolean> getHealthy() {
+        long now = System.nanoTime();
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        for (Upstream upstream : this.upstreams) {
+            result.put(upstream.name, !upstream.isFailing() || now - upstream.failedAt.get() > BACKOFF_NANOS);
+        }
+        return result;
+    }
+
+    /*
+     * Sends query to the best server, and to the next one when the first
+     * is slow or fails */
+    private <T> CompletableFuture<T> lookup(Function<UpstreamClient, CompletableFuture<T>> query,
+                                            Predicate<T> serverFailure) {
+        Lookup<T> lookup = new Lookup<>(query, serverFailure);
+        Upstream primary = select(null);
+        lookup.primary = primary;
+        attempt(lookup, primary, false);
+
+        if (this.hedge && !lookup.result.isDone()) {
+            ScheduledFuture<?> timer = this.hedgeTimer.schedule(() -> {
+                if (!lookup.result.isDone() && lookup.retried.compareAndSet(false, true)) {
+                    Metrics.INSTANCE.countUpstreamHedged();
+                    attempt(lookup, select(primary), true);
+                }
+            }, primary.hedgeDelay(this.timeoutNanos), TimeUnit.NANOSECONDS);
+            lookup.result.whenComplete((result, ex) -> timer.cancel(false));
+        }
+        return lookup.result;
+    }
+
+    private <T> void attempt(Lookup<T> lookup, Upstream upstream, boolean hedged) {
+        lookup.outstanding.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = lookup.query.apply(upstream.client);
+        } catch (Exception ex) {
+            future = CompletableFuture.failedFuture(ex);
+        }
+
+        future.whenComplete((reply, ex) -> {
+            if (ex == null && !lookup.serverFailure.test(reply)) {
+                upstream.success(System.nanoTime() - start);
+                if (lookup.result.complete(reply) && hedged) Metrics.INSTANCE.countUpstreamHedgeWon();
+            } else {
+                upstream.failure(System.nanoTime());
+                if (ex == null) {
+                    lookup.fallback = reply;
+                } else {
+                    lookup.error = ex;
+                }
+                // Failed primary is replaced without waiting for hedge timer
+                if (!lookup.result.isDone() && lookup.retried.compareAndSet(false, true)) {
+                    Upstream next = select(lookup.primary);
+                    if (next != lookup.primary) attempt(lookup, next, false);
+                }
+            }
+
+            if (lookup.outstanding.decrementAndGet() == 0 && !lookup.result.isDone()) {
+                // No server gave usable answer, pass on the last one we got
+                if (lookup.fallback != null) {
+                    lookup.result.complete(lookup.fallback);
+                } else {
+                    lookup.result.completeExceptionally(lookup.error);
+                }
+            }
+        });
+    }
+
+    /*
+     * Returns healthy server with the lowest smoothed RTT other than given
+     * one. When no such server is healthy, the one with the lowest failure
+     * score is returned, which is given one only if there is no other. */
+    private Upstream select(Upstream excluded) {
+        long now = System.nanoTime();
+        Upstream best = null;
+        Upstream leastFailing = null;
+        for (Upstream upstream : this.upstreams) {
+            if (upstream == excluded) continue;
+            if (!upstream.isFailing()) {
+                if (best == null || upstream.srtt < best.srtt) best = upstream;
+            } else if (upstream.claimProbe(now)) {
+                // Backoff is over, this query finds out if server is back
+                return upstream;
+            } else if (leastFailing == null || upstream.failureScore < leastFailing.failureScore) {
+                leastFailing = upstream;
+            }
+        }
+        if (best != null) return best;
+        return leastFailing != null ? leastFailing : excluded;
+    }
+
+    private static boolean isServerFailure(DnsPacket reply) {
+        ResultCode rescode = reply.getHeader().getRescode();
+        return rescode == ResultCode.SERVFAIL || rescode == ResultCode.REFUSED;
+    }
+
+    private static boolean isServerFailure(BytePacketBuffer reply) {
+        ResultCode rescode = ResultCode.fromNumber((byte) (reply.getOne(3) & 0x0F));
+        return rescode == ResultCode.SERVFAIL || rescode == ResultCode.REFUSED;
+    }
+
+    /*
+     * Closes clients of all servers */
+    @Override
+    public void close() throws IOException {
+        if (this.hedgeTimer != null) this.hedgeTimer.shutdownNow();
+        for (Upstream upstream : this.upstreams) upstream.client.close();
+    }
+
+    /*
+     * Single upstream server with its statistics */
+    private static final class Upstream {
+        private final String name;
+        private final UpstreamClient client;
+
+        // Smoothed RTT and its variation in nanoseconds and failure score,
+        // updated under lock of this
+        private volatile long srtt;
+        private long rttvar;
+        private volatile double failureScore;
+
+        // Recent RTTs, percentile of them is recomputed every WINDOW_SAMPLES
+        private final LatencyHistogram window = new LatencyHistogram();
+        private final AtomicLong samples = new AtomicLong();
+        private volatile long percentileRtt;
+
+        private final AtomicLong failedAt = new AtomicLong();
+
+        private Upstream(InetSocketAddress server, UpstreamClient client) {
+            this.name = server.getHostString() + ":" + server.getPort();
+            this.client = client;
+        }
+
+        /*
+         * Server that fails too often is skipped */
+        private boolean isFailing() {
+            return this.failureScore > FAILURE_THRESHOLD;
+        }
+
+        /*
+         * Returns true for single caller once backoff of failing server is
+         * over, next probe is allowed after another backoff */
+        private boolean claimProbe(long now) {
+            long last = this.failedAt.get();
+            return now - last > BACKOFF_NANOS && this.failedAt.compareAndSet(last, now);
+        }
+
+        private void success(long rtt) {
+            synchronized (this) {
+                // Answered probe means server is back
+                this.failureScore = isFailing() ? 0 : (1 - FAILURE_ALPHA) * this.failureScore;
+
+                if (this.srtt == 0) {
+                    this.srtt = rtt;
+                    this.rttvar = rtt / 2;
+                } else {
+                    this.rttvar = (long) ((1 - RTT_BETA) * this.rttvar + RTT_BETA * Math.abs(this.srtt - rtt));
+                    this.srtt = (long) ((1 - RTT_ALPHA) * this.srtt + RTT_ALPHA * rtt);
+                }
+            }
+
+            this.window.record(rtt);
+            if (this.samples.incrementAndGet() % WINDOW_SAMPLES == 0) {
+                this.percentileRtt = this.window.getValueAtPercentile(HEDGE_PERCENTILE);
+                this.window.reset();
+            }
+        }
+
+        private void failure(long now) {
+            this.failedAt.set(now);
+            synchronized (this) {
+                this.failureScore = (1 - FAILURE_ALPHA) * this.failureScore + FAILURE_ALPHA;
+            }
+        }
+
+        /*
+         * Time after which query is duplicated to another server. Until
+         * enough samples are collected, RTT with four times its variation
+         * is used, the way retransmission timeout is estimated. */
+        private long hedgeDelay(long timeoutNanos) {
+            long delay = this.percentileRtt;
+            if (delay == 0) {
+                synchronized (this) {
+                    // Nothing measured yet, wait for half of timeout
+                    delay = this.srtt == 0 ? timeoutNanos / 2 : this.srtt + 4 * this.rttvar;
+                }
+            }
+            return Math.min(delay, timeoutNanos / 2);
+        }
+    }
+
+    /*
+     * Query being answered by one or two servers */
+    private static final class Lookup<T> {
+        private final Function<UpstreamClient, CompletableFuture<T>> query;
+        private final Predicate<T> serverFailure;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        // Set when second server was asked, either by hedge or failover
+        private final AtomicBoolean retried = new AtomicBoolean();
+        private Upstream primary;
+        private volatile T fallback;
+        private volatile Throwable error;
+
+        private Lookup(Function<UpstreamClient, CompletableFuture<T>> query, Predicate<T> serverFailure) {
+            this.query = query;
+            this.serverFailure = serverFailure;
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+package eu.sedam.jdns;
+
+import java.util.List;
+
+/*
+ * Authoritative data of single zone. Subclasses keep names of the zone
+ * with their RRsets by type: MemoryZone in hash map filled from master
+ * file, SnapshotZone in memory-mapped compiled snapshot. Names that exist
+ * only because some name below them does (empty non-terminals) are kept
+ * without RRsets, so they get NODATA instead of NXDOMAIN.
+ *
+ * Answers follow RFC 1034 section 4.3.2: names at or below delegation
+ * point get referral with glue, CNAMEs are followed inside the zone,
+ * wildcard records (RFC 4592) answer names that do not exist, and negative
+ * answers carry SOA with TTL of min(SOA TTL, SOA minimum) (RFC 2308).
+ *
+ * Zone is only read once it is loaded, so it can be shared by workers
+ * without locking. */
+public abstract class Zone {
+
+    // Maximum number of CNAMEs followed inside zone for single answer
+    private static final int MAX_CNAME_CHAIN = 8;
+    // Types of records added as glue
+    private static final QueryType[] GLUE_TYPES = {QueryType.A, QueryType.AAAA};
+
+    protected final DnsName origin;
+
+    protected Zone(DnsName origin) {
+        this.origin = origin;
+    }
+
+    /*
+     * Returns whether given name exists in zone, with records or without
+     * them as empty non-terminal */
+    protected abstract boolean exists(DnsName name);
+
+    /*
+     * Returns whether given name has RRset of given type, without building
+     * its records */
+    protected abstract boolean hasRRset(DnsName name, QueryType queryType);
+
+    /*
+     * Returns RRset of given type of given name, null if there is none */
+    protected abstract List<DnsRecord> rrset(DnsName name, QueryType queryType);
+
+    /*
+     * SOA record of zone */
+    public abstract DnsRecord getSoa();
+
+    public abstract int getRecordCnt();
+
+    public DnsName getOrigin() {
+        return origin;
+    }
+
+    /*
+     * Answers question about name in this zone */
+    public DnsPacket answer(DnsName name, QueryType queryType) {
+        DnsPacket response = new DnsPacket();
+        response.getHeader().setAuthoritativeAnswer(true);
+
+        DnsName target = name;
+        for (int chainLength = 0; chainLength <= MAX_CNAME_CHAIN; chainLength++) {
+            DnsName cut = findCut(target);
+            if (cut != null) {
+                // Referral is not authoritative, unless part of it already is
+                if (response.getAnswers().isEmpty()) response.getHeader().setAuthoritativeAnswer(false);
+                List<DnsRecord> nameServers = rrset(cut, QueryType.NS);
+                response.getAuthorityRecords().addAll(nameServers);
+                addGlue(response, nameServers);
+                return response;
+            }
+
+            DnsName owner = exists(target) ? target : wildcardOf(target);
+            if (owner == null) {
+                response.getHeader().setRescode(ResultCode.NXDOMAIN);
+                addSoa(response);
+                return response;
+            }
+
+            List<DnsRecord> rrset = rrset(owner, queryType);
+            if (rrset != null) {
+                addRecords(response, rrset, target, owner);
+                if (queryType == QueryType.MX || queryType == QueryType.NS) addGlue(response, rrset);
+                return response;
+            }
+
+            List<DnsRecord> cname = rrset(owner, QueryType.CNAME);
+            if (cname == null) {
+                // NODATA
+                addSoa(response);
+                return response;
+            }
+
+            addRecords(response, cname, target, owner);
+            target = cname.get(0).getHost();
+            // Rest of chain is looked up by client
+            if (!target.isSubdomainOf(this.origin)) return response;
+        }
+        return response;
+    }
+
+    /*
+     * Returns the highest name between origin and given name that has NS
+     * records, null if given name is not delegated */
+    private DnsName findCut(DnsName name) {
+        DnsName cut = null;
+        for (DnsName current = name; !current.equals(this.origin); current = current.parent()) {
+            if (hasRRset(current, QueryType.NS)) cut = current;
+        }
+        return cut;
+    }
+
+    /*
+     * Returns wildcard name that answers given name that does not exist,
+     * null if there is none. Only wildcard directly below the closest
+     * existing ancestor applies (RFC 4592 section 3.3.1). */
+    private DnsName wildcardOf(DnsName name) {
+        DnsName encloser = name.parent();
+        while (!exists(encloser)) encloser = encloser.parent();
+        DnsName wildcard = encloser.wildcard();
+        return wildcard != null && exists(wildcard) ? wildcard : null;
+    }
+
+    /*
+     * Adds records, rewriting owner of records synthesized from wildcard */
+    private static void addRecords(DnsPacket response, List<DnsRecord> rrset, DnsName name, DnsName owner) {
+        if (name.equals(owner)) {
+            response.getAnswers().addAll(rrset);
+        } else {
+            rrset.forEach(x -> response.getAnswers().add(x.withDomain(name)));
+        }
+    }
+
+    /*
+     * Adds SOA to authority section of negative answer */
+    private void addSoa(DnsPacket response) {
+        DnsRecord soa = getSoa();
+        if (soa == null) return;
+        long soaTtl = DnsHeader.convertSingedIntToUnsigned(soa.getTtl());
+        long minimum = DnsHeader.convertSingedIntToUnsigned(soa.getMinimum());
+        response.getAuthorityRecords().add(soa.withTtl((int) Math.min(soaTtl, minimum)));
+    }
+
+    /*
+     * Adds addresses of name servers or mail hosts in this zone to
+     * additional section */
+    private void addGlue(DnsPacket response, List<DnsRecord> records) {
+        for (DnsRecord record : records) {
+            for (QueryType type : GLUE_TYPES) {
+                List<DnsRecord> addresses = rrset(record.getHost(), type);
+                if (addresses != null) response.getResourceRecords().addAll(addresses);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package eu.sedam.jdns;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Compiles zones into binary snapshot that is memory-mapped by
+ * SnapshotZone, so server starts without parsing zone files and keeps
+ * records off heap:
+ *
+ *     java -cp jDNS.jar eu.sedam.jdns.ZoneCompiler --zones corp.zone,lab.zone --output zones.snap
+ *
+ * Snapshot is written to temporary file and renamed, so server reloading
+ * it never sees half-written file. All numbers are big-endian:
+ *
+ *     magic "jDNSzone", version (4), zone count (4)
+ *     zone table - per zone: origin entry offset (4), index offset (4),
+ *                  name count (4), record count (4)
+ *     indexes    - per zone: entry offsets (4) sorted by name wire bytes
+ *     entries    - per name: name in wire format, RRset count (2) and
+ *                  RRsets
+ *     RRset      - type (2), record count (2), length of records (4) and
+ *                  records in wire format without name compression
+ *
+ * Empty non-terminals have entries with no RRsets. Type and length of every
+ * RRset let server find RRset of given type without decoding the others. */
+public class ZoneCompiler {
+
+    public static final byte[] MAGIC = {'j', 'D', 'N', 'S', 'z', 'o', 'n', 'e'};
+    public static final int VERSION = 2;
+
+    // Sizes of fixed parts of snapshot
+    static final int HEADER_SIZE = 16;
+    static final int ZONE_SIZE = 16;
+    static final int RRSET_HEADER_SIZE = 8;
+
+    /*
+     * Writes snapshot of given zones to given file */
+    public static void compile(List<MemoryZone> zones, Path output) throws IOException {
+        List<byte[][]> entries = new ArrayList<>();
+        int indexSize = 0;
+        for (MemoryZone zone : zones) {
+            byte[][] zoneEntries = encode(zone);
+            // Sorted by name so server can use binary search
+            Arrays.sort(zoneEntries, ZoneCompiler::compareNames);
+            entries.add(zoneEntries);
+            indexSize += zoneEntries.length * 4;
+        }
+
+        Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(zones.size());
+
+            // Offsets are known upfront as every part is written in order
+            long indexOffset = HEADER_SIZE + (long) ZONE_SIZE * zones.size();
+            long entryOffset = indexOffset + indexSize;
+            List<int[]> entryOffsets = new ArrayList<>();
+            for (int i = 0; i < zones.size(); i++) {
+                byte[][] zoneEntries = entries.get(i);
+                int[] offsets = new int[zoneEntries.length];
+                int originOffset = -1;
+                for (int j = 0; j < zoneEntries.length; j++) {
+                    if (entryOffset > Integer.MAX_VALUE) throw new IOException("Snapshot larger than 2 GB");
+                    offsets[j] = (int) entryOffset;
+                    if (isName(zoneEntries[j], zones.get(i).getOrigin())) originOffset = offsets[j];
+                    entryOffset += zoneEntries[j].length;
+                }
+                entryOffsets.add(offsets);
+
+                out.writeInt(originOffset);
+                out.writeInt((int) indexOffset);
+                out.writeInt(zoneEntries.length);
+                out.writeInt(zones.get(i).getRecordCnt());
+                indexOffset += zoneEntries.length * 4L;
+            }
+
+            for (int[] offsets : entryOffsets) {
+                for (int offset : offsets) out.writeInt(offset);
+            }
+            for (byte[][] zoneEntries : entries) {
+                for (byte[] entry : zoneEntries) out.write(entry);
+            }
+        }
+        Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Encodes every name of zone with its RRsets */
+    private static byte[][] encode(MemoryZone zone) {
+        BytePacketBuffer buffer = new BytePacketBuffer(BytePacketBuffer.MAX_MESSAGE_SIZE);
+        byte[][] result = new byte[zone.getNames().size()][];
+        int index = 0;
+        for (Map.Entry<DnsName, Map<QueryType, List<DnsRecord>>> name : zone.getNames().entrySet()) {
+            buffer.clear();
+            buffer.setCompression(false);
+            buffer.writeName(name.getKey());
+            buffer.writeTwo((short) name.getValue().size());
+            for (Map.Entry<QueryType, List<DnsRecord>> rrset : name.getValue().entrySet()) {
+                buffer.writeTwo(rrset.getKey().toNumber());
+                buffer.writeTwo((short) rrset.getValue().size());
+                int lengthPosition = buffer.getPosition();
+                buffer.writeFour(0);
+                for (DnsRecord record : rrset.getValue()) record.write(buffer);
+                buffer.setFour(lengthPosition, buffer.getPosition() - lengthPosition - 4);
+            }
+            result[index++] = buffer.getRange(0, buffer.getPosition());
+        }
+        return result;
+    }
+
+    /*
+     * Compares entries by unsigned wire bytes of their names. Names of zone
+     * are unique and wire format is prefix free, so they always differ
+     * before either of them ends. */
+    static int compareNames(byte[] first, byte[] second) {
+        for (int i = 0; i < first.length && i < second.length; i++) {
+            int difference = (first[i] & 0xFF) - (second[i] & 0xFF);
+            if (difference != 0) return difference;
+        }
+        return first.length - second.length;
+    }
+
+    private static boolean isName(byte[] entry, DnsName name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (entry[i] != name.byteAt(i)) return false;
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+        String zoneList = arguments.getString("zones", null);
+        String output = arguments.getString("output", null);
+        if (zoneList == null || output == null) {
+            System.out.println("Usage: ZoneCompiler --zones <file>[,<file>...] --output <snapshot>");
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<MemoryZone> zones = new ArrayList<>();
+        int records = 0;
+        for (String file : zoneList.split(",")) {
+            if (file.isBlank()) continue;
+            MemoryZone zone = ZoneFileReader.read(Path.of(file.trim()));
+            zones.add(zone);
+            records += zone.getRecordCnt();
+        }
+        compile(zones, Path.of(output));
+        System.out.printf("Compiled %d zones with %d records into %s in %d ms%n", zones.size(), records, output,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+}
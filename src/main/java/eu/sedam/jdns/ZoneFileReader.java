@@ -0,0 +1,302 @@
+package eu.sedam.jdns;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Reads zone from master file in format of RFC 1035 section 5.1:
+ *
+ *     $ORIGIN example.internal.
+ *     $TTL 1h
+ *     @       IN SOA  ns1 hostmaster (2024010101 3600 600 86400 300)
+ *             IN NS   ns1
+ *     ns1     IN A    10.0.0.53
+ *     www  60 IN A    10.0.0.80
+ *     *.dev   IN CNAME www
+ *
+ * Supported are $ORIGIN and $TTL directives, @ for origin, relative names,
+ * owner inherited from previous record, TTL and class in either order,
+ * comments and parentheses spanning lines. TTLs can use BIND units
+ * (s, m, h, d, w). First record must be SOA, its owner is origin of the
+ * zone unless $ORIGIN is given before it.
+ *
+ * Only types that DnsRecord can write (A, AAAA, NS, CNAME, MX and SOA) are
+ * loaded, records of other types are skipped and counted. Their names still
+ * exist, so questions about them get NODATA. */
+public class ZoneFileReader {
+
+    private final Path path;
+    private MemoryZone zone;
+    private DnsName origin;
+    private DnsName owner;
+    private long defaultTtl = -1;
+    private long lastTtl = -1;
+    private int lineNumber;
+    private int skipped;
+
+    private ZoneFileReader(Path path, DnsName origin) {
+        this.path = path;
+        this.origin = origin;
+    }
+
+    /*
+     * Reads zone from given file */
+    public static MemoryZone read(Path path) throws IOException {
+        return new ZoneFileReader(path, null).read();
+    }
+
+    /*
+     * Reads zone from given file, relative names before first $ORIGIN are
+     * relative to given origin */
+    public static MemoryZone read(Path path, DnsName origin) throws IOException {
+        return new ZoneFileReader(path, origin).read();
+    }
+
+    private MemoryZone read() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(this.path, StandardCharsets.UTF_8)) {
+            List<String> tokens;
+            while ((tokens = nextEntry(reader)) != null) {
+                if (tokens.isEmpty()) continue;
+                DnsRecord record = parseEntry(tokens);
+                if (record == null) continue;
+
+                if (this.zone == null) {
+                    if (record.getQueryType() != QueryType.SOA) throw error("First record must be SOA");
+                    this.zone = new MemoryZone(record.getDomain());
+                }
+                try {
+                    this.zone.add(record);
+                } catch (IllegalArgumentException ex) {
+                    throw error(ex.getMessage());
+                }
+            }
+        }
+        if (this.zone == null) throw new IOException(this.path + ": No SOA record");
+        if (this.skipped > 0) {
+            System.out.println("Skipped " + this.skipped + " records of unsupported types in " + this.path);
+        }
+        return this.zone;
+    }
+
+    /*
+     * Reads tokens of next entry, joining lines inside parentheses. First
+     * token is empty string if line starts with blank, which means owner of
+     * previous record. Returns null at the end of file. */
+    private List<String> nextEntry(BufferedReader reader) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        int depth = 0;
+        String line;
+        boolean first = true;
+        while ((line = reader.readLine()) != null) {
+            this.lineNumber++;
+            if (first && !line.isEmpty() && Character.isWhitespace(line.charAt(0))) tokens.add("");
+            first = false;
+
+            int i = 0;
+            while (i < line.length()) {
+                char c = line.charAt(i);
+                if (c == ';') break;
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(') {
+                    depth++;
+                    i++;
+                } else if (c == ')') {
+                    if (--depth < 0) throw error("Unbalanced parentheses");
+                    i++;
+                } else if (c == '"') {
+                    int end = line.indexOf('"', i + 1);
+                    if (end < 0) throw error("Unterminated string");
+                    tokens.add(line.substring(i, end + 1));
+                    i = end + 1;
+                } else {
+                    int start = i;
+                    while (i < line.length() && !Character.isWhitespace(line.charAt(i))
+                            && "();\"".indexOf(line.charAt(i)) < 0) {
+                        i++;
+                    }
+                    tokens.add(line.substring(start, i));
+                }
+            }
+            if (depth == 0) {
+                // Line with only blanks or comment
+                if (tokens.size() == 1 && tokens.get(0).isEmpty()) tokens.clear();
+                return tokens;
+            }
+        }
+        if (depth > 0) throw error("Unbalanced parentheses");
+        return tokens.isEmpty() ? null : tokens;
+    }
+
+    /*
+     * Handles directive or parses record, returns null for directives and
+     * skipped records */
+    private DnsRecord parseEntry(List<String> tokens) throws IOException {
+        String first = tokens.get(0);
+        if (first.startsWith("$")) {
+            switch (first.toUpperCase()) {
+                case "$ORIGIN" -> {
+                    if (tokens.size() < 2) throw error("Missing origin");
+                    this.origin = name(tokens.get(1));
+                }
+                case "$TTL" -> {
+                    if (tokens.size() < 2) throw error("Missing TTL");
+                    this.defaultTtl = ttl(tokens.get(1));
+                }
+                default -> throw error("Unsupported directive " + first);
+            }
+            return null;
+        }
+
+        if (!first.isEmpty()) {
+            this.owner = name(first);
+        } else if (this.owner == null) {
+            throw error("Missing owner name");
+        }
+
+        // TTL and class are optional and can come in either order
+        int index = 1;
+        long ttl = -1;
+        for (int i = 0; i < 2 && index < tokens.size(); i++) {
+            String token = tokens.get(index);
+            if (Character.isDigit(token.charAt(0))) {
+                ttl = ttl(token);
+            } else if (token.equalsIgnoreCase("IN")) {
+                // Only Internet class is served
+            } else if (token.equalsIgnoreCase("CH") || token.equalsIgnoreCase("HS")
+                    || token.equalsIgnoreCase("CS")) {
+                throw error("Unsupported class " + token);
+            } else {
+                break;
+            }
+            index++;
+        }
+        if (index >= tokens.size()) throw error("Missing type");
+
+        String type = tokens.get(index++).toUpperCase();
+        List<String> data = tokens.subList(index, tokens.size());
+
+        if (ttl >= 0) {
+            this.lastTtl = ttl;
+        } else if (this.defaultTtl >= 0) {
+            ttl = this.defaultTtl;
+        } else if (this.lastTtl >= 0) {
+            ttl = this.lastTtl;
+        } else if (!type.equals("SOA")) {
+            throw error("Missing TTL and no $TTL given");
+        }
+
+        try {
+            return switch (type) {
+                case "A", "AAAA" -> {
+                    expect(data, 1);
+                    yield DnsRecord.address(this.owner, address(data.get(0), type.equals("A")), (int) ttl);
+                }
+                case "NS", "CNAME" -> {
+                    expect(data, 1);
+                    yield DnsRecord.host(QueryType.valueOf(type), this.owner, name(data.get(0)), (int) ttl);
+                }
+                case "MX" -> {
+                    expect(data, 2);
+                    yield DnsRecord.mx(this.owner, (short) Integer.parseInt(data.get(0)), name(data.get(1)),
+                            (int) ttl);
+                }
+                case "SOA" -> {
+                    expect(data, 7);
+                    long minimum = ttl(data.get(6));
+                    // Without any TTL, SOA minimum is used (RFC 1035 section 5.1)
+                    if (ttl < 0) ttl = minimum;
+                    if (this.lastTtl < 0 && this.defaultTtl < 0) this.lastTtl = minimum;
+                    yield DnsRecord.soa(this.owner, name(data.get(0)), name(data.get(1)),
+                            (int) Long.parseLong(data.get(2)), (int) ttl(data.get(3)), (int) ttl(data.get(4)),
+                            (int) ttl(data.get(5)), (int) minimum, (int) ttl);
+                }
+                default -> {
+                    if (this.zone == null) throw error("First record must be SOA");
+                    this.zone.addName(this.owner);
+                    this.skipped++;
+                    yield null;
+                }
+            };
+        } catch (IllegalArgumentException ex) {
+            throw error(ex.getMessage());
+        }
+    }
+
+    /*
+     * Resolves name relative to current origin */
+    private DnsName name(String text) throws IOException {
+        if (text.equals("@")) {
+            if (this.origin == null) throw error("@ used without origin");
+            return this.origin;
+        }
+        if (text.endsWith(".")) return DnsName.of(text);
+        if (this.origin == null) throw error("Relative name " + text + " without origin");
+        return DnsName.of(this.origin.isRoot() ? text : text + "." + this.origin);
+    }
+
+    /*
+     * Parses TTL in seconds or with BIND units such as 1h30m */
+    private long ttl(String text) throws IOException {
+        long total = 0;
+        long value = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isDigit(c)) {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 0xFFFFFFFFL) throw error("TTL " + text + " too large");
+                continue;
+            }
+            if (value < 0) throw error("Invalid TTL " + text);
+            total += value * switch (Character.toLowerCase(c)) {
+                case 's' -> 1;
+                case 'm' -> 60;
+                case 'h' -> 3600;
+                case 'd' -> 86400;
+                case 'w' -> 604800;
+                default -> throw error("Invalid TTL " + text);
+            };
+            value = -1;
+        }
+        if (value >= 0) total += value;
+        if (total > 0x7FFFFFFFL) throw error("TTL " + text + " too large");
+        return total;
+    }
+
+    /*
+     * Parses literal address, host names are not accepted so loading never
+     * waits for lookup */
+    private InetAddress address(String text, boolean ipv4) throws IOException {
+        if (ipv4) {
+            String[] octets = text.split("\\.", -1);
+            if (octets.length != 4) throw error("Invalid IPv4 address " + text);
+            byte[] address = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                int octet = octets[i].matches("\\d{1,3}") ? Integer.parseInt(octets[i]) : 256;
+                if (octet > 255) throw error("Invalid IPv4 address " + text);
+                address[i] = (byte) octet;
+            }
+            return InetAddress.getByAddress(address);
+        }
+        // Text with colon is always parsed as IPv6 literal
+        if (text.indexOf(':') < 0) throw error("Invalid IPv6 address " + text);
+        InetAddress address = InetAddress.getByName(text);
+        if (address.getAddress().length != 16) throw error("Invalid IPv6 address " + text);
+        return address;
+    }
+
+    private void expect(List<String> data, int count) throws IOException {
+        if (data.size() != count) throw error("Expected " + count + " fields, got " + data.size());
+    }
+
+    private IOException error(String message) {
+        return new IOException(this.path + ":" + this.lineNumber + ": " + message);
+    }
+
+}
@@ -0,0 +1,121 @@
+package eu.sedam.jdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Matching of exact and wildcard rules through Bloom filter and trie */
+class BlocklistTest {
+
+    @Test
+    void exactRuleBlocksOnlyThatName() {
+        Blocklist blocklist = Blocklist.of(List.of("ads.example.com"));
+
+        assertTrue(blocklist.contains(DnsName.of("ads.example.com")));
+        assertTrue(blocklist.contains(DnsName.of("ADS.Example.COM")));
+        assertFalse(blocklist.contains(DnsName.of("www.ads.example.com")));
+        assertFalse(blocklist.contains(DnsName.of("example.com")));
+        assertFalse(blocklist.contains(DnsName.of("ads.example.org")));
+    }
+
+    @Test
+    void wildcardRuleBlocksOnlyNamesBelow() {
+        Blocklist blocklist = Blocklist.of(List.of("*.tracker.example.net"));
+
+        assertTrue(blocklist.contains(DnsName.of("a.tracker.example.net")));
+        assertTrue(blocklist.contains(DnsName.of("a.b.tracker.example.net")));
+        assertFalse(blocklist.contains(DnsName.of("tracker.example.net")));
+        assertFalse(blocklist.contains(DnsName.of("example.net")));
+        assertFalse(blocklist.contains(DnsName.of("a.tracker.example.org")));
+    }
+
+    @Test
+    void exactAndWildcardRulesOfSameName() {
+        Blocklist blocklist = Blocklist.of(List.of("example.com", "*.example.com"));
+
+        assertTrue(blocklist.contains(DnsName.of("example.com")));
+        assertTrue(blocklist.contains(DnsName.of("www.example.com")));
+        assertFalse(blocklist.contains(DnsName.of("com")));
+    }
+
+    @Test
+    void hostsFileLinesAreParsed() {
+        Blocklist blocklist = Blocklist.of(List.of(
+                "# comment",
+                "0.0.0.0 malware.example.org other.example.org # trailing comment",
+                ":: ipv6.example.org",
+                "127.0.0.1 localhost",
+                ""));
+
+        assertTrue(blocklist.contains(DnsName.of("malware.example.org")));
+        assertTrue(blocklist.contains(DnsName.of("other.example.org")));
+        assertTrue(blocklist.contains(DnsName.of("ipv6.example.org")));
+        assertFalse(blocklist.contains(DnsName.of("localhost")));
+        assertFalse(blocklist.contains(DnsName.of("0.0.0.0")));
+        assertEquals(3, blocklist.getRuleCnt());
+    }
+
+    @Test
+    void emptyBlocklistBlocksNothing() {
+        Blocklist blocklist = Blocklist.of(List.of());
+
+        assertFalse(blocklist.contains(DnsName.of("example.com")));
+        assertFalse(blocklist.contains(DnsName.ROOT));
+    }
+
+    @Test
+    void agreesWithReferenceSetOnRandomNames() {
+        // Few distinct labels so rules and queried names share many suffixes,
+        // rules have at least two labels so *.com does not block almost all
+        Random random = new Random(42);
+        String[] labels = {"a", "b", "ads", "cdn", "www", "track", "example", "com", "net", "org"};
+
+        List<String> rules = new ArrayList<>();
+        Set<String> exact = new HashSet<>();
+        Set<String> wildcards = new HashSet<>();
+        for (int i = 0; i < 2000; i++) {
+            String name = randomName(random, labels, 2);
+            if (random.nextBoolean()) {
+                rules.add(name);
+                exact.add(name);
+            } else {
+                rules.add("*." + name);
+                wildcards.add(name);
+            }
+        }
+        Blocklist blocklist = Blocklist.of(rules);
+
+        int blocked = 0;
+        for (int i = 0; i < 20000; i++) {
+            String name = randomName(random, labels, 1);
+            boolean expected = exact.contains(name);
+            for (int dot = name.indexOf('.'); dot >= 0 && !expected; dot = name.indexOf('.', dot + 1)) {
+                expected = wildcards.contains(name.substring(dot + 1));
+            }
+            assertEquals(expected, blocklist.contains(DnsName.of(name)), name);
+            if (expected) blocked++;
+        }
+        // Both outcomes are exercised
+        assertTrue(blocked > 2000 && blocked < 18000, "blocked " + blocked);
+    }
+
+    private static String randomName(Random random, String[] labels, int minLabels) {
+        int labelCnt = minLabels + random.nextInt(5 - minLabels);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < labelCnt; i++) {
+            if (i > 0) name.append('.');
+            name.append(labels[random.nextInt(labels.length)]);
+        }
+        return name.toString();
+    }
+
+}
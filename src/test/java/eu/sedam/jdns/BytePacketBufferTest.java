@@ -0,0 +1,151 @@
+package eu.sedam.jdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Name compression when writing and pointer following when reading */
+class BytePacketBufferTest {
+
+    private static final int HEADER_SIZE = 12;
+
+    @Test
+    void repeatedNameIsWrittenAsPointer() {
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        buffer.jump(HEADER_SIZE);
+        buffer.writeName(DnsName.of("www.example.com"));
+        int second = buffer.getPosition();
+        buffer.writeName(DnsName.of("WWW.Example.COM"));
+
+        assertEquals(second + 2, buffer.getPosition());
+        assertEquals((byte) 0xC0, buffer.getOne(second));
+        assertEquals(HEADER_SIZE, buffer.getOne(second + 1));
+    }
+
+    @Test
+    void sharedSuffixIsWrittenAsPointer() throws Exception {
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        buffer.jump(HEADER_SIZE);
+        buffer.writeName(DnsName.of("a.example.com"));
+        int second = buffer.getPosition();
+        buffer.writeName(DnsName.of("mail.example.com"));
+
+        // [4]mail followed by pointer to example.com after [1]a
+        assertEquals(second + 5 + 2, buffer.getPosition());
+        assertEquals(4, buffer.getOne(second));
+        assertEquals((byte) 0xC0, buffer.getOne(second + 5));
+        assertEquals(HEADER_SIZE + 2, buffer.getOne(second + 6));
+
+        buffer.jump(second);
+        assertEquals(DnsName.of("mail.example.com"), DnsName.read(buffer));
+        assertEquals(second + 7, buffer.getPosition());
+    }
+
+    @Test
+    void packetRoundTripsThroughPointers() throws Exception {
+        DnsName www = DnsName.of("www.example.com");
+        DnsName cdn = DnsName.of("cdn.example.com");
+        DnsName zone = DnsName.of("example.com");
+        DnsPacket packet = new DnsPacket();
+        packet.getHeader().setId((short) 4242);
+        packet.getHeader().setResponse(true);
+        packet.getQuestions().add(new DnsQuestion(www, QueryType.A));
+        packet.getAnswers().add(DnsRecord.host(QueryType.CNAME, www, cdn, 300));
+        packet.getAnswers().add(DnsRecord.address(cdn, InetAddress.getByName("192.0.2.1"), 60));
+        packet.getAuthorityRecords().add(DnsRecord.host(QueryType.NS, zone, DnsName.of("ns1.example.com"), 3600));
+        packet.getResourceRecords().add(DnsRecord.mx(zone, (short) 10, DnsName.of("mail.example.com"), 3600));
+
+        BytePacketBuffer compressed = new BytePacketBuffer();
+        packet.write(compressed);
+        BytePacketBuffer plain = new BytePacketBuffer();
+        plain.setCompression(false);
+        packet.write(plain);
+
+        int length = compressed.getPosition();
+        assertTrue(length < plain.getPosition());
+
+        compressed.setLimit(length);
+        compressed.jump(0);
+        DnsPacket read = new DnsPacket().fromBuffer(compressed);
+        assertEquals(length, compressed.getPosition());
+        assertEquals(www, read.getQuestions().get(0).getDnsName());
+        assertEquals(www, read.getAnswers().get(0).getDomain());
+        assertEquals(cdn, read.getAnswers().get(0).getHost());
+        assertEquals(cdn, read.getAnswers().get(1).getDomain());
+        assertEquals(InetAddress.getByName("192.0.2.1"), read.getAnswers().get(1).getAddr());
+        assertEquals(zone, read.getAuthorityRecords().get(0).getDomain());
+        assertEquals(DnsName.of("ns1.example.com"), read.getAuthorityRecords().get(0).getHost());
+        assertEquals(DnsName.of("mail.example.com"), read.getResourceRecords().get(0).getHost());
+
+        // Both forms decode to the same packet
+        plain.setLimit(plain.getPosition());
+        plain.jump(0);
+        DnsPacket readPlain = new DnsPacket().fromBuffer(plain);
+        assertEquals(cdn, readPlain.getAnswers().get(0).getHost());
+        assertEquals(DnsName.of("mail.example.com"), readPlain.getResourceRecords().get(0).getHost());
+    }
+
+    @Test
+    void namesBeyondPointerRangeAreNotReferenced() {
+        BytePacketBuffer buffer = new BytePacketBuffer(0x4100);
+        buffer.jump(0x4000);
+        buffer.writeName(DnsName.of("example.com"));
+        int second = buffer.getPosition();
+        buffer.writeName(DnsName.of("example.com"));
+
+        assertEquals(second + DnsName.of("example.com").length(), buffer.getPosition());
+    }
+
+    @Test
+    void clearForgetsWrittenNames() {
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        buffer.jump(HEADER_SIZE);
+        buffer.writeName(DnsName.of("example.com"));
+        buffer.clear();
+        buffer.jump(HEADER_SIZE);
+        buffer.writeName(DnsName.of("other.test"));
+        int start = buffer.getPosition();
+        buffer.writeName(DnsName.of("example.com"));
+
+        byte[] expected = {7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0};
+        assertArrayEquals(expected, buffer.getRange(start, expected.length));
+    }
+
+    @Test
+    void bytesAreCopiedToAndFromByteBuffers() {
+        byte[] message = {1, 2, 3, 4, 5, 6};
+        ByteBuffer frame = ByteBuffer.allocate(8);
+        frame.putShort((short) 0xFFFF).put(message).flip();
+        frame.getShort();
+
+        BytePacketBuffer direct = BytePacketBuffer.allocateDirect(16);
+        direct.writeBytes(frame, 4);
+        assertEquals(4, direct.getPosition());
+        assertEquals(6, frame.position());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, direct.getRange(0, 4));
+
+        ByteBuffer target = ByteBuffer.allocate(8);
+        target.put((byte) 9);
+        direct.copyTo(target);
+        assertEquals(5, target.position());
+        assertArrayEquals(new byte[]{9, 1, 2, 3, 4, 0, 0, 0}, target.array());
+        assertEquals(4, direct.getPosition());
+    }
+
+    @Test
+    void pointerLoopIsRejected() {
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        buffer.setTwo(HEADER_SIZE, (short) (0xC000 | HEADER_SIZE));
+        buffer.jump(HEADER_SIZE);
+
+        assertThrows(Exception.class, () -> DnsName.read(buffer));
+    }
+
+}
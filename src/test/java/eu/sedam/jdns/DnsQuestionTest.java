@@ -0,0 +1,50 @@
+package eu.sedam.jdns;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Question is looked up lowercased but echoed as spelled in request */
+class DnsQuestionTest {
+
+    private static final int HEADER_SIZE = 12;
+
+    @Test
+    void mixedCaseNameIsEchoed() throws Exception {
+        byte[] spelled = {3, 'w', 'W', 'w', 7, 'E', 'x', 'A', 'm', 'p', 'L', 'e', 3, 'c', 'O', 'm', 0};
+        BytePacketBuffer request = new BytePacketBuffer();
+        request.jump(HEADER_SIZE);
+        request.writeBytes(spelled);
+        request.writeTwo(QueryType.A.toNumber());
+        request.writeTwo((short) 1);
+        request.jump(HEADER_SIZE);
+        DnsQuestion question = new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN);
+        question.read(request);
+
+        assertEquals(DnsName.of("www.example.com"), question.getDnsName());
+        assertEquals(QueryType.A, question.getQueryType());
+
+        BytePacketBuffer response = new BytePacketBuffer();
+        response.jump(HEADER_SIZE);
+        question.write(response);
+        int answer = response.getPosition();
+        response.writeName(DnsName.of("www.example.com"));
+
+        assertArrayEquals(spelled, response.getRange(HEADER_SIZE, spelled.length));
+        // Answer name still points to the question
+        assertEquals(answer + 2, response.getPosition());
+        assertEquals(HEADER_SIZE, response.getOne(answer + 1));
+    }
+
+    @Test
+    void nameCreatedFromTextIsWrittenLowercased() {
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        new DnsQuestion("WWW.Example.com", QueryType.A).write(buffer);
+
+        byte[] expected = {3, 'w', 'w', 'w', 7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0};
+        assertArrayEquals(expected, buffer.getRange(0, expected.length));
+    }
+
+}
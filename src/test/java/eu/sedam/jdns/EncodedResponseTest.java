@@ -0,0 +1,83 @@
+package eu.sedam.jdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Response encoded for one request is patched for another request with the
+ * same question */
+class EncodedResponseTest {
+
+    private static final int HEADER_SIZE = 12;
+
+    @Test
+    void idFlagsAndQuestionSpellingComeFromRequest() throws Exception {
+        DnsName name = DnsName.of("www.example.com");
+        DnsPacket packet = new DnsPacket();
+        packet.getHeader().setId((short) 1);
+        packet.getHeader().setResponse(true);
+        packet.getHeader().setRecursionDesired(true);
+        packet.getHeader().setRecursionAvailable(true);
+        packet.getQuestions().add(new DnsQuestion(name, QueryType.A));
+        packet.getAnswers().add(DnsRecord.address(name, InetAddress.getByName("192.0.2.1"), 300));
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        packet.write(buffer);
+        EncodedResponse encoded = new EncodedResponse(0, buffer, buffer.getPosition());
+
+        byte[] spelled = {3, 'W', 'w', 'W', 7, 'e', 'X', 'a', 'M', 'p', 'L', 'e', 3, 'C', 'o', 'M', 0};
+        DnsHeader header = new DnsHeader();
+        header.setId((short) 4242);
+        header.setRecursionDesired(false);
+        header.setCheckingDisabled(true);
+        DnsQuestion question = readQuestion(spelled);
+
+        BytePacketBuffer response = new BytePacketBuffer();
+        assertTrue(encoded.writeTo(response, header, question, 100));
+        assertArrayEquals(spelled, response.getRange(HEADER_SIZE, spelled.length));
+
+        response.setLimit(encoded.getLength());
+        response.jump(0);
+        DnsPacket read = new DnsPacket().fromBuffer(response);
+        assertEquals(4242, read.getHeader().getId());
+        assertFalse(read.getHeader().isRecursionDesired());
+        assertTrue(read.getHeader().isCheckingDisabled());
+        assertEquals(name, read.getQuestions().get(0).getDnsName());
+        assertEquals(200, read.getAnswers().get(0).getTtl());
+    }
+
+    @Test
+    void lowercaseRequestGetsLowercaseQuestion() throws Exception {
+        byte[] spelled = {3, 'W', 'w', 'W', 7, 'e', 'X', 'a', 'M', 'p', 'L', 'e', 3, 'C', 'o', 'M', 0};
+        DnsPacket packet = new DnsPacket();
+        packet.getHeader().setResponse(true);
+        packet.getQuestions().add(readQuestion(spelled));
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        packet.write(buffer);
+        EncodedResponse encoded = new EncodedResponse(0, buffer, buffer.getPosition());
+        assertArrayEquals(spelled, buffer.getRange(HEADER_SIZE, spelled.length));
+
+        BytePacketBuffer response = new BytePacketBuffer();
+        assertTrue(encoded.writeTo(response, new DnsHeader(), new DnsQuestion("www.example.com", QueryType.A), 0));
+
+        byte[] expected = {3, 'w', 'w', 'w', 7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0};
+        assertArrayEquals(expected, response.getRange(HEADER_SIZE, expected.length));
+    }
+
+    private static DnsQuestion readQuestion(byte[] spelled) throws Exception {
+        BytePacketBuffer request = new BytePacketBuffer();
+        request.writeBytes(spelled);
+        request.writeTwo(QueryType.A.toNumber());
+        request.writeTwo((short) 1);
+        request.jump(0);
+        DnsQuestion question = new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN);
+        question.read(request);
+        return question;
+    }
+
+}
@@ -0,0 +1,134 @@
+package eu.sedam.jdns;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Token bucket refill, slip cadence and sharing of slots by keys */
+class RateLimiterTest {
+
+    private static final RateLimiter.Kind ANSWER = RateLimiter.Kind.ANSWER;
+
+    @Test
+    void burstIsLimitedAndBucketRefills() throws Exception {
+        RateLimiter limiter = new RateLimiter(1024, 10, 0, 24, 56);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        long now = 1_000_000;
+
+        for (int i = 0; i < 10; i++) assertEquals(RateLimiter.Decision.SEND, limiter.check(client, ANSWER, now));
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, now));
+
+        // One token per 100 ms, fraction of token is not lost
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, now + 99));
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(client, ANSWER, now + 100));
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, now + 150));
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(client, ANSWER, now + 200));
+
+        // Bucket does not grow over burst of one second
+        now += 10_000;
+        for (int i = 0; i < 10; i++) assertEquals(RateLimiter.Decision.SEND, limiter.check(client, ANSWER, now));
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, now));
+        assertEquals(4, limiter.getDropped());
+    }
+
+    @Test
+    void bucketRefillsAcrossClockWrap() throws Exception {
+        RateLimiter limiter = new RateLimiter(1024, 10, 0, 24, 56);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        long now = 0xFFFFFFFFL - 50;
+
+        for (int i = 0; i < 10; i++) limiter.check(client, ANSWER, now);
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, now));
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(client, ANSWER, now + 100));
+    }
+
+    @Test
+    void everySlipthLimitedResponseIsSlipped() throws Exception {
+        RateLimiter limiter = new RateLimiter(1024, 1, 3, 24, 56);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        long now = 1_000_000;
+
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(client, ANSWER, now));
+        for (int round = 0; round < 3; round++) {
+            assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, now));
+            assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, now));
+            assertEquals(RateLimiter.Decision.SLIP, limiter.check(client, ANSWER, now));
+        }
+        assertEquals(6, limiter.getDropped());
+        assertEquals(3, limiter.getSlipped());
+    }
+
+    @Test
+    void zeroSlipDropsAllAndOneSlipsAll() throws Exception {
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+        RateLimiter dropping = new RateLimiter(1024, 1, 0, 24, 56);
+        RateLimiter slipping = new RateLimiter(1024, 1, 1, 24, 56);
+        dropping.check(client, ANSWER, 0);
+        slipping.check(client, ANSWER, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(RateLimiter.Decision.DROP, dropping.check(client, ANSWER, 0));
+            assertEquals(RateLimiter.Decision.SLIP, slipping.check(client, ANSWER, 0));
+        }
+    }
+
+    @Test
+    void clientsOfSameNetworkShareBucket() throws Exception {
+        RateLimiter limiter = new RateLimiter(1024, 1, 0, 24, 56);
+
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(InetAddress.getByName("192.0.2.1"), ANSWER, 0));
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(InetAddress.getByName("192.0.2.200"), ANSWER, 0));
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(InetAddress.getByName("192.0.3.1"), ANSWER, 0));
+
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(InetAddress.getByName("2001:db8::1"), ANSWER, 0));
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(InetAddress.getByName("2001:db8:0:ff::1"), ANSWER, 0));
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(InetAddress.getByName("2001:db8:0:100::1"), ANSWER, 0));
+    }
+
+    @Test
+    void kindsAreLimitedSeparately() throws Exception {
+        RateLimiter limiter = new RateLimiter(1024, 1, 0, 24, 56);
+        InetAddress client = InetAddress.getByName("192.0.2.1");
+
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(client, ANSWER, 0));
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(client, ANSWER, 0));
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(client, RateLimiter.Kind.NXDOMAIN, 0));
+    }
+
+    @Test
+    void collidingKeysDoNotResetLimitedBucket() throws Exception {
+        // Two slots, so networks of the flood keep landing in the slot of
+        // the limited one
+        RateLimiter limiter = new RateLimiter(2, 1, 0, 24, 56);
+        InetAddress limited = InetAddress.getByName("192.0.2.1");
+        assertEquals(RateLimiter.Decision.SEND, limiter.check(limited, ANSWER, 0));
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(limited, ANSWER, 0));
+
+        int sent = 0;
+        for (int i = 0; i < 64; i++) {
+            InetAddress other = InetAddress.getByName("198.51." + i + ".1");
+            if (limiter.check(other, ANSWER, 0) == RateLimiter.Decision.SEND) sent++;
+            assertEquals(RateLimiter.Decision.DROP, limiter.check(limited, ANSWER, 0), other.toString());
+        }
+        // Only the first key in the other slot found full bucket
+        assertEquals(1, sent);
+    }
+
+    @Test
+    void idleSlotIsTakenOverWithFullBucket() throws Exception {
+        RateLimiter limiter = new RateLimiter(2, 1, 0, 24, 56);
+        InetAddress limited = InetAddress.getByName("192.0.2.1");
+        limiter.check(limited, ANSWER, 0);
+        assertEquals(RateLimiter.Decision.DROP, limiter.check(limited, ANSWER, 0));
+
+        // After a second every slot has refilled
+        for (int i = 0; i < 8; i++) {
+            InetAddress other = InetAddress.getByName("198.51." + i + ".1");
+            assertEquals(RateLimiter.Decision.SEND, limiter.check(other, ANSWER, 1000 * (i + 1)), other.toString());
+        }
+    }
+
+}
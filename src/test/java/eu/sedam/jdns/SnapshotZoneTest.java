@@ -0,0 +1,69 @@
+package eu.sedam.jdns;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/*
+ * Zone compiled into snapshot answers the same as zone it was compiled from */
+class SnapshotZoneTest {
+
+    private static final DnsName ORIGIN = DnsName.of("example.test");
+    private static final int TTL = 3600;
+
+    @Test
+    void snapshotAnswersLikeMemoryZone(@TempDir Path directory) throws Exception {
+        MemoryZone memory = new MemoryZone(ORIGIN);
+        memory.add(DnsRecord.soa(ORIGIN, DnsName.of("ns1.example.test"), DnsName.of("hostmaster.example.test"),
+                1, 300, TTL));
+        memory.add(DnsRecord.host(QueryType.NS, ORIGIN, DnsName.of("ns1.example.test"), TTL));
+        memory.add(DnsRecord.mx(ORIGIN, (short) 10, DnsName.of("mail.example.test"), TTL));
+        memory.add(address("ns1.example.test", "192.0.2.1"));
+        memory.add(address("mail.example.test", "192.0.2.2"));
+        memory.add(address("www.example.test", "192.0.2.10"));
+        memory.add(address("www.example.test", "192.0.2.11"));
+        memory.add(DnsRecord.address(DnsName.of("www.example.test"), InetAddress.getByName("2001:db8::10"), TTL));
+        memory.add(DnsRecord.host(QueryType.CNAME, DnsName.of("alias.example.test"),
+                DnsName.of("www.example.test"), TTL));
+        memory.add(address("*.example.test", "192.0.2.99"));
+        memory.add(address("host.deep.example.test", "192.0.2.20"));
+        memory.add(DnsRecord.host(QueryType.NS, DnsName.of("child.example.test"),
+                DnsName.of("ns1.child.example.test"), TTL));
+        memory.add(address("ns1.child.example.test", "192.0.2.53"));
+
+        Path path = directory.resolve("zones.snap");
+        ZoneCompiler.compile(List.of(memory), path);
+        List<Zone> zones = SnapshotZone.open(path);
+        assertEquals(1, zones.size());
+        Zone snapshot = zones.get(0);
+        assertEquals(ORIGIN, snapshot.getOrigin());
+        assertEquals(memory.getRecordCnt(), snapshot.getRecordCnt());
+
+        String[] names = {"example.test", "www.example.test", "alias.example.test", "missing.example.test",
+                "deep.example.test", "other.deep.example.test", "www.child.example.test", "child.example.test"};
+        QueryType[] types = {QueryType.A, QueryType.AAAA, QueryType.MX, QueryType.NS, QueryType.SOA};
+        for (String name : names) {
+            for (QueryType type : types) {
+                assertArrayEquals(encode(memory.answer(DnsName.of(name), type)),
+                        encode(snapshot.answer(DnsName.of(name), type)), name + " " + type);
+            }
+        }
+    }
+
+    private static byte[] encode(DnsPacket response) {
+        BytePacketBuffer buffer = new BytePacketBuffer();
+        response.write(buffer);
+        return buffer.getRange(0, buffer.getPosition());
+    }
+
+    private static DnsRecord address(String name, String address) throws Exception {
+        return DnsRecord.address(DnsName.of(name), InetAddress.getByName(address), TTL);
+    }
+
+}
@@ -0,0 +1,153 @@
+package eu.sedam.jdns;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*
+ * Authoritative answers of zone: wildcards, empty non-terminals, referrals
+ * and negative answers */
+class ZoneTest {
+
+    private static final DnsName ORIGIN = DnsName.of("example.test");
+    private static final int TTL = 3600;
+    private static final int MINIMUM = 300;
+
+    private MemoryZone zone;
+
+    @BeforeEach
+    void createZone() throws Exception {
+        this.zone = new MemoryZone(ORIGIN);
+        this.zone.add(DnsRecord.soa(ORIGIN, DnsName.of("ns1.example.test"), DnsName.of("hostmaster.example.test"),
+                1, MINIMUM, TTL));
+        this.zone.add(DnsRecord.host(QueryType.NS, ORIGIN, DnsName.of("ns1.example.test"), TTL));
+        this.zone.add(address("ns1.example.test", "192.0.2.1"));
+        this.zone.add(address("www.example.test", "192.0.2.10"));
+        this.zone.add(address("*.example.test", "192.0.2.99"));
+        // deep.example.test exists only as ancestor of host.deep.example.test
+        this.zone.add(address("host.deep.example.test", "192.0.2.20"));
+        // child.example.test is delegated with glue
+        this.zone.add(DnsRecord.host(QueryType.NS, DnsName.of("child.example.test"),
+                DnsName.of("ns1.child.example.test"), TTL));
+        this.zone.add(address("ns1.child.example.test", "192.0.2.53"));
+    }
+
+    @Test
+    void existingNameIsAnsweredAuthoritatively() throws Exception {
+        DnsPacket response = this.zone.answer(DnsName.of("www.example.test"), QueryType.A);
+
+        assertTrue(response.getHeader().isAuthoritativeAnswer());
+        assertEquals(ResultCode.NOERROR, response.getHeader().getRescode());
+        assertEquals(1, response.getAnswers().size());
+        assertEquals(InetAddress.getByName("192.0.2.10"), response.getAnswers().get(0).getAddr());
+    }
+
+    @Test
+    void wildcardAnswersMissingNameWithItsOwnName() throws Exception {
+        DnsName name = DnsName.of("missing.example.test");
+        DnsPacket response = this.zone.answer(name, QueryType.A);
+
+        assertTrue(response.getHeader().isAuthoritativeAnswer());
+        assertEquals(ResultCode.NOERROR, response.getHeader().getRescode());
+        assertEquals(1, response.getAnswers().size());
+        assertEquals(name, response.getAnswers().get(0).getDomain());
+        assertEquals(InetAddress.getByName("192.0.2.99"), response.getAnswers().get(0).getAddr());
+    }
+
+    @Test
+    void emptyNonTerminalGetsNoData() {
+        DnsPacket response = this.zone.answer(DnsName.of("deep.example.test"), QueryType.A);
+
+        assertEquals(ResultCode.NOERROR, response.getHeader().getRescode());
+        assertTrue(response.getAnswers().isEmpty());
+        assertSoa(response);
+    }
+
+    @Test
+    void wildcardDoesNotApplyBelowEmptyNonTerminal() {
+        // Closest encloser is deep.example.test which has no wildcard
+        DnsPacket response = this.zone.answer(DnsName.of("other.deep.example.test"), QueryType.A);
+
+        assertEquals(ResultCode.NXDOMAIN, response.getHeader().getRescode());
+        assertTrue(response.getAnswers().isEmpty());
+        assertSoa(response);
+    }
+
+    @Test
+    void delegatedNameGetsReferralWithGlue() throws Exception {
+        DnsPacket response = this.zone.answer(DnsName.of("www.child.example.test"), QueryType.A);
+
+        assertFalse(response.getHeader().isAuthoritativeAnswer());
+        assertEquals(ResultCode.NOERROR, response.getHeader().getRescode());
+        assertTrue(response.getAnswers().isEmpty());
+        assertEquals(1, response.getAuthorityRecords().size());
+        assertEquals(QueryType.NS, response.getAuthorityRecords().get(0).getQueryType());
+        assertEquals(DnsName.of("child.example.test"), response.getAuthorityRecords().get(0).getDomain());
+        assertEquals(1, response.getResourceRecords().size());
+        assertEquals(InetAddress.getByName("192.0.2.53"), response.getResourceRecords().get(0).getAddr());
+    }
+
+    @Test
+    void wildcardIsFoundForLabelsWithDots() throws Exception {
+        // Label "a.b" holds a dot, so the wildcard can not be built from text
+        DnsName encloser = wire(3, 'a', '.', 'b', 7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 4, 't', 'e', 's', 't', 0);
+        this.zone.add(DnsRecord.address(encloser, InetAddress.getByName("192.0.2.30"), TTL));
+        this.zone.add(DnsRecord.address(encloser.wildcard(), InetAddress.getByName("192.0.2.31"), TTL));
+
+        DnsName name = wire(1, 'x', 3, 'a', '.', 'b', 7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 4, 't', 'e', 's', 't', 0);
+        DnsPacket response = this.zone.answer(name, QueryType.A);
+
+        assertEquals(ResultCode.NOERROR, response.getHeader().getRescode());
+        assertEquals(1, response.getAnswers().size());
+        assertEquals(name, response.getAnswers().get(0).getDomain());
+        assertEquals(InetAddress.getByName("192.0.2.31"), response.getAnswers().get(0).getAddr());
+    }
+
+    @Test
+    void wildcardIsBuiltFromWireFormat() throws Exception {
+        assertEquals(DnsName.of("*.example.test"), ORIGIN.wildcard());
+        assertEquals(DnsName.of("*"), DnsName.ROOT.wildcard());
+
+        // Three labels of 63 and one of 60 chars take 254 bytes
+        byte[] longest = new byte[DnsName.MAX_LENGTH - 1];
+        for (int i = 0; i < 4; i++) {
+            int labelLength = i < 3 ? 63 : 60;
+            longest[i * 64] = (byte) labelLength;
+            for (int j = 1; j <= labelLength; j++) longest[i * 64 + j] = 'a';
+        }
+        DnsName name = wire(longest);
+        assertEquals(DnsName.MAX_LENGTH - 1, name.length());
+        assertNull(name.wildcard());
+    }
+
+    private static void assertSoa(DnsPacket response) {
+        assertEquals(1, response.getAuthorityRecords().size());
+        DnsRecord soa = response.getAuthorityRecords().get(0);
+        assertEquals(QueryType.SOA, soa.getQueryType());
+        assertEquals(MINIMUM, soa.getTtl());
+    }
+
+    private static DnsRecord address(String name, String address) throws Exception {
+        return DnsRecord.address(DnsName.of(name), InetAddress.getByName(address), TTL);
+    }
+
+    private static DnsName wire(int... bytes) throws Exception {
+        byte[] wire = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) wire[i] = (byte) bytes[i];
+        return wire(wire);
+    }
+
+    private static DnsName wire(byte[] wire) throws Exception {
+        BytePacketBuffer buffer = new BytePacketBuffer(wire.length);
+        buffer.writeBytes(wire);
+        buffer.jump(0);
+        return DnsName.read(buffer);
+    }
+
+}
@@ -0,0 +1,283 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Local stand-in for the hierarchy of authoritative servers used to test
+ * RecursiveResolver without network. Three servers are bound to different
+ * loopback addresses on the same port:
+ *
+ *  - ROOT refers every name to its TLD, served by TLD server
+ *  - TLD refers every name to zone made of its last two labels, served by
+ *    ZONE server with glue. Zones whose first label starts with "noglue"
+ *    are delegated to ns1.dnshost.<tld> without glue.
+ *  - ZONE answers authoritatively for all second level zones:
+ *      - names starting with "nxdomain" do not exist
+ *      - names starting with "alias" are CNAMEs to www in the same zone
+ *      - names starting with "external" are CNAMEs to www.target.<tld>
+ *      - names starting with "ns1" have address of ZONE server
+ *      - other names have synthetic A and AAAA records
+ *    Negative answers carry SOA of the zone with minimum of 300 seconds.
+ *
+ * Resolver is pointed to it with:
+ *
+ *     java -cp jDNS.jar:jDNS-tools.jar eu.sedam.jdns.FakeAuthority --port 5400 --delay 10ms
+ *     java -Djdns.recursive=true -Djdns.rootHints=127.0.1.1 -Djdns.nameServerPort=5400 -cp jDNS.jar eu.sedam.jdns.DnsResolver
+ *
+ * Number of queries received by every server is printed on exit, so it
+ * can be seen that delegation cache keeps queries away from ROOT and TLD. */
+public class FakeAuthority implements AutoCloseable {
+
+    public enum Role {
+        ROOT,
+        TLD,
+        ZONE
+    }
+
+    private static final int TTL = 3600;
+    private static final int NEGATIVE_TTL = 300;
+
+    private final InetAddress[] addresses = new InetAddress[Role.values().length];
+    private final DatagramChannel[] channels = new DatagramChannel[Role.values().length];
+    private final AtomicLongArray received = new AtomicLongArray(Role.values().length);
+    private final Selector selector;
+    private final long delayNanos;
+    private final ScheduledExecutorService scheduler;
+    private final Thread receiver;
+
+    public FakeAuthority(InetAddress root, InetAddress tld, InetAddress zone, int port, long delayNanos)
+            throws IOException {
+        this.addresses[Role.ROOT.ordinal()] = root;
+        this.addresses[Role.TLD.ordinal()] = tld;
+        this.addresses[Role.ZONE.ordinal()] = zone;
+        this.delayNanos = delayNanos;
+
+        this.selector = Selector.open();
+        for (Role role : Role.values()) {
+            DatagramChannel channel = DatagramChannel.open().bind(new InetSocketAddress(this.addresses[role.ordinal()], port));
+            channel.configureBlocking(false);
+            channel.register(this.selector, SelectionKey.OP_READ, role);
+            this.channels[role.ordinal()] = channel;
+        }
+
+        this.scheduler = delayNanos > 0
+                ? Executors.newScheduledThreadPool(2, task -> {
+                    Thread thread = new Thread(task, "fake-authority-delay");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+
+        this.receiver = new Thread(this::serve, "fake-authority");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    /*
+     * Number of queries received by server of given role */
+    public long getReceived(Role role) {
+        return this.received.get(role.ordinal());
+    }
+
+    private void serve() {
+        while (this.selector.isOpen()) {
+            try {
+                this.selector.select();
+                for (SelectionKey key : this.selector.selectedKeys()) {
+                    Role role = (Role) key.attachment();
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    while (true) {
+                        BytePacketBuffer queryBuffer = new BytePacketBuffer();
+                        SocketAddress client = queryBuffer.receive(channel);
+                        if (client == null) break;
+                        this.received.incrementAndGet(role.ordinal());
+
+                        BytePacketBuffer answerBuffer = answer(role, queryBuffer);
+                        if (answerBuffer == null) continue;
+                        if (this.scheduler == null) {
+                            send(channel, answerBuffer, client);
+                        } else {
+                            this.scheduler.schedule(() -> send(channel, answerBuffer, client),
+                                    this.delayNanos, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                }
+                this.selector.selectedKeys().clear();
+            } catch (Exception ex) {
+                // Closed selector ends the loop
+            }
+        }
+    }
+
+    private static void send(DatagramChannel channel, BytePacketBuffer answerBuffer, SocketAddress client) {
+        try {
+            answerBuffer.send(channel, client);
+        } catch (IOException ex) {
+            // Client is gone, nothing to do
+        }
+    }
+
+    /*
+     * Builds answer of server with given role, null for malformed query */
+    BytePacketBuffer answer(Role role, BytePacketBuffer queryBuffer) {
+        DnsPacket query;
+        try {
+            query = new DnsPacket().fromBuffer(queryBuffer);
+        } catch (Exception ex) {
+            return null;
+        }
+        if (query.getQuestions().size() != 1) return null;
+        DnsQuestion question = query.getQuestions().get(0);
+        DnsName name = question.getDnsName();
+
+        DnsPacket response = new DnsPacket();
+        response.getHeader().setId(query.getHeader().getId());
+        response.getHeader().setResponse(true);
+        response.getQuestions().add(question);
+
+        int labels = name.labelCount();
+        switch (role) {
+            case ROOT -> {
+                if (labels == 0) {
+                    response.getHeader().setAuthoritativeAnswer(true);
+                } else {
+                    DnsName tld = suffix(name, 1);
+                    delegate(response, tld, DnsName.of("a.nic." + tld), addressOf(Role.TLD));
+                }
+            }
+            case TLD -> {
+                if (labels == 1) {
+                    response.getHeader().setAuthoritativeAnswer(true);
+                } else {
+                    DnsName zone = suffix(name, 2);
+                    if (zone.toString().startsWith("noglue")) {
+                        delegate(response, zone, DnsName.of("ns1.dnshost." + suffix(name, 1)), null);
+                    } else {
+                        delegate(response, zone, DnsName.of("ns1." + zone), addressOf(Role.ZONE));
+                    }
+                }
+            }
+            case ZONE -> {
+                if (labels < 2) {
+                    response.getHeader().setRescode(ResultCode.REFUSED);
+                } else {
+                    response.getHeader().setAuthoritativeAnswer(true);
+                    answerZone(response, name, question.getQueryType());
+                    // NXDOMAIN or NODATA
+                    if (response.getAnswers().isEmpty()) {
+                        DnsName zone = suffix(name, 2);
+                        response.getAuthorityRecords().add(DnsRecord.soa(zone, DnsName.of("ns1." + zone),
+                                DnsName.of("hostmaster." + zone), 1, NEGATIVE_TTL, TTL));
+                    }
+                }
+            }
+        }
+
+        BytePacketBuffer answerBuffer = new BytePacketBuffer();
+        response.write(answerBuffer);
+        return answerBuffer;
+    }
+
+    /*
+     * Adds authoritative data of synthetic second level zone */
+    private void answerZone(DnsPacket response, DnsName name, QueryType queryType) {
+        DnsName zone = suffix(name, 2);
+        String label = name.toString();
+
+        if (label.startsWith("nxdomain")) {
+            response.getHeader().setRescode(ResultCode.NXDOMAIN);
+        } else if (label.startsWith("alias") || label.startsWith("external")) {
+            DnsName target = label.startsWith("alias")
+                    ? DnsName.of("www." + zone)
+                    : DnsName.of("www.target." + suffix(name, 1));
+            response.getAnswers().add(DnsRecord.host(QueryType.CNAME, name, target, TTL));
+            // Target in the same zone is answered right away
+            if (target.isSubdomainOf(zone)) addAddresses(response, target, queryType);
+        } else if (name.equals(zone) && queryType == QueryType.NS) {
+            response.getAnswers().add(DnsRecord.host(QueryType.NS, zone, DnsName.of("ns1." + zone), TTL));
+        } else if (label.startsWith("ns1.") && queryType == QueryType.A) {
+            response.getAnswers().add(DnsRecord.address(name, addressOf(Role.ZONE), TTL));
+        } else {
+            addAddresses(response, name, queryType);
+        }
+    }
+
+    /*
+     * Adds synthetic A or AAAA record derived from hash of given name */
+    private static void addAddresses(DnsPacket response, DnsName name, QueryType queryType) {
+        int host = Math.floorMod(name.hashCode(), 254) + 1;
+        try {
+            if (queryType == QueryType.A) {
+                response.getAnswers().add(DnsRecord.address(name,
+                        InetAddress.getByAddress(new byte[]{(byte) 192, 0, 2, (byte) host}), TTL));
+            } else if (queryType == QueryType.AAAA) {
+                byte[] address = new byte[16];
+                address[0] = 0x20;
+                address[1] = 0x01;
+                address[2] = 0x0D;
+                address[3] = (byte) 0xB8;
+                address[15] = (byte) host;
+                response.getAnswers().add(DnsRecord.address(name, InetAddress.getByAddress(address), TTL));
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /*
+     * Adds referral to given zone, with glue if address is given */
+    private static void delegate(DnsPacket response, DnsName zone, DnsName nameServer, InetAddress glue) {
+        response.getAuthorityRecords().add(DnsRecord.host(QueryType.NS, zone, nameServer, TTL));
+        if (glue != null) response.getResourceRecords().add(DnsRecord.address(nameServer, glue, TTL));
+    }
+
+    private InetAddress addressOf(Role role) {
+        return this.addresses[role.ordinal()];
+    }
+
+    /*
+     * Returns given number of last labels of name */
+    private static DnsName suffix(DnsName name, int labels) {
+        DnsName result = name;
+        for (int i = name.labelCount(); i > labels; i--) result = result.parent();
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.selector.close();
+        for (DatagramChannel channel : this.channels) channel.close();
+        if (this.scheduler != null) this.scheduler.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+        int port = arguments.getInt("port", 5400);
+
+        FakeAuthority authority = new FakeAuthority(
+                InetAddress.getByName(arguments.getString("root", "127.0.1.1")),
+                InetAddress.getByName(arguments.getString("tld", "127.0.1.2")),
+                InetAddress.getByName(arguments.getString("zone", "127.0.1.3")),
+                port,
+                arguments.getNanos("delay", "0ms"));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Role role : Role.values()) {
+                System.out.println(role + " received " + authority.getReceived(role) + " queries");
+            }
+        }));
+        System.out.println(">>> FAKE AUTHORITY LISTENING ON PORT " + port + " <<<");
+        authority.receiver.join();
+    }
+
+}
@@ -0,0 +1,311 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Local stand-in for upstream DNS server used for load tests and
+ * benchmarks. Every query is answered with synthetic records:
+ *
+ *  - A queries get given number of A records from 192.0.2.0/24
+ *  - AAAA queries get given number of AAAA records from 2001:db8::/32
+ *  - names whose first label starts with "nxdomain" get NXDOMAIN with SOA
+ *  - other queries get empty NOERROR answer with SOA
+ *
+ * Answers can be delayed and queries can be dropped with given probability
+ * to mimic remote server. Answers that do not fit 512 bytes, or payload
+ * size advertised in EDNS OPT record of the query, are sent with TC flag
+ * set and without records. The same answers are served over TCP on the
+ * same port, there without the size limit, delay or loss.
+ *
+ *     java -cp jDNS.jar:jDNS-tools.jar eu.sedam.jdns.FakeUpstream --port 5300 --delay 20ms --loss 0.01 --answers 4 */
+public class FakeUpstream implements AutoCloseable {
+
+    private static final byte[] NXDOMAIN_PREFIX = "nxdomain".getBytes();
+
+    private final DatagramChannel channel;
+    private final ServerSocketChannel tcpChannel;
+    private final long delayNanos;
+    private final double lossRate;
+    private final int answerCnt;
+    private final int ttl;
+    private final ScheduledExecutorService scheduler;
+    private final Thread receiver;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public FakeUpstream(InetSocketAddress address, long delayNanos, double lossRate, int answerCnt, int ttl)
+            throws IOException {
+        this.channel = DatagramChannel.open().bind(address);
+        this.tcpChannel = ServerSocketChannel.open().bind(this.channel.getLocalAddress());
+        this.delayNanos = delayNanos;
+        this.lossRate = lossRate;
+        this.answerCnt = answerCnt;
+        this.ttl = ttl;
+        this.scheduler = delayNanos > 0
+                ? Executors.newScheduledThreadPool(2, task -> {
+                    Thread thread = new Thread(task, "fake-upstream-delay");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+
+        this.receiver = new Thread(this::serve, "fake-upstream");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+
+        Thread acceptor = new Thread(this::accept, "fake-upstream-tcp");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /*
+     * Port the server is bound to, useful when bound to port 0 */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) this.channel.getLocalAddress()).getPort();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void serve() {
+        while (this.channel.isOpen()) {
+            BytePacketBuffer queryBuffer = new BytePacketBuffer();
+            SocketAddress client;
+            try {
+                client = queryBuffer.receive(this.channel);
+            } catch (IOException ex) {
+                // Closed channel ends the loop
+                continue;
+            }
+            this.received.incrementAndGet();
+
+            if (this.lossRate > 0 && ThreadLocalRandom.current().nextDouble() < this.lossRate) {
+                this.dropped.incrementAndGet();
+                continue;
+            }
+
+            BytePacketBuffer answerBuffer = answer(queryBuffer);
+            if (answerBuffer == null) continue;
+
+            if (this.scheduler == null) {
+                send(answerBuffer, client);
+            } else {
+                this.scheduler.schedule(() -> send(answerBuffer, client), this.delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void accept() {
+        while (this.tcpChannel.isOpen()) {
+            try {
+                SocketChannel connection = this.tcpChannel.accept();
+                Thread thread = new Thread(() -> serveTcp(connection), "fake-upstream-tcp-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ex) {
+                // Closed channel ends the loop
+            }
+        }
+    }
+
+    /*
+     * Answers framed queries on given connection until client closes it */
+    private void serveTcp(SocketChannel connection) {
+        try (connection) {
+            ByteBuffer length = ByteBuffer.allocate(2);
+            while (true) {
+                length.clear();
+                if (!readFully(connection, length)) return;
+                ByteBuffer query = ByteBuffer.allocate(length.getShort(0) & 0xFFFF);
+                if (!readFully(connection, query)) return;
+                this.received.incrementAndGet();
+
+                BytePacketBuffer answerBuffer = answer(new BytePacketBuffer(query),
+                        BytePacketBuffer.MAX_MESSAGE_SIZE);
+                if (answerBuffer == null) continue;
+
+                ByteBuffer frame = ByteBuffer.allocate(answerBuffer.getPosition() + 2);
+                frame.putShort((short) answerBuffer.getPosition());
+                frame.put(answerBuffer.getRange(0, answerBuffer.getPosition()));
+                frame.flip();
+                while (frame.hasRemaining()) connection.write(frame);
+            }
+        } catch (IOException ex) {
+            // Client is gone, nothing to do
+        }
+    }
+
+    private static boolean readFully(SocketChannel connection, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (connection.read(buffer) < 0) return false;
+        }
+        return true;
+    }
+
+    private void send(BytePacketBuffer answerBuffer, SocketAddress client) {
+        try {
+            answerBuffer.send(this.channel, client);
+        } catch (IOException ex) {
+            // Client is gone, nothing to do
+        }
+    }
+
+    /*
+     * Builds answer for query in given buffer, null for malformed query */
+    BytePacketBuffer answer(BytePacketBuffer queryBuffer) {
+        return answer(queryBuffer, BytePacketBuffer.DEFAULT_CAPACITY);
+    }
+
+    /*
+     * Builds answer of at most given size */
+    BytePacketBuffer answer(BytePacketBuffer queryBuffer, int maxSize) {
+        DnsHeader header = new DnsHeader();
+        DnsQuestion question = new DnsQuestion(DnsName.ROOT, QueryType.UNKNOWN);
+        OptRecord opt = null;
+        int questionEnd;
+        try {
+            header.read(queryBuffer);
+            if (header.getQuestionsCnt() != 1) return null;
+            question.read(queryBuffer);
+            questionEnd = queryBuffer.getPosition();
+            if (header.getResourceRecordsCnt() == 1 && DnsPacket.isOpt(queryBuffer)) {
+                opt = new OptRecord().read(queryBuffer);
+            }
+        } catch (Exception ex) {
+            return null;
+        }
+
+        // Client with EDNS can receive up to its advertised payload size
+        int size = opt == null ? maxSize
+                : Math.max(maxSize, Math.min(opt.getPayloadSize(), BytePacketBuffer.MAX_MESSAGE_SIZE));
+        BytePacketBuffer answerBuffer = new BytePacketBuffer(size);
+        answerBuffer.setCompression(false);
+        // Room for OPT record is kept free while answers are written
+        if (opt != null) answerBuffer.setLimit(size - OptRecord.SIZE);
+        for (int i = 0; i < questionEnd; i++) {
+            answerBuffer.writeOne(queryBuffer.getOne(i));
+        }
+
+        // QR and RA flags, RD copied from query
+        answerBuffer.setOne(2, (byte) (0x80 | (queryBuffer.getOne(2) & 0x01)));
+        answerBuffer.setOne(3, (byte) 0x80);
+        answerBuffer.setTwo(6, (short) 0);
+        answerBuffer.setTwo(8, (short) 0);
+        answerBuffer.setTwo(10, (short) 0);
+
+        try {
+            if (isNxdomain(question.getDnsName())) {
+                answerBuffer.setOne(3, (byte) (0x80 | ResultCode.NXDOMAIN.ordinal()));
+                answerBuffer.setTwo(8, (short) 1);
+                writeSoa(answerBuffer);
+            } else if (question.getQueryType() == QueryType.A || question.getQueryType() == QueryType.AAAA) {
+                boolean ipv4 = question.getQueryType() == QueryType.A;
+                for (int i = 0; i < this.answerCnt; i++) {
+                    writeAddress(answerBuffer, ipv4, i);
+                }
+                answerBuffer.setTwo(6, (short) this.answerCnt);
+            } else {
+                answerBuffer.setTwo(8, (short) 1);
+                writeSoa(answerBuffer);
+            }
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            // Answer does not fit, send only question with TC flag
+            answerBuffer.jump(questionEnd);
+            answerBuffer.setOne(2, (byte) (answerBuffer.getOne(2) | 0x02));
+            answerBuffer.setTwo(6, (short) 0);
+            answerBuffer.setTwo(8, (short) 0);
+        }
+
+        if (opt != null) {
+            answerBuffer.setLimit(size);
+            new OptRecord(size).write(answerBuffer);
+            answerBuffer.setTwo(10, (short) 1);
+        }
+        return answerBuffer;
+    }
+
+    /*
+     * Writes A or AAAA record for name in question (pointer to offset 12) */
+    private void writeAddress(BytePacketBuffer buffer, boolean ipv4, int index) {
+        buffer.writeTwo((short) 0xC00C);
+        buffer.writeTwo((ipv4 ? QueryType.A : QueryType.AAAA).toNumber());
+        buffer.writeTwo((short) 1);
+        buffer.writeFour(this.ttl);
+        if (ipv4) {
+            buffer.writeTwo((short) 4);
+            buffer.writeFour(0xC0000200 | ((index + 1) & 0xFF));
+        } else {
+            buffer.writeTwo((short) 16);
+            buffer.writeFour(0x20010DB8);
+            buffer.writeFour(0);
+            buffer.writeFour(0);
+            buffer.writeFour(index + 1);
+        }
+    }
+
+    /*
+     * Writes SOA record of the name in question with minimum TTL equal to TTL
+     * of answers. Owner and names inside point to the question. */
+    private void writeSoa(BytePacketBuffer buffer) {
+        buffer.writeTwo((short) 0xC00C);
+        buffer.writeTwo(QueryType.SOA.toNumber());
+        buffer.writeTwo((short) 1);
+        buffer.writeFour(this.ttl);
+        // MNAME and RNAME as pointers, then serial, refresh, retry, expire, minimum
+        buffer.writeTwo((short) 24);
+        buffer.writeTwo((short) 0xC00C);
+        buffer.writeTwo((short) 0xC00C);
+        buffer.writeFour(1);
+        buffer.writeFour(3600);
+        buffer.writeFour(600);
+        buffer.writeFour(86400);
+        buffer.writeFour(this.ttl);
+    }
+
+    private static boolean isNxdomain(DnsName name) {
+        if (name.isRoot() || (name.byteAt(0) & 0xFF) < NXDOMAIN_PREFIX.length) return false;
+        for (int i = 0; i < NXDOMAIN_PREFIX.length; i++) {
+            if (name.byteAt(i + 1) != NXDOMAIN_PREFIX[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+        this.tcpChannel.close();
+        if (this.scheduler != null) this.scheduler.shutdownNow();
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+        InetSocketAddress address = new InetSocketAddress(arguments.getString("address", "127.0.0.1"),
+                arguments.getInt("port", 5300));
+
+        FakeUpstream upstream = new FakeUpstream(address,
+                arguments.getNanos("delay", "0ms"),
+                arguments.getDouble("loss", 0.0),
+                arguments.getInt("answers", 1),
+                arguments.getInt("ttl", 300));
+        System.out.println(">>> FAKE UPSTREAM LISTENING ON " + address + " <<<");
+        upstream.receiver.join();
+    }
+
+}
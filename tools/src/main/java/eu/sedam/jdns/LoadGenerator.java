@@ -0,0 +1,274 @@
+package eu.sedam.jdns;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Load generator that sends queries to the resolver and reports achieved
+ * throughput and latency distribution. Two workload models are supported:
+ *
+ *  - closed: fixed number of clients, each sends next query only after
+ *    previous one was answered or timed out
+ *  - open: queries are sent at fixed rate regardless of responses, latency
+ *    is measured from the time query was scheduled so queueing delay of a
+ *    slow server is not hidden
+ *
+ * Names are picked uniformly from --names list, --names-file (one name per
+ * line) or from --random-names synthetic names host<i>.example.com. Query
+ * types are picked by weights such as --types A:80,AAAA:20.
+ *
+ *     java -cp jDNS.jar:jDNS-tools.jar eu.sedam.jdns.LoadGenerator --server 127.0.0.1:5053 --mode open --rate 20000 --duration 30s */
+public class LoadGenerator {
+
+    private final InetSocketAddress server;
+    private final byte[][] queries;
+    private final long durationNanos;
+    private final long timeoutNanos;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    public LoadGenerator(InetSocketAddress server, byte[][] queries, long durationNanos, long timeoutNanos) {
+        this.server = server;
+        this.queries = queries;
+        this.durationNanos = durationNanos;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /*
+     * Runs closed workload with given number of clients, each on own socket */
+    public void runClosed(int clients) throws InterruptedException {
+        long deadline = System.nanoTime() + this.durationNanos;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> closedClient(deadline), "load-client-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+    }
+
+    private void closedClient(long deadline) {
+        byte[] receiveData = new byte[4096];
+        DatagramPacket response = new DatagramPacket(receiveData, receiveData.length);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(this.server);
+            socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(this.timeoutNanos)));
+
+            while (System.nanoTime() < deadline) {
+                byte[] query = this.queries[random.nextInt(this.queries.length)].clone();
+                short id = (short) random.nextInt(0x10000);
+                setId(query, id);
+
+                long start = System.nanoTime();
+                socket.send(new DatagramPacket(query, query.length));
+                this.sent.incrementAndGet();
+
+                // Wait for reply with our ID, stale replies of timed out queries are skipped
+                while (true) {
+                    try {
+                        socket.receive(response);
+                    } catch (SocketTimeoutException ex) {
+                        this.timeouts.incrementAndGet();
+                        break;
+                    }
+                    if (response.getLength() >= 2 && getId(receiveData) == id) {
+                        this.histogram.record(System.nanoTime() - start);
+                        this.received.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println(">>> ERROR <<<" + "\n" + ex.getMessage());
+        }
+    }
+
+    /*
+     * Runs open workload with given total rate spread over given number of
+     * sockets. Each socket has its own sending and receiving thread. */
+    public void runOpen(double rate, int sockets) throws InterruptedException, IOException {
+        long start = System.nanoTime();
+        long deadline = start + this.durationNanos;
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) * sockets / rate);
+
+        List<Thread> threads = new ArrayList<>();
+        List<DatagramSocket> openSockets = new ArrayList<>();
+        for (int i = 0; i < sockets; i++) {
+            DatagramSocket socket = new DatagramSocket();
+            socket.connect(this.server);
+            openSockets.add(socket);
+
+            // Intended send time of outstanding query for each transaction ID
+            AtomicLongArray sendTimes = new AtomicLongArray(0x10000);
+            // Sockets start with offset so sends are spread evenly
+            long firstSend = start + intervalNanos * i / sockets;
+
+            Thread sender = new Thread(() -> openSender(socket, sendTimes, firstSend, intervalNanos, deadline),
+                    "load-sender-" + i);
+            Thread receiver = new Thread(() -> openReceiver(socket, sendTimes), "load-receiver-" + i);
+            receiver.setDaemon(true);
+            threads.add(sender);
+            receiver.start();
+            sender.start();
+        }
+
+        for (Thread thread : threads) thread.join();
+
+        // Give last queries time to be answered, then count the rest as lost
+        TimeUnit.NANOSECONDS.sleep(this.timeoutNanos);
+        for (DatagramSocket socket : openSockets) socket.close();
+        this.timeouts.set(this.sent.get() - this.received.get());
+    }
+
+    private void openSender(DatagramSocket socket, AtomicLongArray sendTimes, long firstSend,
+                            long intervalNanos, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int nextId = random.nextInt(0x10000);
+
+        for (long intended = firstSend; intended < deadline; intended += intervalNanos) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            byte[] query = this.queries[random.nextInt(this.queries.length)].clone();
+            int id = nextId++ & 0xFFFF;
+            setId(query, (short) id);
+
+            // Latency counts from intended time, not actual send time
+            sendTimes.set(id, intended);
+            try {
+                socket.send(new DatagramPacket(query, query.length));
+                this.sent.incrementAndGet();
+            } catch (IOException ex) {
+                sendTimes.set(id, 0);
+            }
+        }
+    }
+
+    private void openReceiver(DatagramSocket socket, AtomicLongArray sendTimes) {
+        byte[] receiveData = new byte[4096];
+        DatagramPacket response = new DatagramPacket(receiveData, receiveData.length);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(response);
+            } catch (IOException ex) {
+                break;
+            }
+            if (response.getLength() < 2) continue;
+
+            long now = System.nanoTime();
+            int id = getId(receiveData) & 0xFFFF;
+            long intended = sendTimes.getAndSet(id, 0);
+            if (intended == 0 || now - intended > this.timeoutNanos) continue;
+
+            this.histogram.record(now - intended);
+            this.received.incrementAndGet();
+        }
+    }
+
+    /*
+     * Prints throughput and latency distribution */
+    public void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(">>> RESULTS <<<");
+        System.out.printf("Sent:       %d%n", this.sent.get());
+        System.out.printf("Received:   %d%n", this.received.get());
+        System.out.printf("Timed out:  %d%n", this.timeouts.get());
+        System.out.printf("Throughput: %.1f responses/s%n", this.received.get() / seconds);
+        System.out.println("Latency:");
+        this.histogram.printPercentiles(System.out, 1000.0, "us");
+    }
+
+    /*
+     * Builds wire format queries for every combination of name and type,
+     * repeated by type weight so uniform pick follows the weights */
+    static byte[][] buildQueries(List<String> names, String types) {
+        List<byte[]> queries = new ArrayList<>();
+        for (String typeWeight : types.split(",")) {
+            String[] parts = typeWeight.split(":");
+            QueryType queryType = QueryType.valueOf(parts[0].trim().toUpperCase());
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+
+            for (String name : names) {
+                DnsPacket packet = new DnsPacket();
+                packet.getHeader().setRecursionDesired(true);
+                packet.getQuestions().add(new DnsQuestion(name, queryType));
+                BytePacketBuffer buffer = new BytePacketBuffer();
+                packet.write(buffer);
+                byte[] query = buffer.getRange(0, buffer.getPosition());
+                for (int i = 0; i < weight; i++) queries.add(query);
+            }
+        }
+        return queries.toArray(new byte[0][]);
+    }
+
+    private static void setId(byte[] query, short id) {
+        query[0] = (byte) (id >>> 8);
+        query[1] = (byte) id;
+    }
+
+    private static short getId(byte[] response) {
+        return (short) (((response[0] & 0xFF) << 8) | (response[1] & 0xFF));
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolArguments arguments = new ToolArguments(args);
+
+        List<String> names = new ArrayList<>();
+        String namesFile = arguments.getString("names-file", null);
+        if (namesFile != null) {
+            for (String line : Files.readAllLines(Path.of(namesFile))) {
+                if (!line.isBlank()) names.add(line.trim());
+            }
+        }
+        String nameList = arguments.getString("names", null);
+        if (nameList != null) names.addAll(List.of(nameList.split(",")));
+        int randomNames = arguments.getInt("random-names", names.isEmpty() ? 1000 : 0);
+        for (int i = 0; i < randomNames; i++) names.add("host" + i + ".example.com");
+
+        LoadGenerator generator = new LoadGenerator(
+                ServerConfig.parseAddress(arguments.getString("server", "127.0.0.1:5053"), 53),
+                buildQueries(names, arguments.getString("types", "A")),
+                arguments.getNanos("duration", "10s"),
+                arguments.getNanos("timeout", "1s"));
+
+        // Optional fake upstream in the same process so resolver can be
+        // pointed to it with -Djdns.upstream
+        FakeUpstream upstream = null;
+        if (arguments.getBoolean("fake-upstream")) {
+            upstream = new FakeUpstream(new InetSocketAddress("127.0.0.1", arguments.getInt("upstream-port", 5300)),
+                    arguments.getNanos("upstream-delay", "0ms"),
+                    arguments.getDouble("upstream-loss", 0.0),
+                    arguments.getInt("upstream-answers", 1),
+                    arguments.getInt("upstream-ttl", 300));
+        }
+
+        long start = System.nanoTime();
+        String mode = arguments.getString("mode", "closed");
+        switch (mode) {
+            case "closed" -> generator.runClosed(arguments.getInt("concurrency", 64));
+            case "open" -> generator.runOpen(arguments.getDouble("rate", 10000), arguments.getInt("sockets", 8));
+            default -> throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+        generator.report(Math.min(System.nanoTime() - start, arguments.getNanos("duration", "10s")));
+
+        if (upstream != null) upstream.close();
+    }
+
+}